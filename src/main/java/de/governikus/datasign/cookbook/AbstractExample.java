@@ -12,6 +12,7 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Properties;
@@ -35,6 +36,13 @@ public class AbstractExample {
                 .header("Content-Type", "application/octet-stream");
     }
 
+    protected HttpRequest.Builder POST(String restPath, Path body) throws Exception {
+        return HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofFile(body))
+                .uri(URI.create(props.getProperty("url")).resolve(restPath))
+                .header("Content-Type", "application/octet-stream");
+    }
+
     protected HttpRequest.Builder POST(String restPath, Object body) throws Exception {
         return HttpRequest.newBuilder()
                 .POST(HttpRequest.BodyPublishers.ofString(toJsonString(body)))
@@ -102,10 +110,10 @@ public class AbstractExample {
         return om;
     }
 
-    protected static void writeToDisk(DSSDocument bytes, String filename) throws Exception {
-        var out = new FileOutputStream(filename);
-        out.write(bytes.openStream().readAllBytes());
-        out.close();
+    protected static void writeToDisk(DSSDocument document, String filename) throws Exception {
+        try (var in = document.openStream(); var out = new FileOutputStream(filename)) {
+            in.transferTo(out);
+        }
     }
 
     protected static void writeToDisk(byte[] bytes, String filename) throws Exception {
@@ -0,0 +1,24 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.util.CAdESExtensionQueue;
+
+import java.nio.file.Path;
+
+/**
+ * Example for extending the detached CAdES-BASELINE-T signatures queued by {@link SealToBeSignedExample} and
+ * {@link SignToBeSignedExample} (with {@code -Dcookbook.deferredLtExtension=true}) to CAdES-BASELINE-LT. Meant to be
+ * run periodically, e.g. by a scheduler, signatures that could not be extended stay in the queue.
+ */
+public class ProcessExtensionQueueExample {
+
+    public static void main(String[] args) throws Exception {
+        new ProcessExtensionQueueExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        var queue = new CAdESExtensionQueue(Path.of("cades-extension-queue.properties"));
+        var extended = queue.processAll();
+        System.out.printf("%d detached signatures are now extended to LT-Level, %d are still queued%n", extended, queue.size());
+        queue.failed().forEach((signatureFile, reason) -> System.err.println(signatureFile + " could not be extended: " + reason));
+    }
+}
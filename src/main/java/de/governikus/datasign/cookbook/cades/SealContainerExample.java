@@ -0,0 +1,95 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.*;
+import de.governikus.datasign.cookbook.types.request.DocumentHash;
+import de.governikus.datasign.cookbook.types.request.DocumentSignatureParameter;
+import de.governikus.datasign.cookbook.types.request.SealDocumentHashTransactionRequest;
+import de.governikus.datasign.cookbook.types.response.AvailableSeals;
+import de.governikus.datasign.cookbook.types.response.DocumentHashSealTransaction;
+import de.governikus.datasign.cookbook.util.ASiCEContainer;
+import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.HashingService;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for sealing all files in the directory documents with one seal. The files are packaged into the ASiC-E
+ * container documents_sealed.asice, only its manifest is sealed by its hash.
+ */
+public class SealContainerExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new SealContainerExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var provider = SealProvider.valueOf(props.getProperty("example.sealProvider"));
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // GET /seals
+        var availableSeals = send(
+                GET("/seals")
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                AvailableSeals.class);
+
+        // use these to discover which seals are available and pick one sealId
+        System.out.println("availableSeals = " + availableSeals);
+
+        // here we use the sealId from our cookbook.properties file, make sure the seal is available
+        var sealId = props.getProperty("example.sealId");
+
+        // hash all files in parallel into the manifest, then hash the manifest
+        List<Path> documents;
+        try (var files = Files.list(Path.of("documents"))) {
+            documents = files.filter(Files::isRegularFile).toList();
+        }
+        var manifest = ASiCEContainer.manifest(documents, HashAlgorithm.SHA_256);
+        var manifestHash = HashingService.messageDigest(HashAlgorithm.SHA_256).digest(manifest.xml());
+
+        // POST /seal/document-hash/transactions
+        var documentHashId = UUID.randomUUID();
+        var transaction = send(
+                POST("/seal/document-hash/transactions",
+                        new SealDocumentHashTransactionRequest(
+                                sealId,
+                                new DocumentSignatureParameter(SignatureNiveau.QUALIFIED, SignatureLevel.B_LT,
+                                        HashAlgorithm.SHA_256, SignatureFormat.CADES, SignaturePackaging.DETACHED),
+                                List.of(new DocumentHash(documentHashId, manifestHash)), timestampProvider))
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                DocumentHashSealTransaction.class);
+
+        var cmsSignedData = transaction.results().stream().filter(r ->
+                r.id().equals(documentHashId)).findFirst().orElseThrow();
+
+        // check if the signature of the manifest is valid
+        var report = DSSFactory.signedDocumentValidator(new DigestDocument(DigestAlgorithm.SHA256, manifestHash),
+                new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
+        var indication = report.getIndication(report.getFirstSignatureId()).name();
+        if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
+            System.err.println("signature is not valid");
+        }
+
+        ASiCEContainer.write(Path.of("documents_sealed.asice"), manifest, cmsSignedData.cmsSignedData());
+        System.out.printf("%d documents are now sealed with one seal and written to disk as documents_sealed.asice%n",
+                documents.size());
+    }
+
+}
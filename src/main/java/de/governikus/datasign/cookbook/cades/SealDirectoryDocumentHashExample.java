@@ -0,0 +1,92 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.*;
+import de.governikus.datasign.cookbook.types.request.DocumentHash;
+import de.governikus.datasign.cookbook.types.request.DocumentSignatureParameter;
+import de.governikus.datasign.cookbook.types.request.SealDocumentHashTransactionRequest;
+import de.governikus.datasign.cookbook.types.response.DocumentHashSealTransaction;
+import de.governikus.datasign.cookbook.util.FileHashCache;
+import de.governikus.datasign.cookbook.util.HashingService;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.UUID;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for document hash sealing of a whole directory. Repeated runs only seal the files that changed or are new
+ * since the last run, unchanged files are not even hashed again.
+ */
+public class SealDirectoryDocumentHashExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new SealDirectoryDocumentHashExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var provider = SealProvider.valueOf(props.getProperty("example.sealProvider"));
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // here we use the sealId from our cookbook.properties file, make sure the seal is available
+        var sealId = props.getProperty("example.sealId");
+
+        var directory = Path.of("documents");
+        var signatureDirectory = Files.createDirectories(Path.of("documents_sealed"));
+
+        // hash the changed and new files only
+        var fileHashCache = new FileHashCache();
+        fileHashCache.load(Path.of("file-hashes.properties"));
+        try (var hashingService = new HashingService()) {
+            var changedFiles = fileHashCache.changedFiles(directory, EnumSet.of(HashAlgorithm.SHA_256), hashingService);
+            if (changedFiles.isEmpty()) {
+                System.out.println("no changed files in " + directory);
+            } else {
+                var files = new HashMap<UUID, Path>();
+                var documentHashes = new ArrayList<DocumentHash>();
+                for (var changedFile : changedFiles) {
+                    var documentHashId = UUID.randomUUID();
+                    files.put(documentHashId, changedFile.file());
+                    documentHashes.add(new DocumentHash(documentHashId, changedFile.hashes().get(HashAlgorithm.SHA_256)));
+                }
+
+                // POST /seal/document-hash/transactions
+                var transaction = send(
+                        POST("/seal/document-hash/transactions",
+                                new SealDocumentHashTransactionRequest(
+                                        sealId,
+                                        new DocumentSignatureParameter(SignatureNiveau.QUALIFIED, SignatureLevel.B_LT,
+                                                HashAlgorithm.SHA_256, SignatureFormat.CADES, SignaturePackaging.DETACHED),
+                                        documentHashes, timestampProvider))
+                                .header("provider", provider.toString())
+                                .header("Authorization", accessToken.toAuthorizationHeader()),
+                        DocumentHashSealTransaction.class);
+
+                for (var cmsSignedData : transaction.results()) {
+                    var file = files.get(cmsSignedData.id());
+                    var signatureFile = signatureDirectory.resolve(directory.toAbsolutePath().relativize(file) + ".p7s");
+                    Files.createDirectories(signatureFile.getParent());
+                    writeToDisk(cmsSignedData.cmsSignedData(), signatureFile.toString());
+                    // only remember the hashes of the files that are sealed
+                    fileHashCache.confirm(file);
+                }
+                System.out.printf("%d of %d changed files in %s are now sealed, the signatures are written to %s%n",
+                        transaction.results().size(), changedFiles.size(), directory, signatureDirectory);
+            }
+        }
+
+        // also stores that deleted files are forgotten
+        fileHashCache.store(Path.of("file-hashes.properties"));
+    }
+}
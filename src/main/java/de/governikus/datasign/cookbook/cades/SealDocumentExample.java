@@ -9,9 +9,11 @@ import de.governikus.datasign.cookbook.types.response.AvailableSeals;
 import de.governikus.datasign.cookbook.types.response.DocumentSealTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.InMemoryDocument;
 
 import java.io.FileInputStream;
+import java.nio.file.Path;
 import java.util.List;
 
 import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
@@ -49,7 +51,7 @@ public class SealDocumentExample extends AbstractExample {
         var sealId = props.getProperty("example.sealId");
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -75,7 +77,7 @@ public class SealDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.docx"),
                 new InMemoryDocument(pkcs7SignatureBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -7,11 +7,17 @@ import de.governikus.datasign.cookbook.types.response.AvailableSeals;
 import de.governikus.datasign.cookbook.types.response.DocumentHashSealTransaction;
 import de.governikus.datasign.cookbook.types.response.DocumentSealTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
+import de.governikus.datasign.cookbook.util.BackgroundValidator;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.DetachedSignatureValidator;
+import de.governikus.datasign.cookbook.util.HashCheckpointStore;
+import de.governikus.datasign.cookbook.util.HashingService;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DigestDocument;
 import eu.europa.esig.dss.model.InMemoryDocument;
 
 import java.io.FileInputStream;
-import java.security.MessageDigest;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.UUID;
 
@@ -27,6 +33,20 @@ public class SealDocumentHashExample extends AbstractExample {
     }
 
     public void runExample() throws Exception {
+        // with background validation the output is released right away, the sample is validated while the run
+        // continues and closing the validator at the end of the run waits for the pending validations
+        var backgroundValidation = Boolean.getBoolean("cookbook.backgroundValidation");
+        var sampleRate = Double.parseDouble(System.getProperty("cookbook.validationSampleRate", "1.0"));
+        try (var backgroundValidator = backgroundValidation
+                ? new BackgroundValidator(sampleRate, BackgroundValidator.moveTo(Path.of("quarantine"))) : null) {
+            runExample(backgroundValidator);
+        }
+    }
+
+    /**
+     * @param backgroundValidator null to validate before the output is released
+     */
+    private void runExample(BackgroundValidator backgroundValidator) throws Exception {
         props.load(new FileInputStream("cookbook.properties"));
         System.out.println("Running example with properties = " + props.getProperty("url"));
 
@@ -49,8 +69,17 @@ public class SealDocumentHashExample extends AbstractExample {
         // here we use the sealId from our cookbook.properties file, make sure the seal is available
         var sealId = props.getProperty("example.sealId");
 
-        // calculate the document hash from the unsigned document
-        var documentHash = MessageDigest.getInstance("SHA-256").digest(new FileInputStream("sample.docx").readAllBytes());
+        // calculate the document hash from the unsigned document, an append-only document (e.g. a growing log) is
+        // hashed from the last checkpoint of the previous run, so only the appended bytes are read
+        byte[] documentHash;
+        if (Boolean.getBoolean("cookbook.appendOnly")) {
+            var hashCheckpointStore = new HashCheckpointStore();
+            hashCheckpointStore.load(Path.of("hash-checkpoints.properties"));
+            documentHash = hashCheckpointStore.hash(Path.of("sample.docx"), HashAlgorithm.SHA_256);
+            hashCheckpointStore.store(Path.of("hash-checkpoints.properties"));
+        } else {
+            documentHash = HashingService.hash(Path.of("sample.docx"), HashAlgorithm.SHA_256);
+        }
 
         // POST /seal/document-hash/transactions
         var documentHashId = UUID.randomUUID();
@@ -68,15 +97,24 @@ public class SealDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream().filter(r ->
                 r.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
-                new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
-        var indication = report.getIndication(report.getFirstSignatureId()).name();
-        if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
-            System.err.println("signature is not valid");
+        if (backgroundValidator == null) {
+            // check if the signature is valid, the document hash is sufficient as detached content
+            var report = DSSFactory.signedDocumentValidator(new DigestDocument(DigestAlgorithm.SHA256, documentHash),
+                    new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
+            var indication = report.getIndication(report.getFirstSignatureId()).name();
+            if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
+                System.err.println("signature is not valid");
+            }
         }
 
         writeToDisk(cmsSignedData.cmsSignedData(), "sample_sealed.docx.p7s");
+        if (backgroundValidator != null) {
+            // the signature is released, the seal is validated while the run continues
+            backgroundValidator.submit(Path.of("sample_sealed.docx.p7s"), new InMemoryDocument(cmsSignedData.cmsSignedData()),
+                    new DigestDocument(DigestAlgorithm.SHA256, documentHash));
+        }
+        // keep the document hash, so the signature can be validated later without reading sample.docx again
+        DetachedSignatureValidator.storeDigest(Path.of("digests.properties"), Path.of("sample_sealed.docx.p7s"), DigestAlgorithm.SHA256, documentHash);
         System.out.println("sample.docx is now sealed and the signature is written to disk as sample_sealed.docx.p7s");
     }
 
@@ -0,0 +1,117 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.*;
+import de.governikus.datasign.cookbook.types.request.DocumentHash;
+import de.governikus.datasign.cookbook.types.request.DocumentSignatureParameter;
+import de.governikus.datasign.cookbook.types.request.SealDocumentHashTransactionRequest;
+import de.governikus.datasign.cookbook.types.response.AvailableSeals;
+import de.governikus.datasign.cookbook.types.response.DocumentHashSealTransaction;
+import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.HashingService;
+import de.governikus.datasign.cookbook.util.MerkleProofVerifier;
+import de.governikus.datasign.cookbook.util.MerkleTree;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for sealing all files in the directory documents with one seal, without packaging them. Only the root of a
+ * Merkle tree over the document hashes is sealed. Each batch is written to {@code documents_merkle/<root hash>/}: the
+ * signature of the root {@code root.p7s} and an inclusion proof per document, which together prove that the document
+ * is sealed. Sealing a changed document again does not overwrite the proofs of earlier batches.
+ */
+public class SealMerkleRootExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new SealMerkleRootExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var provider = SealProvider.valueOf(props.getProperty("example.sealProvider"));
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // GET /seals
+        var availableSeals = send(
+                GET("/seals")
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                AvailableSeals.class);
+
+        // use these to discover which seals are available and pick one sealId
+        System.out.println("availableSeals = " + availableSeals);
+
+        // here we use the sealId from our cookbook.properties file, make sure the seal is available
+        var sealId = props.getProperty("example.sealId");
+
+        // hash all files in parallel, then build the tree over the document hashes
+        List<Path> documents;
+        try (var files = Files.list(Path.of("documents"))) {
+            documents = files.filter(Files::isRegularFile).toList();
+        }
+        var documentHashes = new ArrayList<byte[]>(documents.size());
+        try (var hashingService = new HashingService()) {
+            var digests = hashingService.hashAll(documents, HashAlgorithm.SHA_256);
+            documents.forEach(document -> documentHashes.add(digests.get(document)));
+        }
+        var tree = new MerkleTree(documentHashes, HashAlgorithm.SHA_256);
+        var rootHash = tree.root();
+
+        // POST /seal/document-hash/transactions
+        var documentHashId = UUID.randomUUID();
+        var transaction = send(
+                POST("/seal/document-hash/transactions",
+                        new SealDocumentHashTransactionRequest(
+                                sealId,
+                                new DocumentSignatureParameter(SignatureNiveau.QUALIFIED, SignatureLevel.B_LT,
+                                        HashAlgorithm.SHA_256, SignatureFormat.CADES, SignaturePackaging.DETACHED),
+                                List.of(new DocumentHash(documentHashId, rootHash)), timestampProvider))
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                DocumentHashSealTransaction.class);
+
+        var cmsSignedData = transaction.results().stream().filter(r ->
+                r.id().equals(documentHashId)).findFirst().orElseThrow();
+
+        // check if the signature of the root is valid
+        var report = DSSFactory.signedDocumentValidator(new DigestDocument(DigestAlgorithm.SHA256, rootHash),
+                new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
+        var indication = report.getIndication(report.getFirstSignatureId()).name();
+        if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
+            System.err.println("signature is not valid");
+        }
+
+        // one directory per batch, the proofs of earlier batches keep referring to their own root
+        var batchDirectory = Files.createDirectories(Path.of("documents_merkle", HexFormat.of().formatHex(rootHash)));
+        var signatureFile = batchDirectory.resolve("root.p7s");
+        Files.write(signatureFile, cmsSignedData.cmsSignedData());
+        for (var i = 0; i < documents.size(); i++) {
+            MerkleProofVerifier.store(batchDirectory.resolve(documents.get(i).getFileName() + ".proof"),
+                    tree.proof(i), signatureFile);
+        }
+        System.out.printf("%d documents are now sealed with one seal, the inclusion proofs are written to %s%n",
+                documents.size(), batchDirectory);
+
+        // a single document is verified by its proof and the signature of the root only
+        var result = MerkleProofVerifier.verify(documents.get(0),
+                batchDirectory.resolve(documents.get(0).getFileName() + ".proof"));
+        System.out.printf("%s: %s%n", documents.get(0).getFileName(), result.indication());
+    }
+
+}
@@ -0,0 +1,218 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.*;
+import de.governikus.datasign.cookbook.types.request.*;
+import de.governikus.datasign.cookbook.types.response.AvailableSeals;
+import de.governikus.datasign.cookbook.types.response.Certificate;
+import de.governikus.datasign.cookbook.types.response.Timestamps;
+import de.governikus.datasign.cookbook.types.response.ToBeSignedSealTransaction;
+import de.governikus.datasign.cookbook.util.CAdESTemplate;
+import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.HashingService;
+import de.governikus.datasign.cookbook.util.SignatureExpiryIndex;
+import de.governikus.datasign.cookbook.util.TieredValidator;
+import eu.europa.esig.dss.cades.CAdESSignatureParameters;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.enumerations.SignaturePackaging;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+
+import java.io.FileInputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for CAdES to-be-signed based sealing of many documents in one transaction. The DTBS and the detached
+ * signatures (CAdES-BASELINE-T) are created from a {@link CAdESTemplate}, DSS is only used once for the template.
+ */
+public class SealToBeSignedBatchExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new SealToBeSignedBatchExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var provider = SealProvider.valueOf(props.getProperty("example.sealProvider"));
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // GET /seals
+        var availableSeals = send(
+                GET("/seals")
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                AvailableSeals.class);
+
+        // use these to discover which seals are available and pick one sealId
+        System.out.println("availableSeals = " + availableSeals);
+
+        // here we use the sealId from our cookbook.properties file, make sure the seal is available
+        var sealId = props.getProperty("example.sealId");
+
+        // GET /seals/{sealId}/certificates
+        var certificate = send(
+                GET("/seals/%s/certificates".formatted(URLEncoder.encode(sealId, StandardCharsets.UTF_8)))
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                Certificate.class);
+
+        // Use these to discover which signature algorithms are available and pick one
+        System.out.println("signatureAlgorithms = " + certificate.signatureAlgorithms());
+
+        // here we use the signatureAlgorithm from our cookbook.properties file, make sure the signature algorithm is supported
+        var signatureAlgorithm = SignatureAlgorithm.valueOf(props.getProperty("example.signatureAlgorithm"));
+        var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
+
+        // the template is created once per certificate and signature algorithm
+        var template = CAdESTemplate.create(DSSFactory.cAdESService(),
+                signatureParameters(certificate.certificate(), signatureAlgorithm, hashAlgorithm),
+                mapSignatureAlgorithm(signatureAlgorithm));
+
+        // calculate the DTBS of all documents from their hashes
+        List<Path> documents;
+        try (var files = Files.list(Path.of("documents"))) {
+            documents = files.filter(Files::isRegularFile).toList();
+        }
+        var signingTime = new Date();
+        var toBeSigned = new ArrayList<ToBeSigned>();
+        var documentsById = new HashMap<UUID, Path>();
+        var dtbsById = new HashMap<UUID, byte[]>();
+        var documentHashById = new HashMap<UUID, byte[]>();
+        try (var hashingService = new HashingService()) {
+            var documentHashes = hashingService.hashAll(documents, hashAlgorithm);
+            for (var document : documents) {
+                var toBeSignedId = UUID.randomUUID();
+                var dtbs = template.dataToSign(documentHashes.get(document), signingTime);
+                toBeSigned.add(new ToBeSigned(toBeSignedId, dtbs, document.getFileName().toString()));
+                documentsById.put(toBeSignedId, document);
+                dtbsById.put(toBeSignedId, dtbs);
+                documentHashById.put(toBeSignedId, documentHashes.get(document));
+            }
+        }
+
+        // POST /seal/to-be-signed/transactions
+        var transaction = send(
+                POST("/seal/to-be-signed/transactions",
+                        new SealToBeSignedTransactionRequest(
+                                sealId,
+                                new ToBeSignedSignatureParameter(SignatureNiveau.QUALIFIED, hashAlgorithm, signatureAlgorithm),
+                                toBeSigned))
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                ToBeSignedSealTransaction.class);
+
+        // POST /timestamp
+        var digests = new ArrayList<Digest>();
+        for (var signatureValue : transaction.results().values()) {
+            digests.add(new Digest(signatureValue.id(), hashAlgorithm, digest(hashAlgorithm, signatureValue.signatureValue())));
+        }
+        var timestamps = send(
+                POST("/timestamp", new TimestampRequest(timestampProvider, digests))
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                Timestamps.class);
+
+        // graft the signature values and timestamps into the template
+        var signatureDirectory = Files.createDirectories(Path.of("documents_sealed"));
+        var expiryIndex = Boolean.getBoolean("cookbook.expiryIndex") ? new SignatureExpiryIndex(Path.of("expiry-index")) : null;
+        var written = 0;
+        for (var signatureValue : transaction.results().values()) {
+            var timestamp = timestamps.timestamps().stream()
+                    .filter(t -> t.id().equals(signatureValue.id())).findFirst().orElseThrow();
+            var detachedSignature = template.cmsSignedData(dtbsById.get(signatureValue.id()),
+                    signatureValue.signatureValue(), timestamp.timestampToken());
+
+            // the signatures are assembled locally, a cheap check of the signature value is sufficient here
+            var result = TieredValidator.validate(new InMemoryDocument(detachedSignature),
+                    new DigestDocument(digestAlgorithm(hashAlgorithm), documentHashById.get(signatureValue.id())),
+                    TieredValidator.Tier.SIGNATURE_VALUE);
+            var document = documentsById.get(signatureValue.id());
+            if (!result.isValid()) {
+                System.err.printf("signature of %s is not valid: %s%n", document, result);
+                continue;
+            }
+            var signatureFile = signatureDirectory.resolve(document.getFileName() + ".p7s");
+            writeToDisk(detachedSignature, signatureFile.toString());
+            written++;
+            if (expiryIndex != null) {
+                expiryIndex.add(signatureFile);
+            }
+        }
+        System.out.printf("%d of %d documents are now sealed and the detached signatures are written to %s%n",
+                written, documents.size(), signatureDirectory);
+    }
+
+    private static CAdESSignatureParameters signatureParameters(byte[] signingCertificate, SignatureAlgorithm signatureAlgorithm, HashAlgorithm hashAlgorithm) throws Exception {
+        var cAdESSignatureParameters = new CAdESSignatureParameters();
+        cAdESSignatureParameters.setSignaturePackaging(SignaturePackaging.DETACHED);
+        cAdESSignatureParameters.setDigestAlgorithm(digestAlgorithm(hashAlgorithm));
+        cAdESSignatureParameters.setSigningCertificate(new CertificateToken(toX509Certificate(signingCertificate)));
+        // leave #setEncryptionAlgorithm here after #setSigningCertificate
+        cAdESSignatureParameters.setEncryptionAlgorithm(switch (signatureAlgorithm) {
+            case RSA_SHA256, RSA_SHA384, RSA_SHA512 -> EncryptionAlgorithm.RSA;
+            case RSA_WITH_MGF1_SHA256, RSA_WITH_MGF1_SHA384, RSA_WITH_MGF1_SHA512 -> EncryptionAlgorithm.RSASSA_PSS;
+            case ECDSA_SHA256, ECDSA_SHA384, ECDSA_SHA512 -> EncryptionAlgorithm.ECDSA;
+            case PLAIN_ECDSA_SHA256, PLAIN_ECDSA_SHA384, PLAIN_ECDSA_SHA512 -> EncryptionAlgorithm.PLAIN_ECDSA;
+        });
+        return cAdESSignatureParameters;
+    }
+
+    private static DigestAlgorithm digestAlgorithm(HashAlgorithm hashAlgorithm) {
+        return switch (hashAlgorithm) {
+            case SHA_256 -> DigestAlgorithm.SHA256;
+            case SHA_384 -> DigestAlgorithm.SHA384;
+            case SHA_512 -> DigestAlgorithm.SHA512;
+        };
+    }
+
+    private static eu.europa.esig.dss.enumerations.SignatureAlgorithm mapSignatureAlgorithm(SignatureAlgorithm signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case RSA_WITH_MGF1_SHA256 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.RSA_SSA_PSS_SHA256_MGF1;
+            case RSA_WITH_MGF1_SHA384 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.RSA_SSA_PSS_SHA384_MGF1;
+            case RSA_WITH_MGF1_SHA512 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.RSA_SSA_PSS_SHA512_MGF1;
+            case RSA_SHA256 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.RSA_SHA256;
+            case RSA_SHA384 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.RSA_SHA384;
+            case RSA_SHA512 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.RSA_SHA512;
+            case ECDSA_SHA256 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.ECDSA_SHA256;
+            case ECDSA_SHA384 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.ECDSA_SHA384;
+            case ECDSA_SHA512 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.ECDSA_SHA512;
+            case PLAIN_ECDSA_SHA256 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.PLAIN_ECDSA_SHA256;
+            case PLAIN_ECDSA_SHA384 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.PLAIN_ECDSA_SHA384;
+            case PLAIN_ECDSA_SHA512 -> eu.europa.esig.dss.enumerations.SignatureAlgorithm.PLAIN_ECDSA_SHA512;
+        };
+    }
+
+    private static HashAlgorithm hashAlgorithm(SignatureAlgorithm signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case RSA_SHA256, RSA_WITH_MGF1_SHA256, ECDSA_SHA256, PLAIN_ECDSA_SHA256 -> HashAlgorithm.SHA_256;
+            case RSA_SHA384, RSA_WITH_MGF1_SHA384, ECDSA_SHA384, PLAIN_ECDSA_SHA384 -> HashAlgorithm.SHA_384;
+            case RSA_SHA512, RSA_WITH_MGF1_SHA512, ECDSA_SHA512, PLAIN_ECDSA_SHA512 -> HashAlgorithm.SHA_512;
+        };
+    }
+
+    private static byte[] digest(HashAlgorithm hashAlgorithm, byte[] signatureValue) throws Exception {
+        var hashAlgorithmJavaName = switch (hashAlgorithm) {
+            case SHA_256 -> "SHA-256";
+            case SHA_384 -> "SHA-384";
+            case SHA_512 -> "SHA-512";
+        };
+        return MessageDigest.getInstance(hashAlgorithmJavaName).digest(signatureValue);
+    }
+}
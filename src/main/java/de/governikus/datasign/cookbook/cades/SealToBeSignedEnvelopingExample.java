@@ -0,0 +1,131 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.*;
+import de.governikus.datasign.cookbook.types.request.*;
+import de.governikus.datasign.cookbook.types.response.AvailableSeals;
+import de.governikus.datasign.cookbook.types.response.Certificate;
+import de.governikus.datasign.cookbook.types.response.Timestamps;
+import de.governikus.datasign.cookbook.types.response.ToBeSignedSealTransaction;
+import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.StreamingCAdESEnvelopingGenerator;
+import eu.europa.esig.dss.model.FileDocument;
+
+import java.io.FileInputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.UUID;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for CAdES to-be-signed based sealing with an enveloping signature. The document is streamed into the
+ * signature file, so documents of any size are sealed in constant memory.
+ */
+public class SealToBeSignedEnvelopingExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new SealToBeSignedEnvelopingExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var provider = SealProvider.valueOf(props.getProperty("example.sealProvider"));
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // GET /seals
+        var availableSeals = send(
+                GET("/seals")
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                AvailableSeals.class);
+
+        // use these to discover which seals are available and pick one sealId
+        System.out.println("availableSeals = " + availableSeals);
+
+        // here we use the sealId from our cookbook.properties file, make sure the seal is available
+        var sealId = props.getProperty("example.sealId");
+
+        // GET /seals/{sealId}/certificates
+        var certificate = send(
+                GET("/seals/%s/certificates".formatted(URLEncoder.encode(sealId, StandardCharsets.UTF_8)))
+                        .header("provider", provider.toString())
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                Certificate.class);
+
+        // Use these to discover which signature algorithms are available and pick one
+        System.out.println("signatureAlgorithms = " + certificate.signatureAlgorithms());
+
+        // here we use the signatureAlgorithm from our cookbook.properties file, make sure the signature algorithm is supported
+        var signatureAlgorithm = SignatureAlgorithm.valueOf(props.getProperty("example.signatureAlgorithm"));
+        var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
+
+        // the document is hashed while it is written into the signature file, afterwards the DTBS is sealed
+        // and the signature value is timestamped
+        var generator = new StreamingCAdESEnvelopingGenerator(toX509Certificate(certificate.certificate()), signatureAlgorithm);
+        generator.generate(Path.of("sample.docx"), Path.of("sample_sealed.docx.p7m"),
+                dtbs -> {
+                    // POST /seal/to-be-signed/transactions
+                    var toBeSignedId = UUID.randomUUID();
+                    var transaction = send(
+                            POST("/seal/to-be-signed/transactions",
+                                    new SealToBeSignedTransactionRequest(
+                                            sealId,
+                                            new ToBeSignedSignatureParameter(SignatureNiveau.QUALIFIED, hashAlgorithm, signatureAlgorithm),
+                                            List.of(new ToBeSigned(toBeSignedId, dtbs, "sample.docx"))))
+                                    .header("provider", provider.toString())
+                                    .header("Authorization", accessToken.toAuthorizationHeader()),
+                            ToBeSignedSealTransaction.class);
+
+                    return transaction.results().values().stream()
+                            .filter(v -> v.id().equals(toBeSignedId)).findFirst().orElseThrow().signatureValue();
+                },
+                signatureValue -> {
+                    // POST /timestamp
+                    var timestampId = UUID.randomUUID();
+                    var timestamps = send(
+                            POST("/timestamp",
+                                    new TimestampRequest(timestampProvider, List.of(new Digest(timestampId,
+                                            hashAlgorithm, digest(hashAlgorithm, signatureValue)))))
+                                    .header("Authorization", accessToken.toAuthorizationHeader()),
+                            Timestamps.class);
+
+                    return timestamps.timestamps().stream()
+                            .filter(t -> t.id().equals(timestampId)).findFirst().orElseThrow().timestampToken();
+                });
+
+        // check if the signature is valid, note that the validation reads the whole signature file into memory
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample_sealed.docx.p7m")).validateDocument().getSimpleReport();
+        var indication = report.getIndication(report.getFirstSignatureId()).name();
+        if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
+            System.err.println("signature is not valid");
+        }
+
+        System.out.println("sample.docx is now sealed and the enveloping signature is written to disk as sample_sealed.docx.p7m");
+    }
+
+    private static HashAlgorithm hashAlgorithm(SignatureAlgorithm signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case RSA_SHA256, RSA_WITH_MGF1_SHA256, ECDSA_SHA256, PLAIN_ECDSA_SHA256 -> HashAlgorithm.SHA_256;
+            case RSA_SHA384, RSA_WITH_MGF1_SHA384, ECDSA_SHA384, PLAIN_ECDSA_SHA384 -> HashAlgorithm.SHA_384;
+            case RSA_SHA512, RSA_WITH_MGF1_SHA512, ECDSA_SHA512, PLAIN_ECDSA_SHA512 -> HashAlgorithm.SHA_512;
+        };
+    }
+
+    private static byte[] digest(HashAlgorithm hashAlgorithm, byte[] signatureValue) throws Exception {
+        var hashAlgorithmJavaName = switch (hashAlgorithm) {
+            case SHA_256 -> "SHA-256";
+            case SHA_384 -> "SHA-384";
+            case SHA_512 -> "SHA-512";
+        };
+        return MessageDigest.getInstance(hashAlgorithmJavaName).digest(signatureValue);
+    }
+}
@@ -10,11 +10,13 @@ import de.governikus.datasign.cookbook.types.response.DocumentSignTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
 import de.governikus.datasign.cookbook.types.response.User;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.InMemoryDocument;
 
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
@@ -73,7 +75,7 @@ public class SignDocumentExample extends AbstractExample {
         }
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -130,7 +132,7 @@ public class SignDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.docx"),
                 new InMemoryDocument(pkcs7SignatureBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -163,7 +165,7 @@ public class SignDocumentExample extends AbstractExample {
         }
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -216,7 +218,7 @@ public class SignDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.docx"),
                 new InMemoryDocument(pkcs7SignatureBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -251,7 +253,7 @@ public class SignDocumentExample extends AbstractExample {
         }
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -280,7 +282,7 @@ public class SignDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.docx"),
                 new InMemoryDocument(pkcs7SignatureBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
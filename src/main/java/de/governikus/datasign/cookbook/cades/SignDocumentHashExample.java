@@ -8,12 +8,16 @@ import de.governikus.datasign.cookbook.types.response.DocumentSignTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
 import de.governikus.datasign.cookbook.types.response.User;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.DetachedSignatureValidator;
+import de.governikus.datasign.cookbook.util.HashingService;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DigestDocument;
 import eu.europa.esig.dss.model.InMemoryDocument;
 
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
@@ -72,7 +76,7 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         // calculate the document hash from the unsigned document
-        var documentHash = MessageDigest.getInstance("SHA-256").digest(new FileInputStream("sample.docx").readAllBytes());
+        var documentHash = HashingService.hash(Path.of("sample.docx"), HashAlgorithm.SHA_256);
 
         // POST /sign/document-hash/transactions
         var documentHashId = UUID.randomUUID();
@@ -122,8 +126,8 @@ public class SignDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream().filter(r ->
                 r.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        // check if the signature is valid, the document hash is sufficient as detached content
+        var report = DSSFactory.signedDocumentValidator(new DigestDocument(DigestAlgorithm.SHA256, documentHash),
                 new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -131,6 +135,8 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         writeToDisk(cmsSignedData.cmsSignedData(), "sample_signed.docx.p7s");
+        // keep the document hash, so the signature can be validated later without reading sample.docx again
+        DetachedSignatureValidator.storeDigest(Path.of("digests.properties"), Path.of("sample_signed.docx.p7s"), DigestAlgorithm.SHA256, documentHash);
         System.out.println("sample.docx is now signed and the signature is written to disk as sample_signed.docx.p7s");
     }
 
@@ -156,7 +162,7 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         // calculate the document hash from the unsigned document
-        var documentHash = MessageDigest.getInstance("SHA-256").digest(new FileInputStream("sample.docx").readAllBytes());
+        var documentHash = HashingService.hash(Path.of("sample.docx"), HashAlgorithm.SHA_256);
 
         // POST /sign/document-hash/transactions
         var documentHashId = UUID.randomUUID();
@@ -202,8 +208,8 @@ public class SignDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream().filter(r ->
                 r.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        // check if the signature is valid, the document hash is sufficient as detached content
+        var report = DSSFactory.signedDocumentValidator(new DigestDocument(DigestAlgorithm.SHA256, documentHash),
                 new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -211,6 +217,8 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         writeToDisk(cmsSignedData.cmsSignedData(), "sample_signed.docx.p7s");
+        // keep the document hash, so the signature can be validated later without reading sample.docx again
+        DetachedSignatureValidator.storeDigest(Path.of("digests.properties"), Path.of("sample_signed.docx.p7s"), DigestAlgorithm.SHA256, documentHash);
         System.out.println("sample.docx is now signed and the signature is written to disk as sample_signed.docx.p7s");
     }
 
@@ -238,7 +246,7 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         // calculate the document hash from the unsigned document
-        var documentHash = MessageDigest.getInstance("SHA-256").digest(new FileInputStream("sample.docx").readAllBytes());
+        var documentHash = HashingService.hash(Path.of("sample.docx"), HashAlgorithm.SHA_256);
 
         // POST /sign/document-hash/transactions
         var documentHashId = UUID.randomUUID();
@@ -260,8 +268,8 @@ public class SignDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream().filter(r ->
                 r.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.docx")),
+        // check if the signature is valid, the document hash is sufficient as detached content
+        var report = DSSFactory.signedDocumentValidator(new DigestDocument(DigestAlgorithm.SHA256, documentHash),
                 new InMemoryDocument(cmsSignedData.cmsSignedData())).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -269,6 +277,8 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         writeToDisk(cmsSignedData.cmsSignedData(), "sample_signed.docx.p7s");
+        // keep the document hash, so the signature can be validated later without reading sample.docx again
+        DetachedSignatureValidator.storeDigest(Path.of("digests.properties"), Path.of("sample_signed.docx.p7s"), DigestAlgorithm.SHA256, documentHash);
         System.out.println("sample.docx is now signed and the signature is written to disk as sample_signed.docx.p7s");
     }
 
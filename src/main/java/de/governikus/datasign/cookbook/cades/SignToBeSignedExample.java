@@ -4,12 +4,12 @@ import de.governikus.datasign.cookbook.AbstractExample;
 import de.governikus.datasign.cookbook.types.*;
 import de.governikus.datasign.cookbook.types.request.*;
 import de.governikus.datasign.cookbook.types.response.*;
+import de.governikus.datasign.cookbook.util.CAdESExtensionQueue;
 import de.governikus.datasign.cookbook.util.DSSFactory;
 import eu.europa.esig.dss.cades.CAdESSignatureParameters;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
 import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
 import eu.europa.esig.dss.enumerations.SignaturePackaging;
-import eu.europa.esig.dss.model.InMemoryDocument;
 import eu.europa.esig.dss.model.SignatureValue;
 import eu.europa.esig.dss.model.x509.CertificateToken;
 import eu.europa.esig.dss.spi.DSSUtils;
@@ -17,6 +17,7 @@ import eu.europa.esig.dss.spi.DSSUtils;
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.List;
 import java.util.Scanner;
@@ -29,6 +30,8 @@ import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAcces
  */
 public class SignToBeSignedExample extends AbstractExample {
 
+    private static final boolean DEFERRED_LT_EXTENSION = Boolean.getBoolean("cookbook.deferredLtExtension");
+
     public static void main(String[] args) throws Exception {
         new SignToBeSignedExample().runExample();
     }
@@ -82,11 +85,10 @@ public class SignToBeSignedExample extends AbstractExample {
         var signatureAlgorithm = de.governikus.datasign.cookbook.types.SignatureAlgorithm.valueOf(props.getProperty("example.signatureAlgorithm"));
         var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
 
-        // calculate the DTBS from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.docx"));
-
+        // calculate the DTBS from the digest of the unsigned document, for detached signatures the document itself is not needed
         var cAdESService = DSSFactory.cAdESService();
         var signatureParameter = signatureParameters(certificate.certificate(), signatureAlgorithm, hashAlgorithm);
+        var unsignedDocument = DSSFactory.digestDocument(Path.of("sample.docx"), signatureParameter.getDigestAlgorithm());
         var dtbs = cAdESService.getDataToSign(unsignedDocument, signatureParameter);
 
         // POST /sign/to-be-signed/transactions
@@ -156,6 +158,10 @@ public class SignToBeSignedExample extends AbstractExample {
         }
 
         writeToDisk(detachedSignature, "sample_signed.docx.p7s");
+        if (DEFERRED_LT_EXTENSION) {
+            // the B-T signature is released now, cades.ProcessExtensionQueueExample extends it to LT-Level later
+            new CAdESExtensionQueue(Path.of("cades-extension-queue.properties")).enqueue(Path.of("sample_signed.docx.p7s"));
+        }
         System.out.println("sample.docx is now signed and the detached signature is written to disk as sample_signed.docx.p7s");
     }
 
@@ -196,11 +202,10 @@ public class SignToBeSignedExample extends AbstractExample {
         var signatureAlgorithm = de.governikus.datasign.cookbook.types.SignatureAlgorithm.valueOf(props.getProperty("example.signatureAlgorithm"));
         var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
 
-        // calculate the DTBS from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.docx"));
-
+        // calculate the DTBS from the digest of the unsigned document, for detached signatures the document itself is not needed
         var cAdESService = DSSFactory.cAdESService();
         var signatureParameter = signatureParameters(certificate.certificate(), signatureAlgorithm, hashAlgorithm);
+        var unsignedDocument = DSSFactory.digestDocument(Path.of("sample.docx"), signatureParameter.getDigestAlgorithm());
         var dtbs = cAdESService.getDataToSign(unsignedDocument, signatureParameter);
 
         // POST /sign/to-be-signed/transactions
@@ -248,12 +253,18 @@ public class SignToBeSignedExample extends AbstractExample {
         }
 
         writeToDisk(detachedSignature, "sample_signed.docx.p7s");
+        if (DEFERRED_LT_EXTENSION) {
+            // the B-T signature is released now, cades.ProcessExtensionQueueExample extends it to LT-Level later
+            new CAdESExtensionQueue(Path.of("cades-extension-queue.properties")).enqueue(Path.of("sample_signed.docx.p7s"));
+        }
         System.out.println("sample.docx is now signed and the detached signature is written to disk as sample_signed.docx.p7s");
     }
 
     private static CAdESSignatureParameters signatureParameters(byte[] signingCertificate, SignatureAlgorithm signatureAlgorithm, HashAlgorithm hashAlgorithm) throws Exception {
         var cAdESSignatureParameters = new CAdESSignatureParameters();
-        cAdESSignatureParameters.setSignatureLevel(eu.europa.esig.dss.enumerations.SignatureLevel.CAdES_BASELINE_LT);
+        cAdESSignatureParameters.setSignatureLevel(DEFERRED_LT_EXTENSION
+                ? eu.europa.esig.dss.enumerations.SignatureLevel.CAdES_BASELINE_T
+                : eu.europa.esig.dss.enumerations.SignatureLevel.CAdES_BASELINE_LT);
         cAdESSignatureParameters.setSignaturePackaging(SignaturePackaging.DETACHED);
         cAdESSignatureParameters.setDigestAlgorithm(switch (hashAlgorithm) {
             case SHA_256 -> DigestAlgorithm.SHA256;
@@ -0,0 +1,54 @@
+package de.governikus.datasign.cookbook.cades;
+
+import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.DetachedSignatureValidator;
+import de.governikus.datasign.cookbook.util.TieredValidator;
+import de.governikus.datasign.cookbook.util.ValidationConfiguration;
+import de.governikus.datasign.cookbook.util.ValidationEngine;
+
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Example for validating many detached signatures against the document hashes stored by the
+ * document hash examples (see digests.properties). The signed documents are not read.
+ * <p>
+ * The validation tier is chosen with {@code -Dcookbook.validationTier=SIGNATURE_VALUE|STRUCTURE|FULL}, the default
+ * is the full ETSI validation, a validation policy file other than the default of DSS is given with
+ * {@code -Dcookbook.validationPolicy=<file>}. The signatures are validated in parallel, the results are written to
+ * validation-report.ndjson and cached in validation-cache.properties, so unchanged signatures are not validated again
+ * on the same day. INDETERMINATE results, e.g. without revocation data, are validated again on the next run.
+ */
+public class ValidateDetachedSignaturesExample {
+
+    public static void main(String[] args) throws Exception {
+        new ValidateDetachedSignaturesExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        var digestDocuments = DetachedSignatureValidator.loadDigests(Path.of("digests.properties"));
+
+        var tier = TieredValidator.Tier.valueOf(System.getProperty("cookbook.validationTier", "FULL"));
+        // the validation policy is parsed once for all signatures, only the indications are kept, revocation data
+        // is fetched through the shared file cache
+        var policyFile = System.getProperty("cookbook.validationPolicy");
+        var certificateVerifier = DSSFactory.cachingCertificateVerifier();
+        var configuration = policyFile == null
+                ? ValidationConfiguration.defaultConfiguration(certificateVerifier, ValidationConfiguration.ReportLevel.INDICATION)
+                : ValidationConfiguration.fromPolicyFile(Path.of(policyFile), certificateVerifier,
+                ValidationConfiguration.ReportLevel.INDICATION);
+
+        var cacheFile = Path.of("validation-cache.properties");
+        try (var engine = new ValidationEngine(tier, configuration, Duration.ofDays(1), Runtime.getRuntime().availableProcessors());
+             var report = new FileWriter("validation-report.ndjson", StandardCharsets.UTF_8)) {
+            engine.load(cacheFile);
+            var jobs = digestDocuments.entrySet().stream()
+                    .map(e -> new ValidationEngine.Job(e.getKey(), e.getValue()));
+            var count = engine.validateAll(jobs, report);
+            engine.store(cacheFile);
+            System.out.printf("%d detached signatures validated, see validation-report.ndjson%n", count);
+        }
+    }
+}
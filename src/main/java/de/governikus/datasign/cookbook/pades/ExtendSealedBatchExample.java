@@ -0,0 +1,31 @@
+package de.governikus.datasign.cookbook.pades;
+
+import de.governikus.datasign.cookbook.util.PAdESBatchExtender;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Example for extending a batch of sealed PDFs (PAdES-BASELINE-T) in the directory documents_sealed to
+ * PAdES-BASELINE-LT. The certificate chains and revocation data are collected once per seal and TSA, the extended
+ * documents are written to documents_sealed_lt.
+ */
+public class ExtendSealedBatchExample {
+
+    public static void main(String[] args) throws Exception {
+        new ExtendSealedBatchExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        List<Path> documents;
+        try (var files = Files.list(Path.of("documents_sealed"))) {
+            documents = files.filter(f -> f.getFileName().toString().endsWith(".pdf")).toList();
+        }
+
+        var result = new PAdESBatchExtender().extendAll(documents, Path.of("documents_sealed_lt"));
+        result.failed().forEach((document, e) -> System.err.println(document + " could not be extended: " + e.getMessage()));
+        System.out.printf("%d documents are now extended to LT-Level with the validation data of %d seals and TSAs and written to documents_sealed_lt%n",
+                result.extended().size(), result.validationDataCollections());
+    }
+}
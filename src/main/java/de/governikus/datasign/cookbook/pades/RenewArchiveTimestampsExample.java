@@ -0,0 +1,46 @@
+package de.governikus.datasign.cookbook.pades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.request.TimestampRequest;
+import de.governikus.datasign.cookbook.types.response.Timestamps;
+import de.governikus.datasign.cookbook.util.ArchiveTimestamper;
+import de.governikus.datasign.cookbook.util.BatchingTspSource;
+
+import java.io.FileInputStream;
+import java.nio.file.Path;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for renewing the archive timestamps of all sealed PDFs and detached signatures in documents_sealed
+ * (PAdES-BASELINE-LTA and CAdES-BASELINE-LTA), the signed contents of the detached signatures are in documents.
+ * The timestamps are requested in batches, the progress of the campaign is kept in archive-timestamps.properties.
+ */
+public class RenewArchiveTimestampsExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new RenewArchiveTimestampsExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // POST /timestamp, once per batch of archive timestamp digests
+        BatchingTspSource.TimestampClient timestampClient = digests -> send(
+                POST("/timestamp", new TimestampRequest(timestampProvider, digests))
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                Timestamps.class).timestamps();
+
+        try (var archiveTimestamper = new ArchiveTimestamper(timestampClient,
+                Path.of("archive-timestamps.properties"), Path.of("documents"))) {
+            var progress = archiveTimestamper.renewAll(Path.of("documents_sealed"));
+            System.out.printf("%d archive timestamps are now renewed, %d were renewed before, %d failed%n",
+                    progress.renewed(), progress.skipped(), progress.failed());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package de.governikus.datasign.cookbook.pades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.request.TimestampRequest;
+import de.governikus.datasign.cookbook.types.response.Timestamps;
+import de.governikus.datasign.cookbook.util.ArchiveTimestamper;
+import de.governikus.datasign.cookbook.util.BatchingTspSource;
+import de.governikus.datasign.cookbook.util.RevalidationScheduler;
+import de.governikus.datasign.cookbook.util.SignatureExpiryIndex;
+
+import java.io.FileInputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for the daily renewal of the seals indexed in expiry-index (with {@code -Dcookbook.expiryIndex=true} by
+ * {@link SealDocumentExample} and {@link de.governikus.datasign.cookbook.cades.SealToBeSignedBatchExample}) whose
+ * certificates expire within the risk window, {@code -Dcookbook.riskWindowDays} (default 90). The seals depending on
+ * the CRL or OCSP URLs in {@code -Dcookbook.discontinuedResponders} (comma separated) are renewed as well.
+ */
+public class RevalidateExpiringSignaturesExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new RevalidateExpiringSignaturesExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        var riskWindow = Duration.ofDays(Long.getLong("cookbook.riskWindowDays", 90));
+        var discontinuedResponders = Arrays.stream(System.getProperty("cookbook.discontinuedResponders", "").split(","))
+                .map(String::trim).filter(url -> !url.isEmpty()).toList();
+
+        // POST /timestamp, once per batch of archive timestamp digests
+        BatchingTspSource.TimestampClient timestampClient = digests -> send(
+                POST("/timestamp", new TimestampRequest(timestampProvider, digests))
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                Timestamps.class).timestamps();
+
+        // the index keeps track of the renewed seals
+        try (var archiveTimestamper = new ArchiveTimestamper(timestampClient, null, Path.of("documents"))) {
+            var scheduler = new RevalidationScheduler(new SignatureExpiryIndex(Path.of("expiry-index")),
+                    archiveTimestamper, riskWindow);
+            var summary = scheduler.runDue(discontinuedResponders);
+            System.out.printf("%d seals expire within %d days or depend on a discontinued responder, %d are now renewed, %d failed%n",
+                    summary.due(), riskWindow.toDays(), summary.renewed(), summary.failed());
+        }
+    }
+}
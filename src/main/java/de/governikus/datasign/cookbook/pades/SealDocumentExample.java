@@ -9,10 +9,16 @@ import de.governikus.datasign.cookbook.types.request.VisualParameter;
 import de.governikus.datasign.cookbook.types.response.AvailableSeals;
 import de.governikus.datasign.cookbook.types.response.DocumentSealTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
+import de.governikus.datasign.cookbook.util.BackgroundValidator;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.PdfPreflight;
+import de.governikus.datasign.cookbook.util.SignatureExpiryIndex;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.InMemoryDocument;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
@@ -27,6 +33,20 @@ public class SealDocumentExample extends AbstractExample {
     }
 
     public void runExample() throws Exception {
+        // with background validation the output is released right away, the sample is validated while the run
+        // continues and closing the validator at the end of the run waits for the pending validations
+        var backgroundValidation = Boolean.getBoolean("cookbook.backgroundValidation");
+        var sampleRate = Double.parseDouble(System.getProperty("cookbook.validationSampleRate", "1.0"));
+        try (var backgroundValidator = backgroundValidation
+                ? new BackgroundValidator(sampleRate, BackgroundValidator.moveTo(Path.of("quarantine"))) : null) {
+            runExample(backgroundValidator);
+        }
+    }
+
+    /**
+     * @param backgroundValidator null to validate before the output is released
+     */
+    private void runExample(BackgroundValidator backgroundValidator) throws Exception {
         props.load(new FileInputStream("cookbook.properties"));
         System.out.println("Running example with properties = " + props.getProperty("url"));
 
@@ -49,8 +69,28 @@ public class SealDocumentExample extends AbstractExample {
         // here we use the sealId from our cookbook.properties file, make sure the seal is available
         var sealId = props.getProperty("example.sealId");
 
+        var visualParameter = new VisualParameter(1, new VisualParameter.RelativeCoordinate(0.68f, 0.88f),
+                0.3f, 0.1f, null, null);
+
+        // check the document before uploading it, only the cross-reference data and the page tree are read
+        PdfPreflight.Result preflight = null;
+        try {
+            preflight = PdfPreflight.scan(Path.of("sample.pdf"));
+        } catch (IOException e) {
+            // damaged files are not repaired by the preflight, they are uploaded unchecked and parsed by the server
+            System.err.println("preflight of sample.pdf failed, uploading it unchecked: " + e.getMessage());
+        }
+        if (preflight != null) {
+            if (!preflight.isSignable()) {
+                System.err.println("sample.pdf requires a password, forbids modifications or is certified without permission for further changes");
+                return;
+            }
+            System.out.printf("sample.pdf has %d pages and %d signatures%n", preflight.pageCount(), preflight.signatures());
+            preflight.checkVisualParameter(visualParameter);
+        }
+
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -64,9 +104,7 @@ public class SealDocumentExample extends AbstractExample {
                                         HashAlgorithm.SHA_256, SignatureFormat.PADES, SignaturePackaging.ENVELOPED),
                                 List.of(new DocumentToBeSigned(uploadedDocument.documentId(),
                                         null,
-                                        new VisualParameter(1,
-                                                new VisualParameter.RelativeCoordinate(0.68f, 0.88f),
-                                                0.3f, 0.1f, null, null))),
+                                        visualParameter)),
                                 timestampProvider))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
@@ -79,16 +117,28 @@ public class SealDocumentExample extends AbstractExample {
         var documentRevisionBytes = retrieveBytes(GET(documentRevision.href().toString())
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
-        // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
-                new InMemoryDocument(documentRevisionBytes)).validateDocument().getSimpleReport();
-        var indication = report.getIndication(report.getFirstSignatureId()).name();
-        if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
-            System.err.println("signature is not valid");
+        if (backgroundValidator == null) {
+            // check if the signature is valid
+            var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
+                    new InMemoryDocument(documentRevisionBytes)).validateDocument().getSimpleReport();
+            var indication = report.getIndication(report.getFirstSignatureId()).name();
+            if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
+                System.err.println("signature is not valid");
+            }
         }
 
         writeToDisk(documentRevisionBytes, "sample_sealed.pdf");
+        if (backgroundValidator != null) {
+            // the document is released, the seal is validated while the run continues
+            backgroundValidator.submit(Path.of("sample_sealed.pdf"), new InMemoryDocument(documentRevisionBytes),
+                    new FileDocument("sample.pdf"));
+        }
         System.out.println("sample.pdf is now sealed and written to disk as sample_sealed.pdf");
+
+        if (Boolean.getBoolean("cookbook.expiryIndex")) {
+            // remember when the seal needs to be renewed, see RevalidateExpiringSignaturesExample
+            new SignatureExpiryIndex(Path.of("expiry-index")).add(Path.of("sample_sealed.pdf"));
+        }
     }
 
 }
@@ -7,17 +7,19 @@ import de.governikus.datasign.cookbook.types.response.AvailableSeals;
 import de.governikus.datasign.cookbook.types.response.DocumentHashSealTransaction;
 import de.governikus.datasign.cookbook.types.response.DocumentSealTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
+import de.governikus.datasign.cookbook.util.ContentSizeEstimator;
 import de.governikus.datasign.cookbook.util.DSSFactory;
 import eu.europa.esig.dss.cms.CMSSignedDocument;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
 import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
-import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.SignatureValue;
 import eu.europa.esig.dss.model.x509.CertificateToken;
 import eu.europa.esig.dss.pades.PAdESSignatureParameters;
 import eu.europa.esig.dss.spi.DSSUtils;
 
 import java.io.FileInputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.UUID;
 
@@ -56,9 +58,16 @@ public class SealDocumentHashExample extends AbstractExample {
         var sealId = props.getProperty("example.sealId");
 
         // calculate the document hash from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
+        var unsignedDocument = new FileDocument("sample.pdf");
 
-        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256);
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + sealId;
+        // the level of the PAdES signature parameters, validation data beyond it ends up in the DSS dictionary
+        var contentSize = contentSizeEstimator.estimate(signerKey, null, SignatureLevel.B_T, timestampProvider);
+
+        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256, contentSize);
         var documentHash = DSSFactory.pAdESWithExternalCMSService().getMessageDigest(unsignedDocument, signatureParameter).getValue();
 
         // POST /seal/document-hash/transactions
@@ -77,26 +86,32 @@ public class SealDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream()
                 .filter(v -> v.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // use the cms signed data to incorporate a signature into the unsigned document
-        var cmsSignedDocument = new CMSSignedDocument(DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData()));
-        var signedDocument = DSSFactory.pAdESWithExternalCMSService().signDocument(unsignedDocument, signatureParameter, cmsSignedDocument);
+        // collect the validation data for the LT-Level, it is written right after the signature is incorporated
+        var cms = DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData());
+        var validationData = DSSFactory.validationData(cms);
+
+        contentSizeEstimator.observe(signerKey, timestampProvider, cms);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
+        // use the cms signed data to incorporate a signature and the validation data into the unsigned document,
+        // if the estimated content size is too small, certificates and revocation data are moved from the cms signed data
+        // into the DSS dictionary instead of signing again
+        var cmsSignedDocument = new CMSSignedDocument(contentSizeEstimator.fit(cms, contentSize));
+        var signedDocument = DSSFactory.pAdESWithExternalCMSService(validationData).signDocument(unsignedDocument, signatureParameter, cmsSignedDocument);
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 signedDocument).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
             System.err.println("signature is not valid");
         }
 
-        // extend signature to LT-Level
-        signedDocument = DSSFactory.pAdESExtensionService().incorporateValidationData(signedDocument, null, true);
-
         writeToDisk(signedDocument, "sample_sealed.pdf");
         System.out.println("sample.pdf is now sealed and written to disk as sample_sealed.pdf");
     }
 
-    private static PAdESSignatureParameters signatureParameter(HashAlgorithm hashAlgorithm) {
+    private static PAdESSignatureParameters signatureParameter(HashAlgorithm hashAlgorithm, int contentSize) {
         var pAdESSignatureParameters = new PAdESSignatureParameters();
         pAdESSignatureParameters.setDigestAlgorithm(switch (hashAlgorithm) {
             case SHA_256 -> DigestAlgorithm.SHA256;
@@ -104,7 +119,7 @@ public class SealDocumentHashExample extends AbstractExample {
             case SHA_512 -> DigestAlgorithm.SHA512;
         });
         pAdESSignatureParameters.setSignatureLevel(eu.europa.esig.dss.enumerations.SignatureLevel.PAdES_BASELINE_T);
-        pAdESSignatureParameters.setContentSize(14_500);
+        pAdESSignatureParameters.setContentSize(contentSize);
         return pAdESSignatureParameters;
     }
 }
@@ -7,10 +7,13 @@ import de.governikus.datasign.cookbook.types.response.AvailableSeals;
 import de.governikus.datasign.cookbook.types.response.Certificate;
 import de.governikus.datasign.cookbook.types.response.Timestamps;
 import de.governikus.datasign.cookbook.types.response.ToBeSignedSealTransaction;
+import de.governikus.datasign.cookbook.util.ContentSizeEstimator;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import de.governikus.datasign.cookbook.util.PdfPreflight;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
 import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
-import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.SignatureValue;
 import eu.europa.esig.dss.model.x509.CertificateToken;
 import eu.europa.esig.dss.pades.PAdESSignatureParameters;
@@ -18,8 +21,11 @@ import eu.europa.esig.dss.pades.PAdESSignatureParameters;
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
@@ -71,9 +77,30 @@ public class SealToBeSignedExample extends AbstractExample {
         var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
 
         // calculate the DTBS from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
-
-        var signatureParameter = signatureParameter(certificate.certificate(), signatureAlgorithm, hashAlgorithm);
+        var unsignedDocument = new FileDocument("sample.pdf");
+
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + sealId;
+        // the CA certificates are part of the CMS signed data as well
+        var certificateChain = DSSFactory.certificateChain(new CertificateToken(toX509Certificate(certificate.certificate())));
+        var contentSize = contentSizeEstimator.estimate(signerKey, certificateChain.stream().map(CertificateToken::getEncoded).toList(),
+                SignatureLevel.B_T, timestampProvider);
+
+        var signatureParameter = signatureParameter(certificateChain, signatureAlgorithm, hashAlgorithm, contentSize);
+        if (Boolean.getBoolean("cookbook.visibleSignature")) {
+            // the appearance is rendered once, only the per-document fields of the text are filled for each document
+            var visualParameter = new VisualParameter(1, new VisualParameter.RelativeCoordinate(0.68f, 0.88f),
+                    0.3f, 0.1f, new VisualParameter.ModifyVisualRepresentation(null, null, "Sealed {document}\n{date}"), null);
+            var preflight = PdfPreflight.scan(Path.of("sample.pdf"));
+            preflight.checkVisualParameter(visualParameter);
+            // the signing date is part of the appearance, it must be the same for getDataToSign and signDocument
+            var fields = Map.of("document", "sample.pdf",
+                    "date", new SimpleDateFormat("yyyy-MM-dd HH:mm").format(signatureParameter.bLevel().getSigningDate()));
+            signatureParameter.setImageParameters(DSSFactory.signatureAppearanceCache().imageParameters(visualParameter,
+                    preflight.pages().get(visualParameter.pageNumber() - 1), fields));
+        }
         var dtbs = DSSFactory.pAdESService().getDataToSign(unsignedDocument, signatureParameter);
 
         // POST /seal/to-be-signed/transactions
@@ -103,26 +130,39 @@ public class SealToBeSignedExample extends AbstractExample {
         var timestamp = timestamps.timestamps().stream()
                 .filter(t -> t.id().equals(signatureValue.id())).findFirst().orElseThrow();
 
-        // use the signature value to incorporate a signature into the unsigned document
+        contentSizeEstimator.observeTimestamp(timestampProvider, timestamp.timestampToken().length);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
+        // collect the validation data for the LT-Level, it is written right after the signature is incorporated
+        var validationData = DSSFactory.validationData(new CertificateToken(toX509Certificate(certificate.certificate())),
+                timestamp.timestampToken());
+
+        // use the signature value to incorporate a signature and the validation data into the unsigned document
         var signature = new SignatureValue(signatureParameter.getSignatureAlgorithm(), signatureValue.signatureValue());
-        var signedDocument = DSSFactory.pAdESService(timestamp.timestampToken())
-                .signDocument(unsignedDocument, signatureParameter, signature);
+        DSSDocument signedDocument;
+        try {
+            signedDocument = DSSFactory.pAdESService(timestamp.timestampToken(), validationData)
+                    .signDocument(unsignedDocument, signatureParameter, signature);
+        } catch (ContentSizeEstimator.ContentSizeExceededException e) {
+            // the estimated content size is too small, the TSA certificates are removed from the timestamp token instead
+            // of signing again, the validation data in the DSS dictionary already contains them
+            signedDocument = DSSFactory.pAdESService(contentSizeEstimator.fitTimestamp(timestamp.timestampToken()).timestampToken(), validationData)
+                    .signDocument(unsignedDocument, signatureParameter, signature);
+        }
 
         if (!DSSFactory.pAdESService().isValidSignatureValue(dtbs, signature, new CertificateToken(toX509Certificate(certificate.certificate())))) {
             System.err.println("signatureValue is not coherent with document digest");
             return;
         }
 
-        // extend signature to LT-Level
-        signedDocument = DSSFactory.pAdESExtensionService().incorporateValidationData(signedDocument, null, true);
-
         writeToDisk(signedDocument, "sample_sealed.pdf");
         System.out.println("sample.pdf is now sealed and written to disk as sample_sealed.pdf");
     }
 
-    private static PAdESSignatureParameters signatureParameter(byte[] signingCertificate, SignatureAlgorithm signatureAlgorithm, HashAlgorithm hashAlgorithm) throws Exception {
+    private static PAdESSignatureParameters signatureParameter(List<CertificateToken> certificateChain, SignatureAlgorithm signatureAlgorithm, HashAlgorithm hashAlgorithm, int contentSize) {
         var pAdESSignatureParameters = new PAdESSignatureParameters();
-        pAdESSignatureParameters.setSigningCertificate(new CertificateToken(toX509Certificate(signingCertificate)));
+        pAdESSignatureParameters.setSigningCertificate(certificateChain.get(0));
+        pAdESSignatureParameters.setCertificateChain(certificateChain);
         // leave #setEncryptionAlgorithm here after #setSigningCertificate
         pAdESSignatureParameters.setEncryptionAlgorithm(switch (signatureAlgorithm) {
             case RSA_SHA256, RSA_SHA384, RSA_SHA512 -> EncryptionAlgorithm.RSA;
@@ -136,7 +176,7 @@ public class SealToBeSignedExample extends AbstractExample {
             case SHA_512 -> DigestAlgorithm.SHA512;
         });
         pAdESSignatureParameters.setSignatureLevel(eu.europa.esig.dss.enumerations.SignatureLevel.PAdES_BASELINE_T);
-        pAdESSignatureParameters.setContentSize(14_500);
+        pAdESSignatureParameters.setContentSize(contentSize);
         return pAdESSignatureParameters;
     }
 
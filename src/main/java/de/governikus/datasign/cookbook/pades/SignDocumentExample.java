@@ -7,11 +7,13 @@ import de.governikus.datasign.cookbook.types.response.DocumentSignTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
 import de.governikus.datasign.cookbook.types.response.User;
 import de.governikus.datasign.cookbook.util.DSSFactory;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.InMemoryDocument;
 
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
@@ -70,7 +72,7 @@ public class SignDocumentExample extends AbstractExample {
         }
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -130,7 +132,7 @@ public class SignDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 new InMemoryDocument(documentRevisionBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -163,7 +165,7 @@ public class SignDocumentExample extends AbstractExample {
         }
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -219,7 +221,7 @@ public class SignDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 new InMemoryDocument(documentRevisionBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -254,7 +256,7 @@ public class SignDocumentExample extends AbstractExample {
         }
 
         // POST /documents
-        var uploadedDocument = send(POST("/documents", new FileInputStream("sample.pdf").readAllBytes())
+        var uploadedDocument = send(POST("/documents", Path.of("sample.pdf"))
                         .header("provider", provider.toString())
                         .header("Authorization", accessToken.toAuthorizationHeader()),
                 UploadedDocument.class);
@@ -286,7 +288,7 @@ public class SignDocumentExample extends AbstractExample {
                 .header("Authorization", accessToken.toAuthorizationHeader()));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 new InMemoryDocument(documentRevisionBytes)).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
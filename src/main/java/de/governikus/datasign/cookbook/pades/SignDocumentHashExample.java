@@ -7,16 +7,18 @@ import de.governikus.datasign.cookbook.types.response.DocumentHashSignTransactio
 import de.governikus.datasign.cookbook.types.response.DocumentSignTransaction;
 import de.governikus.datasign.cookbook.types.response.UploadedDocument;
 import de.governikus.datasign.cookbook.types.response.User;
+import de.governikus.datasign.cookbook.util.ContentSizeEstimator;
 import de.governikus.datasign.cookbook.util.DSSFactory;
 import eu.europa.esig.dss.cms.CMSSignedDocument;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
-import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.pades.PAdESSignatureParameters;
 import eu.europa.esig.dss.spi.DSSUtils;
 
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
@@ -75,9 +77,16 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         // calculate the document hash from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
+        var unsignedDocument = new FileDocument("sample.pdf");
 
-        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256);
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + userId;
+        // the level of the PAdES signature parameters, validation data beyond it ends up in the DSS dictionary
+        var contentSize = contentSizeEstimator.estimate(signerKey, null, SignatureLevel.B_T, null);
+
+        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256, contentSize);
         var documentHash = DSSFactory.pAdESWithExternalCMSService().getMessageDigest(unsignedDocument, signatureParameter).getValue();
 
         // POST /sign/document-hash/transactions
@@ -129,12 +138,20 @@ public class SignDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream()
                 .filter(v -> v.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // use the cms signed data to incorporate a signature into the unsigned document
-        var cmsSignedDocument = new CMSSignedDocument(DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData()));
-        var signedDocument = DSSFactory.pAdESWithExternalCMSService().signDocument(unsignedDocument, signatureParameter, cmsSignedDocument);
+        var cms = DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData());
+        contentSizeEstimator.observe(signerKey, null, cms);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
+        // use the cms signed data to incorporate a signature into the unsigned document,
+        // if the estimated content size is too small, certificates and revocation data are moved from the cms signed data
+        // into the DSS dictionary instead of signing again
+        var fittedCms = contentSizeEstimator.fit(cms, contentSize);
+        var pAdESWithExternalCMSService = fittedCms == cms ? DSSFactory.pAdESWithExternalCMSService()
+                : DSSFactory.pAdESWithExternalCMSService(DSSFactory.validationData(cms));
+        var signedDocument = pAdESWithExternalCMSService.signDocument(unsignedDocument, signatureParameter, new CMSSignedDocument(fittedCms));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 signedDocument).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -167,9 +184,16 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         // calculate the document hash from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
+        var unsignedDocument = new FileDocument("sample.pdf");
+
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + userId;
+        // the level of the PAdES signature parameters, validation data beyond it ends up in the DSS dictionary
+        var contentSize = contentSizeEstimator.estimate(signerKey, null, SignatureLevel.B_T, null);
 
-        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256);
+        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256, contentSize);
         var documentHash = DSSFactory.pAdESWithExternalCMSService().getMessageDigest(unsignedDocument, signatureParameter).getValue();
 
         // POST /sign/document-hash/transactions
@@ -217,12 +241,20 @@ public class SignDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream()
                 .filter(v -> v.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // use the cms signed data to incorporate a signature into the unsigned document
-        var cmsSignedDocument = new CMSSignedDocument(DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData()));
-        var signedDocument = DSSFactory.pAdESWithExternalCMSService().signDocument(unsignedDocument, signatureParameter, cmsSignedDocument);
+        var cms = DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData());
+        contentSizeEstimator.observe(signerKey, null, cms);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
+        // use the cms signed data to incorporate a signature into the unsigned document,
+        // if the estimated content size is too small, certificates and revocation data are moved from the cms signed data
+        // into the DSS dictionary instead of signing again
+        var fittedCms = contentSizeEstimator.fit(cms, contentSize);
+        var pAdESWithExternalCMSService = fittedCms == cms ? DSSFactory.pAdESWithExternalCMSService()
+                : DSSFactory.pAdESWithExternalCMSService(DSSFactory.validationData(cms));
+        var signedDocument = pAdESWithExternalCMSService.signDocument(unsignedDocument, signatureParameter, new CMSSignedDocument(fittedCms));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 signedDocument).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -257,9 +289,16 @@ public class SignDocumentHashExample extends AbstractExample {
         }
 
         // calculate the document hash from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
+        var unsignedDocument = new FileDocument("sample.pdf");
+
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + userId;
+        // the level of the PAdES signature parameters, validation data beyond it ends up in the DSS dictionary
+        var contentSize = contentSizeEstimator.estimate(signerKey, null, SignatureLevel.B_T, timestampProvider);
 
-        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256);
+        var signatureParameter = signatureParameter(HashAlgorithm.SHA_256, contentSize);
         var documentHash = DSSFactory.pAdESWithExternalCMSService().getMessageDigest(unsignedDocument, signatureParameter).getValue();
 
         // POST /sign/document-hash/transactions
@@ -283,12 +322,20 @@ public class SignDocumentHashExample extends AbstractExample {
         var cmsSignedData = transaction.results().stream()
                 .filter(v -> v.id().equals(documentHashId)).findFirst().orElseThrow();
 
-        // use the cms signed data to incorporate a signature into the unsigned document
-        var cmsSignedDocument = new CMSSignedDocument(DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData()));
-        var signedDocument = DSSFactory.pAdESWithExternalCMSService().signDocument(unsignedDocument, signatureParameter, cmsSignedDocument);
+        var cms = DSSUtils.toCMSSignedData(cmsSignedData.cmsSignedData());
+        contentSizeEstimator.observe(signerKey, timestampProvider, cms);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
+        // use the cms signed data to incorporate a signature into the unsigned document,
+        // if the estimated content size is too small, certificates and revocation data are moved from the cms signed data
+        // into the DSS dictionary instead of signing again
+        var fittedCms = contentSizeEstimator.fit(cms, contentSize);
+        var pAdESWithExternalCMSService = fittedCms == cms ? DSSFactory.pAdESWithExternalCMSService()
+                : DSSFactory.pAdESWithExternalCMSService(DSSFactory.validationData(cms));
+        var signedDocument = pAdESWithExternalCMSService.signDocument(unsignedDocument, signatureParameter, new CMSSignedDocument(fittedCms));
 
         // check if the signature is valid
-        var report = DSSFactory.signedDocumentValidator(new InMemoryDocument(new FileInputStream("sample.pdf")),
+        var report = DSSFactory.signedDocumentValidator(new FileDocument("sample.pdf"),
                 signedDocument).validateDocument().getSimpleReport();
         var indication = report.getIndication(report.getFirstSignatureId()).name();
         if (indication.equals("FAILED") || indication.equals("TOTAL_FAILED") || indication.equals("NO_SIGNATURE_FOUND")) {
@@ -312,7 +359,7 @@ public class SignDocumentHashExample extends AbstractExample {
         System.out.printf("Expires on: %s %n", identificationDocument.expiresOn());
     }
 
-    private static PAdESSignatureParameters signatureParameter(HashAlgorithm hashAlgorithm) {
+    private static PAdESSignatureParameters signatureParameter(HashAlgorithm hashAlgorithm, int contentSize) {
         var pAdESSignatureParameters = new PAdESSignatureParameters();
         pAdESSignatureParameters.setDigestAlgorithm(switch (hashAlgorithm) {
             case SHA_256 -> DigestAlgorithm.SHA256;
@@ -320,7 +367,7 @@ public class SignDocumentHashExample extends AbstractExample {
             case SHA_512 -> DigestAlgorithm.SHA512;
         });
         pAdESSignatureParameters.setSignatureLevel(eu.europa.esig.dss.enumerations.SignatureLevel.PAdES_BASELINE_T);
-        pAdESSignatureParameters.setContentSize(14_500);
+        pAdESSignatureParameters.setContentSize(contentSize);
         return pAdESSignatureParameters;
     }
 }
@@ -4,10 +4,12 @@ import de.governikus.datasign.cookbook.AbstractExample;
 import de.governikus.datasign.cookbook.types.*;
 import de.governikus.datasign.cookbook.types.request.*;
 import de.governikus.datasign.cookbook.types.response.*;
+import de.governikus.datasign.cookbook.util.ContentSizeEstimator;
 import de.governikus.datasign.cookbook.util.DSSFactory;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
 import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
-import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.SignatureValue;
 import eu.europa.esig.dss.model.x509.CertificateToken;
 import eu.europa.esig.dss.pades.PAdESSignatureParameters;
@@ -15,6 +17,7 @@ import eu.europa.esig.dss.pades.PAdESSignatureParameters;
 import java.io.FileInputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.List;
 import java.util.Scanner;
@@ -81,9 +84,18 @@ public class SignToBeSignedExample extends AbstractExample {
         var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
 
         // calculate the DTBS from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
-
-        var signatureParameter = signatureParameter(certificate.certificate(), signatureAlgorithm, hashAlgorithm);
+        var unsignedDocument = new FileDocument("sample.pdf");
+
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + userId;
+        // the CA certificates are part of the CMS signed data as well
+        var certificateChain = DSSFactory.certificateChain(new CertificateToken(toX509Certificate(certificate.certificate())));
+        var contentSize = contentSizeEstimator.estimate(signerKey, certificateChain.stream().map(CertificateToken::getEncoded).toList(),
+                SignatureLevel.B_T, timestampProvider);
+
+        var signatureParameter = signatureParameter(certificateChain, signatureAlgorithm, hashAlgorithm, contentSize);
         var dtbs = DSSFactory.pAdESService().getDataToSign(unsignedDocument, signatureParameter);
 
         // POST /sign/to-be-signed/transactions
@@ -139,10 +151,22 @@ public class SignToBeSignedExample extends AbstractExample {
         var timestamp = timestamps.timestamps().stream()
                 .filter(t -> t.id().equals(signatureValue.id())).findFirst().orElseThrow();
 
+        contentSizeEstimator.observeTimestamp(timestampProvider, timestamp.timestampToken().length);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
         // use the signature value to incorporate a signature into the unsigned document
         var signature = new SignatureValue(signatureParameter.getSignatureAlgorithm(), signatureValue.signatureValue());
-        var signedDocument = DSSFactory.pAdESService(timestamp.timestampToken())
-                .signDocument(unsignedDocument, signatureParameter, signature);
+        DSSDocument signedDocument;
+        try {
+            signedDocument = DSSFactory.pAdESService(timestamp.timestampToken())
+                    .signDocument(unsignedDocument, signatureParameter, signature);
+        } catch (ContentSizeEstimator.ContentSizeExceededException e) {
+            // the estimated content size is too small, the TSA certificates are moved from the timestamp token into the
+            // DSS dictionary instead of signing again
+            var fittedTimestamp = contentSizeEstimator.fitTimestamp(timestamp.timestampToken());
+            signedDocument = DSSFactory.pAdESService(fittedTimestamp.timestampToken(), fittedTimestamp.removedCertificates())
+                    .signDocument(unsignedDocument, signatureParameter, signature);
+        }
 
         if (!DSSFactory.pAdESService().isValidSignatureValue(dtbs, signature, new CertificateToken(toX509Certificate(certificate.certificate())))) {
             System.err.println("signatureValue is not coherent with document digest");
@@ -196,9 +220,18 @@ public class SignToBeSignedExample extends AbstractExample {
         var hashAlgorithm = hashAlgorithm(signatureAlgorithm);
 
         // calculate the DTBS from the unsigned document
-        var unsignedDocument = new InMemoryDocument(new FileInputStream("sample.pdf"));
-
-        var signatureParameter = signatureParameter(certificate.certificate(), signatureAlgorithm, hashAlgorithm);
+        var unsignedDocument = new FileDocument("sample.pdf");
+
+        // estimate the space reserved for the CMS signed data, sizes observed in previous runs are taken into account
+        var contentSizeEstimator = new ContentSizeEstimator();
+        contentSizeEstimator.load(Path.of("content-sizes.properties"));
+        var signerKey = provider + "/" + userId;
+        // the CA certificates are part of the CMS signed data as well
+        var certificateChain = DSSFactory.certificateChain(new CertificateToken(toX509Certificate(certificate.certificate())));
+        var contentSize = contentSizeEstimator.estimate(signerKey, certificateChain.stream().map(CertificateToken::getEncoded).toList(),
+                SignatureLevel.B_T, timestampProvider);
+
+        var signatureParameter = signatureParameter(certificateChain, signatureAlgorithm, hashAlgorithm, contentSize);
         var dtbs = DSSFactory.pAdESService().getDataToSign(unsignedDocument, signatureParameter);
 
         // POST /sign/to-be-signed/transactions
@@ -230,10 +263,22 @@ public class SignToBeSignedExample extends AbstractExample {
         var timestamp = timestamps.timestamps().stream()
                 .filter(t -> t.id().equals(signatureValue.id())).findFirst().orElseThrow();
 
+        contentSizeEstimator.observeTimestamp(timestampProvider, timestamp.timestampToken().length);
+        contentSizeEstimator.store(Path.of("content-sizes.properties"));
+
         // use the signature value to incorporate a signature into the unsigned document
         var signature = new SignatureValue(signatureParameter.getSignatureAlgorithm(), signatureValue.signatureValue());
-        var signedDocument = DSSFactory.pAdESService(timestamp.timestampToken())
-                .signDocument(unsignedDocument, signatureParameter, signature);
+        DSSDocument signedDocument;
+        try {
+            signedDocument = DSSFactory.pAdESService(timestamp.timestampToken())
+                    .signDocument(unsignedDocument, signatureParameter, signature);
+        } catch (ContentSizeEstimator.ContentSizeExceededException e) {
+            // the estimated content size is too small, the TSA certificates are moved from the timestamp token into the
+            // DSS dictionary instead of signing again
+            var fittedTimestamp = contentSizeEstimator.fitTimestamp(timestamp.timestampToken());
+            signedDocument = DSSFactory.pAdESService(fittedTimestamp.timestampToken(), fittedTimestamp.removedCertificates())
+                    .signDocument(unsignedDocument, signatureParameter, signature);
+        }
 
         if (!DSSFactory.pAdESService().isValidSignatureValue(dtbs, signature, new CertificateToken(toX509Certificate(certificate.certificate())))) {
             System.err.println("signatureValue is not coherent with document digest");
@@ -249,9 +294,10 @@ public class SignToBeSignedExample extends AbstractExample {
         System.out.println("sample.pdf is now signed and written to disk as sample_signed.pdf");
     }
 
-    private static PAdESSignatureParameters signatureParameter(byte[] signingCertificate, SignatureAlgorithm signatureAlgorithm, HashAlgorithm hashAlgorithm) throws Exception {
+    private static PAdESSignatureParameters signatureParameter(List<CertificateToken> certificateChain, SignatureAlgorithm signatureAlgorithm, HashAlgorithm hashAlgorithm, int contentSize) {
         var pAdESSignatureParameters = new PAdESSignatureParameters();
-        pAdESSignatureParameters.setSigningCertificate(new CertificateToken(toX509Certificate(signingCertificate)));
+        pAdESSignatureParameters.setSigningCertificate(certificateChain.get(0));
+        pAdESSignatureParameters.setCertificateChain(certificateChain);
         // leave #setEncryptionAlgorithm here after #setSigningCertificate
         pAdESSignatureParameters.setEncryptionAlgorithm(switch (signatureAlgorithm) {
             case RSA_SHA256, RSA_SHA384, RSA_SHA512 -> EncryptionAlgorithm.RSA;
@@ -265,7 +311,7 @@ public class SignToBeSignedExample extends AbstractExample {
             case SHA_512 -> DigestAlgorithm.SHA512;
         });
         pAdESSignatureParameters.setSignatureLevel(eu.europa.esig.dss.enumerations.SignatureLevel.PAdES_BASELINE_T);
-        pAdESSignatureParameters.setContentSize(14_500);
+        pAdESSignatureParameters.setContentSize(contentSize);
         return pAdESSignatureParameters;
     }
 
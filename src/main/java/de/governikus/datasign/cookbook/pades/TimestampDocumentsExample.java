@@ -0,0 +1,46 @@
+package de.governikus.datasign.cookbook.pades;
+
+import de.governikus.datasign.cookbook.AbstractExample;
+import de.governikus.datasign.cookbook.types.request.TimestampRequest;
+import de.governikus.datasign.cookbook.types.response.Timestamps;
+import de.governikus.datasign.cookbook.util.BatchingTspSource;
+import de.governikus.datasign.cookbook.util.DocumentTimestamper;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static de.governikus.datasign.cookbook.util.AccessTokenUtil.retrieveAccessToken;
+
+/**
+ * Example for protecting all PDFs in the directory documents with PAdES document timestamps instead of seals. The
+ * timestamped documents are written to documents_timestamped.
+ */
+public class TimestampDocumentsExample extends AbstractExample {
+
+    public static void main(String[] args) throws Exception {
+        new TimestampDocumentsExample().runExample();
+    }
+
+    public void runExample() throws Exception {
+        props.load(new FileInputStream("cookbook.properties"));
+        System.out.println("Running example with properties = " + props.getProperty("url"));
+
+        var accessToken = retrieveAccessToken(props);
+
+        var timestampProvider = props.getProperty("example.timestampProvider");
+
+        // POST /timestamp, once per batch of document digests
+        BatchingTspSource.TimestampClient timestampClient = digests -> send(
+                POST("/timestamp", new TimestampRequest(timestampProvider, digests))
+                        .header("Authorization", accessToken.toAuthorizationHeader()),
+                Timestamps.class).timestamps();
+
+        try (var documentTimestamper = new DocumentTimestamper(timestampClient);
+             var documents = Files.list(Path.of("documents"))) {
+            var timestamped = documentTimestamper.timestampAll(
+                    documents.filter(f -> f.getFileName().toString().endsWith(".pdf")), Path.of("documents_timestamped"));
+            System.out.printf("%d documents are now timestamped and written to documents_timestamped%n", timestamped);
+        }
+    }
+}
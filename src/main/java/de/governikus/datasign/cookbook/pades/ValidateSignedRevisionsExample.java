@@ -0,0 +1,43 @@
+package de.governikus.datasign.cookbook.pades;
+
+import de.governikus.datasign.cookbook.util.IncrementalPdfValidator;
+import de.governikus.datasign.cookbook.util.TieredValidator;
+
+import java.nio.file.Path;
+
+/**
+ * Example for validating PDFs after each signing event. The validated revisions are remembered in
+ * pdf-revisions.properties, so running the example again after another signature has been added (e.g. by one of the
+ * sign examples) only validates the new signature.
+ * <p>
+ * The PDFs are given as arguments, the default is sample_signed.pdf. The validation tier is chosen with
+ * {@code -Dcookbook.validationTier=SIGNATURE_VALUE|STRUCTURE|FULL}.
+ */
+public class ValidateSignedRevisionsExample {
+
+    public static void main(String[] args) throws Exception {
+        new ValidateSignedRevisionsExample().runExample(args.length == 0 ? new String[]{"sample_signed.pdf"} : args);
+    }
+
+    public void runExample(String[] pdfs) throws Exception {
+        var tier = TieredValidator.Tier.valueOf(System.getProperty("cookbook.validationTier", "FULL"));
+        var validator = new IncrementalPdfValidator(tier);
+        var stateFile = Path.of("pdf-revisions.properties");
+        validator.load(stateFile);
+
+        for (var pdf : pdfs) {
+            var result = validator.validate(Path.of(pdf));
+            for (var revision : result.revisions()) {
+                System.out.printf("%s, revision ending at %d: %s %s (%s)%s%s%n", pdf, revision.end(),
+                        revision.result().indication(),
+                        revision.result().subIndication() == null ? "" : revision.result().subIndication(),
+                        revision.result().tier(), revision.cached() ? " (validated before)" : "",
+                        revision.result().failure() == null ? "" : ": " + revision.result().failure().getMessage());
+            }
+            if (result.appendedAfterLastSignature()) {
+                System.out.printf("%s has been updated after the last signature, not only by validation data%n", pdf);
+            }
+        }
+        validator.store(stateFile);
+    }
+}
@@ -0,0 +1,142 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+
+import java.io.BufferedOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packages many files into one ASiC-E container (ETSI EN 319 162-1) with a CAdES signature, so a delivery needs one
+ * seal instead of one per file. The files are hashed in parallel into an ASiC manifest
+ * ({@code META-INF/ASiCManifest.xml}), only the manifest is sealed, e.g. by its hash. The detached CAdES signature
+ * of the manifest is stored as {@code META-INF/signature.p7s}.
+ * <p>
+ * The container is streamed to disk, the files are never held in memory. While copied into the container, the files
+ * are hashed again and must still match the sealed manifest.
+ */
+public class ASiCEContainer {
+
+    public static final String MIME_TYPE = "application/vnd.etsi.asic-e+zip";
+
+    private static final String MANIFEST = "META-INF/ASiCManifest.xml";
+
+    private static final String SIGNATURE = "META-INF/signature.p7s";
+
+    /**
+     * @param digests the digests in the manifest
+     * @param xml     the ASiC manifest to be sealed
+     */
+    public record Manifest(List<Path> files, HashAlgorithm hashAlgorithm, Map<Path, byte[]> digests, byte[] xml) {
+    }
+
+    /**
+     * The files are stored in the root of the container by their file name, which must be unique.
+     */
+    public static Manifest manifest(Collection<Path> files, HashAlgorithm hashAlgorithm) throws Exception {
+        var names = new HashSet<String>();
+        for (var file : files) {
+            if (!names.add(file.getFileName().toString())) {
+                throw new IllegalArgumentException("the file name " + file.getFileName() + " is not unique");
+            }
+        }
+
+        var digestMethod = switch (hashAlgorithm) {
+            case SHA_256 -> "http://www.w3.org/2001/04/xmlenc#sha256";
+            case SHA_384 -> "http://www.w3.org/2001/04/xmldsig-more#sha384";
+            case SHA_512 -> "http://www.w3.org/2001/04/xmlenc#sha512";
+        };
+        try (var hashingService = new HashingService()) {
+            var digests = hashingService.hashAll(files, hashAlgorithm);
+
+            var xml = new StringBuilder("""
+                    <?xml version="1.0" encoding="UTF-8" standalone="no"?>
+                    <asic:ASiCManifest xmlns:asic="http://uri.etsi.org/02918/v1.2.1#" xmlns:ds="http://www.w3.org/2000/09/xmldsig#">
+                    <asic:SigReference MimeType="application/x-pkcs7-signature" URI="%s"/>
+                    """.formatted(SIGNATURE));
+            for (var file : files) {
+                var mimeType = Files.probeContentType(file);
+                xml.append("""
+                        <asic:DataObjectReference MimeType="%s" URI="%s">
+                        <ds:DigestMethod Algorithm="%s"/>
+                        <ds:DigestValue>%s</ds:DigestValue>
+                        </asic:DataObjectReference>
+                        """.formatted(escape(mimeType == null ? "application/octet-stream" : mimeType),
+                        escape(new URI(null, null, file.getFileName().toString(), null).toASCIIString()),
+                        digestMethod, Base64.getEncoder().encodeToString(digests.get(file))));
+            }
+            xml.append("</asic:ASiCManifest>\n");
+            return new Manifest(List.copyOf(files), hashAlgorithm, Map.copyOf(digests), xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the container with the files, the manifest and its detached signature.
+     *
+     * @throws IllegalStateException if a file has changed since the manifest was created, no container is written
+     */
+    public static void write(Path container, Manifest manifest, byte[] cmsSignedData) throws Exception {
+        var temporaryFile = container.resolveSibling(container.getFileName() + ".tmp");
+        try {
+            writeZip(temporaryFile, manifest, cmsSignedData);
+        } catch (Exception e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, container, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeZip(Path temporaryFile, Manifest manifest, byte[] cmsSignedData) throws Exception {
+        try (var zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            // the mimetype comes first and uncompressed, so the container type can be detected from the first bytes
+            var mimeType = MIME_TYPE.getBytes(StandardCharsets.US_ASCII);
+            var crc = new CRC32();
+            crc.update(mimeType);
+            var mimeTypeEntry = new ZipEntry("mimetype");
+            mimeTypeEntry.setMethod(ZipEntry.STORED);
+            mimeTypeEntry.setSize(mimeType.length);
+            mimeTypeEntry.setCrc(crc.getValue());
+            zip.putNextEntry(mimeTypeEntry);
+            zip.write(mimeType);
+            zip.closeEntry();
+
+            for (var file : manifest.files()) {
+                zip.putNextEntry(new ZipEntry(file.getFileName().toString()));
+                var messageDigest = HashingService.messageDigest(manifest.hashAlgorithm());
+                try (var in = new DigestInputStream(Files.newInputStream(file), messageDigest)) {
+                    in.transferTo(zip);
+                }
+                if (!MessageDigest.isEqual(messageDigest.digest(), manifest.digests().get(file))) {
+                    throw new IllegalStateException(file + " has changed since the manifest was created");
+                }
+                zip.closeEntry();
+            }
+
+            zip.putNextEntry(new ZipEntry(MANIFEST));
+            zip.write(manifest.xml());
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry(SIGNATURE));
+            zip.write(cmsSignedData);
+            zip.closeEntry();
+            zip.setComment("mimetype=" + MIME_TYPE);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
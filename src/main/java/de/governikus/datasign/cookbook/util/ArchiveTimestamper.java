@@ -0,0 +1,263 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.cades.CAdESSignatureParameters;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.pades.PAdESSignatureParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Renews the archive timestamps of a store of signed PDFs and detached CAdES signatures, before the algorithms or
+ * the TSA certificates of the existing timestamps expire. PDFs are extended to PAdES-BASELINE-LTA (validation data
+ * and a document timestamp), detached signatures to CAdES-BASELINE-LTA (validation data and an archive timestamp
+ * over the signature and its content).
+ * <p>
+ * The documents are extended by DSS in parallel, the archive timestamps of all threads are requested in batches
+ * (see {@link BatchingTspSource}). Each thread waits for its timestamp, so the number of threads should be at least
+ * the batch size.
+ * <p>
+ * The renewed files are recorded in the progress file, a campaign that is interrupted continues with the files not
+ * renewed yet. Each renewed file is appended to a journal next to the progress file ({@code <progress file>.journal}),
+ * synced every {@value #SYNC_INTERVAL} files, files renewed after the last sync are timestamped once more. The journal
+ * is compacted into the progress file (replaced atomically) when it is opened and after each {@link #renewAll} run.
+ */
+public class ArchiveTimestamper implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface RenewalListener {
+
+        void renewed(Path file) throws Exception;
+    }
+
+    public record Progress(long renewed, long skipped, long failed) {
+    }
+
+    private static final int SYNC_INTERVAL = 100;
+
+    private final Path progressFile;
+
+    private final Path journalFile;
+
+    private final Path contentDirectory;
+
+    private final DigestAlgorithm digestAlgorithm;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final BatchingTspSource tspSource;
+
+    private final Map<String, String> renewed = new ConcurrentHashMap<>();
+
+    private final ByteArrayOutputStream unsynced = new ByteArrayOutputStream();
+
+    private int unsyncedFiles;
+
+    private FileChannel journal;
+
+    /**
+     * @param progressFile     the files renewed in this campaign, use a new file for each campaign, or null if the
+     *                         caller keeps track of the renewed files (see {@link RevalidationScheduler})
+     * @param contentDirectory the directory of the signed contents of detached signatures ({@code name.p7s} signs
+     *                         {@code name})
+     */
+    public ArchiveTimestamper(BatchingTspSource.TimestampClient timestampClient, Path progressFile, Path contentDirectory) throws Exception {
+        this(timestampClient, progressFile, contentDirectory, DigestAlgorithm.SHA512, 100, Duration.ofMillis(500), 100);
+    }
+
+    public ArchiveTimestamper(BatchingTspSource.TimestampClient timestampClient, Path progressFile, Path contentDirectory,
+                              DigestAlgorithm digestAlgorithm, int batchSize, Duration linger, int threads) throws Exception {
+        this.progressFile = progressFile;
+        this.journalFile = progressFile == null ? null : progressFile.resolveSibling(progressFile.getFileName() + ".journal");
+        this.contentDirectory = contentDirectory;
+        this.digestAlgorithm = digestAlgorithm;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.tspSource = new BatchingTspSource(timestampClient, batchSize, linger);
+        load();
+    }
+
+    /**
+     * Renews all PDFs and detached signatures ({@code .p7s}) in the store and its subdirectories that have not been
+     * renewed in this campaign. The files are replaced.
+     */
+    public Progress renewAll(Path store) throws Exception {
+        try (var files = Files.walk(store)) {
+            return renewAll(files.filter(ArchiveTimestamper::isSigned), file -> {
+            });
+        }
+    }
+
+    /**
+     * Renews the given PDFs and detached signatures ({@code .p7s}) that have not been renewed in this campaign. The
+     * files are replaced, the listener is called for each renewed file.
+     */
+    public Progress renewAll(Stream<Path> files, RenewalListener listener) throws Exception {
+        var inFlight = new Semaphore(threads * 2);
+        var renewedFiles = new AtomicLong();
+        var skipped = new AtomicLong();
+        var failed = new AtomicLong();
+
+        for (var iterator = files.iterator(); iterator.hasNext(); ) {
+            var file = iterator.next();
+            if (renewed.containsKey(file.toString())) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            inFlight.acquire();
+            CompletableFuture.runAsync(() -> {
+                try {
+                    renew(file);
+                    record(file);
+                    listener.renewed(file);
+                    renewedFiles.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.printf("unable to renew the archive timestamp of %s: %s%n", file, e.getMessage());
+                }
+            }, executor).whenComplete((ignored, e) -> inFlight.release());
+        }
+        // wait for the remaining files
+        inFlight.acquire(threads * 2);
+        inFlight.release(threads * 2);
+        compact();
+        return new Progress(renewedFiles.get(), skipped.get(), failed.get());
+    }
+
+    private void renew(Path file) throws Exception {
+        DSSDocument extended;
+        if (file.getFileName().toString().endsWith(".pdf")) {
+            var parameters = new PAdESSignatureParameters();
+            parameters.setSignatureLevel(SignatureLevel.PAdES_BASELINE_LTA);
+            parameters.getArchiveTimestampParameters().setDigestAlgorithm(digestAlgorithm);
+            extended = DSSFactory.pAdESArchiveService(tspSource).extendDocument(new FileDocument(file.toFile()), parameters);
+        } else {
+            var fileName = file.getFileName().toString();
+            var content = contentDirectory.resolve(fileName.substring(0, fileName.length() - ".p7s".length()));
+            if (!Files.exists(content)) {
+                throw new IllegalStateException("the signed content " + content + " does not exist");
+            }
+            var parameters = new CAdESSignatureParameters();
+            parameters.setSignatureLevel(SignatureLevel.CAdES_BASELINE_LTA);
+            parameters.setDetachedContents(List.of(new FileDocument(content.toFile())));
+            parameters.getArchiveTimestampParameters().setDigestAlgorithm(digestAlgorithm);
+            var cAdESService = DSSFactory.cAdESService();
+            cAdESService.setTspSource(tspSource);
+            extended = cAdESService.extendDocument(new FileDocument(file.toFile()), parameters);
+        }
+        var temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        extended.save(temporaryFile.toString());
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isSigned(Path file) {
+        var fileName = file.getFileName().toString();
+        return Files.isRegularFile(file) && (fileName.endsWith(".pdf") || fileName.endsWith(".p7s"));
+    }
+
+    /**
+     * Reads the progress file and the journal and compacts them.
+     */
+    private void load() throws Exception {
+        if (progressFile == null) {
+            return;
+        }
+        if (Files.exists(progressFile)) {
+            var props = new Properties();
+            try (var in = new FileInputStream(progressFile.toFile())) {
+                props.load(in);
+            }
+            props.stringPropertyNames().forEach(key -> renewed.put(key, props.getProperty(key)));
+        }
+        if (Files.exists(journalFile)) {
+            try (var lines = Files.lines(journalFile, StandardCharsets.UTF_8)) {
+                lines.forEach(line -> {
+                    // a line cut off by a crash has no tab or no complete time
+                    var tab = line.indexOf('\t');
+                    if (tab > 0 && line.substring(0, tab).chars().allMatch(Character::isDigit)) {
+                        renewed.put(line.substring(tab + 1), line.substring(0, tab));
+                    }
+                });
+            }
+        }
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compact();
+    }
+
+    private synchronized void record(Path file) throws IOException {
+        var time = String.valueOf(System.currentTimeMillis());
+        renewed.put(file.toString(), time);
+        if (journal == null) {
+            return;
+        }
+        unsynced.write((time + "\t" + file + "\n").getBytes(StandardCharsets.UTF_8));
+        if (++unsyncedFiles == SYNC_INTERVAL) {
+            sync();
+        }
+    }
+
+    private synchronized void sync() throws IOException {
+        var buffer = ByteBuffer.wrap(unsynced.toByteArray());
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+        unsynced.reset();
+        unsyncedFiles = 0;
+    }
+
+    /**
+     * Writes all renewed files into the progress file and empties the journal.
+     */
+    private synchronized void compact() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        sync();
+        var props = new Properties();
+        props.putAll(renewed);
+        var temporaryFile = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            props.store(Channels.newOutputStream(channel), "files with a renewed archive timestamp");
+            channel.force(true);
+        }
+        Files.move(temporaryFile, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // a crash before the truncation only replays files already in the progress file
+        journal.truncate(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        if (journal != null) {
+            compact();
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.model.DSSDocument;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates signed outputs after they have been released, off the critical path of the signing flow. Only a sample
+ * of the outputs is validated, e.g. all qualified signatures of users ({@code sampleRate} 1.0) but 1% of bulk seals
+ * (0.01), which still detects systematic failures. The quarantine hook is called for each sampled output that has
+ * failed the validation, indeterminate results (e.g. without trusted certificates) are not quarantined.
+ * <p>
+ * The queue is bounded, if the validation falls behind the submitting thread validates itself. {@link #close()}
+ * waits for the queued validations, if interrupted the pending validations are abandoned.
+ */
+public class BackgroundValidator implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface QuarantineHook {
+
+        void quarantine(Path output, TieredValidator.Result result) throws Exception;
+    }
+
+    private static final int QUEUE_SIZE = 1_000;
+
+    private final TieredValidator.Tier tier;
+
+    private final ValidationConfiguration configuration;
+
+    private final double sampleRate;
+
+    private final QuarantineHook quarantineHook;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong validated = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    public BackgroundValidator(double sampleRate, QuarantineHook quarantineHook) {
+        this(TieredValidator.Tier.FULL,
+                ValidationConfiguration.defaultConfiguration(ValidationConfiguration.ReportLevel.INDICATION),
+                sampleRate, quarantineHook, 1);
+    }
+
+    public BackgroundValidator(TieredValidator.Tier tier, ValidationConfiguration configuration, double sampleRate,
+                               QuarantineHook quarantineHook, int threads) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sample rate must be between 0 and 1");
+        }
+        this.tier = tier;
+        this.configuration = configuration;
+        this.sampleRate = sampleRate;
+        this.quarantineHook = quarantineHook;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Moves quarantined outputs to the given directory.
+     */
+    public static QuarantineHook moveTo(Path quarantineDirectory) {
+        return (output, result) -> {
+            Files.createDirectories(quarantineDirectory);
+            Files.move(output, quarantineDirectory.resolve(output.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            System.err.printf("%s is quarantined in %s: %s%n", output, quarantineDirectory, result);
+        };
+    }
+
+    /**
+     * @param output           the released output, passed to the quarantine hook
+     * @param signedDocument   the signed document, must not change until it is validated (e.g. in memory)
+     * @param originalDocument see {@link TieredValidator#validate(DSSDocument, DSSDocument, TieredValidator.Tier)}
+     */
+    public void submit(Path output, DSSDocument signedDocument, DSSDocument originalDocument) {
+        submitted.incrementAndGet();
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        executor.execute(() -> {
+            var result = TieredValidator.validate(signedDocument, originalDocument, tier, configuration);
+            validated.incrementAndGet();
+            if (result.isFailed()) {
+                failed.incrementAndGet();
+                try {
+                    quarantineHook.quarantine(output, result);
+                } catch (Exception e) {
+                    System.err.printf("unable to quarantine %s: %s%n", output, e.getMessage());
+                }
+            }
+        });
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    public long validated() {
+        return validated.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+import de.governikus.datasign.cookbook.types.request.Digest;
+import de.governikus.datasign.cookbook.types.response.TimestampToken;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.spi.DSSASN1Utils;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.tsp.TimeStampToken;
+
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This {@link TSPSource} collects the digests to be timestamped by many threads and requests the timestamps together
+ * with one {@link TimestampClient} call (e.g. {@code POST /timestamp}) per batch of {@code batchSize} digests. A
+ * batch that is not full is sent after {@code linger}. The calling threads wait for their timestamps, a timestamp is
+ * only handed out if its message imprint matches the requested digest and digest algorithm.
+ */
+public class BatchingTspSource implements TSPSource {
+
+    private static final long serialVersionUID = 1L;
+
+    @FunctionalInterface
+    public interface TimestampClient {
+
+        /**
+         * @return a timestamp token for each digest, identified by the id of the digest
+         */
+        List<TimestampToken> timestamp(List<Digest> digests) throws Exception;
+    }
+
+    private record Request(Digest digest, DigestAlgorithm digestAlgorithm, CompletableFuture<TimeStampToken> timestampToken) {
+    }
+
+    private final transient TimestampClient timestampClient;
+
+    private final int batchSize;
+
+    private final Duration linger;
+
+    private final transient List<Request> pending = new ArrayList<>();
+
+    public BatchingTspSource(TimestampClient timestampClient) {
+        this(timestampClient, 100, Duration.ofMillis(500));
+    }
+
+    public BatchingTspSource(TimestampClient timestampClient, int batchSize, Duration linger) {
+        this.timestampClient = timestampClient;
+        this.batchSize = batchSize;
+        this.linger = linger;
+    }
+
+    @Override
+    public TimestampBinary getTimeStampResponse(DigestAlgorithm digestAlgorithm, byte[] digest) throws DSSException {
+        var request = new Request(new Digest(UUID.randomUUID(), hashAlgorithm(digestAlgorithm), digest), digestAlgorithm,
+                new CompletableFuture<>());
+        List<Request> batch = null;
+        synchronized (pending) {
+            pending.add(request);
+            if (pending.size() >= batchSize) {
+                batch = takePending();
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+
+        TimeStampToken timestampToken;
+        try {
+            try {
+                timestampToken = request.timestampToken().get(linger.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // the batch is not full, the thread waiting longest sends it
+                synchronized (pending) {
+                    batch = pending.contains(request) ? takePending() : null;
+                }
+                if (batch != null) {
+                    send(batch);
+                }
+                timestampToken = request.timestampToken().get();
+            }
+            return new TimestampBinary(DSSASN1Utils.getDEREncoded(timestampToken));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DSSException("interrupted while waiting for the timestamp", e);
+        } catch (ExecutionException e) {
+            throw new DSSException("unable to get the timestamp: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private List<Request> takePending() {
+        var batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    private void send(List<Request> batch) {
+        try {
+            var timestampTokens = new HashMap<UUID, byte[]>();
+            for (var timestampToken : timestampClient.timestamp(batch.stream().map(Request::digest).toList())) {
+                timestampTokens.put(timestampToken.id(), timestampToken.timestampToken());
+            }
+            for (var request : batch) {
+                var timestampToken = timestampTokens.get(request.digest().id());
+                if (timestampToken == null) {
+                    request.timestampToken().completeExceptionally(new IllegalStateException("no timestamp returned"));
+                } else {
+                    complete(request, timestampToken);
+                }
+            }
+        } catch (Exception e) {
+            batch.forEach(request -> request.timestampToken().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Completes the request only with a timestamp of its digest, so a mixed up id never timestamps another document.
+     */
+    private static void complete(Request request, byte[] encodedTimestampToken) {
+        try {
+            var timestampToken = new TimeStampToken(new CMSSignedData(encodedTimestampToken));
+            var timeStampInfo = timestampToken.getTimeStampInfo();
+            if (!timeStampInfo.getMessageImprintAlgOID().getId().equals(request.digestAlgorithm().getOid())
+                    || !MessageDigest.isEqual(timeStampInfo.getMessageImprintDigest(), request.digest().digest())) {
+                request.timestampToken().completeExceptionally(
+                        new IllegalStateException("the message imprint of the timestamp does not match the requested digest"));
+                return;
+            }
+            request.timestampToken().complete(timestampToken);
+        } catch (Exception e) {
+            request.timestampToken().completeExceptionally(new IllegalStateException("unable to parse the timestamp: " + e.getMessage(), e));
+        }
+    }
+
+    private static HashAlgorithm hashAlgorithm(DigestAlgorithm digestAlgorithm) {
+        return switch (digestAlgorithm) {
+            case SHA256 -> HashAlgorithm.SHA_256;
+            case SHA384 -> HashAlgorithm.SHA_384;
+            case SHA512 -> HashAlgorithm.SHA_512;
+            default -> throw new DSSException("timestamps with " + digestAlgorithm + " are not supported");
+        };
+    }
+}
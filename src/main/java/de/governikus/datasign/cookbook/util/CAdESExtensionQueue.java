@@ -0,0 +1,284 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.spi.validation.ValidationData;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.OtherRevocationInfoFormat;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.ocsp.BasicOCSPResponse;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.x509.CertificateList;
+import org.bouncycastle.cms.CMSSignedData;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Durable queue of detached CAdES-BASELINE-T signatures to be extended to CAdES-BASELINE-LT later, so the online
+ * fetching of certificates and revocation data (OCSP, CRL, AIA) does not delay the signing flow. The queue is a
+ * properties file with the signature files as keys, entries are only removed after the extended signature has been
+ * written. Signatures that cannot be parsed or extended are moved to a failed list next to the queue file.
+ * <p>
+ * The queue file is replaced atomically and changed under a lock on {@code <queue file>.lock}, so signing flows can
+ * enqueue while another process extends. The lock is not held while the validation data is fetched.
+ * <p>
+ * {@link #processAll()} works in chunks of {@value #CHUNK_SIZE} signatures, only the signatures of one chunk are held
+ * in memory. A chunk is leased under the lock (the entry gets a lease expiry), so concurrent runs skip the entries
+ * being worked on, and a run that died leaves its entries to the next run once the lease has expired. The validation
+ * data is collected once per signing certificate and TSA (see {@link DSSFactory#validationDataKey(CMSSignedData)})
+ * and added to the certificates and revocation information of the CMS signed data, as DSS does for the LT-Level. The
+ * signed content is not needed.
+ */
+public class CAdESExtensionQueue {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private static final Duration LEASE_DURATION = Duration.ofMinutes(10);
+
+    private final Path queueFile;
+
+    private final Path failedFile;
+
+    private final Path lockFile;
+
+    public CAdESExtensionQueue(Path queueFile) {
+        this.queueFile = queueFile;
+        this.failedFile = queueFile.resolveSibling(queueFile.getFileName() + ".failed");
+        this.lockFile = queueFile.resolveSibling(queueFile.getFileName() + ".lock");
+    }
+
+    public synchronized void enqueue(Path signatureFile) throws Exception {
+        locked(() -> {
+            var queue = load(queueFile);
+            queue.setProperty(signatureFile.toString(), String.valueOf(System.currentTimeMillis()));
+            store(queueFile, queue, "detached CAdES signatures to be extended to LT-Level");
+            return null;
+        });
+    }
+
+    public synchronized int size() throws Exception {
+        return locked(() -> load(queueFile).size());
+    }
+
+    /**
+     * @return the signature files that could not be extended with the reason
+     */
+    public synchronized Map<String, String> failed() throws Exception {
+        var failed = new TreeMap<String, String>();
+        locked(() -> load(failedFile)).forEach((key, value) -> failed.put((String) key, (String) value));
+        return failed;
+    }
+
+    /**
+     * Extends all queued signatures in place. Signatures whose validation data cannot be collected (e.g. a
+     * responder is not reachable) stay in the queue for the next run, signatures that cannot be parsed or extended
+     * are moved to the failed list.
+     *
+     * @return the number of extended signatures
+     */
+    public synchronized int processAll() throws Exception {
+        // validation data by signing certificate and TSA, null if it could not be collected in this run
+        var validationData = new HashMap<String, ValidationData>();
+        var extended = 0;
+        for (var chunk = lease(); !chunk.isEmpty(); chunk = lease()) {
+            extended += process(chunk, validationData);
+        }
+        return extended;
+    }
+
+    /**
+     * @return up to {@value #CHUNK_SIZE} queued signature files, without an unexpired lease of another run
+     */
+    private List<String> lease() throws Exception {
+        return locked(() -> {
+            var queue = load(queueFile);
+            var now = System.currentTimeMillis();
+            var leaseExpiry = String.valueOf(now + LEASE_DURATION.toMillis());
+            var chunk = new ArrayList<String>();
+            for (var entry : queue.stringPropertyNames()) {
+                var value = queue.getProperty(entry).split("\\|");
+                if (value.length > 1 && Long.parseLong(value[1]) > now) {
+                    continue;
+                }
+                queue.setProperty(entry, value[0] + "|" + leaseExpiry);
+                chunk.add(entry);
+                if (chunk.size() == CHUNK_SIZE) {
+                    break;
+                }
+            }
+            if (!chunk.isEmpty()) {
+                store(queueFile, queue, "detached CAdES signatures to be extended to LT-Level");
+            }
+            return chunk;
+        });
+    }
+
+    private int process(List<String> chunk, Map<String, ValidationData> validationData) throws Exception {
+        var groups = new LinkedHashMap<String, List<Path>>();
+        var signatures = new HashMap<Path, CMSSignedData>();
+        var done = new ArrayList<String>();
+        var failed = new Properties();
+        var released = new ArrayList<String>();
+        for (var entry : chunk) {
+            var signatureFile = Path.of(entry);
+            if (!Files.exists(signatureFile)) {
+                System.err.printf("%s does not exist anymore, removed from the queue%n", signatureFile);
+                done.add(entry);
+                continue;
+            }
+            try {
+                var cmsSignedData = new CMSSignedData(Files.readAllBytes(signatureFile));
+                groups.computeIfAbsent(DSSFactory.validationDataKey(cmsSignedData), k -> new ArrayList<>()).add(signatureFile);
+                signatures.put(signatureFile, cmsSignedData);
+            } catch (Exception e) {
+                System.err.printf("%s is not a CAdES signature, moved to the failed list: %s%n", signatureFile, e.getMessage());
+                failed.setProperty(entry, String.valueOf(e.getMessage()));
+            }
+        }
+
+        var extended = 0;
+        for (var group : groups.entrySet()) {
+            if (!validationData.containsKey(group.getKey())) {
+                try {
+                    validationData.put(group.getKey(), DSSFactory.validationData(signatures.get(group.getValue().get(0))));
+                } catch (Exception e) {
+                    System.err.printf("unable to collect the validation data for %d signatures: %s%n", group.getValue().size(), e.getMessage());
+                    validationData.put(group.getKey(), null);
+                }
+            }
+            var groupValidationData = validationData.get(group.getKey());
+            if (groupValidationData == null) {
+                group.getValue().forEach(signatureFile -> released.add(signatureFile.toString()));
+                continue;
+            }
+            for (var signatureFile : group.getValue()) {
+                try {
+                    var temporaryFile = signatureFile.resolveSibling(signatureFile.getFileName() + ".tmp");
+                    Files.write(temporaryFile, addValidationData(signatures.get(signatureFile), groupValidationData));
+                    Files.move(temporaryFile, signatureFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    done.add(signatureFile.toString());
+                    extended++;
+                } catch (Exception e) {
+                    System.err.printf("unable to extend %s, moved to the failed list: %s%n", signatureFile, e.getMessage());
+                    failed.setProperty(signatureFile.toString(), String.valueOf(e.getMessage()));
+                }
+            }
+        }
+        update(done, failed, released);
+        return extended;
+    }
+
+    /**
+     * Removes the processed entries from the queue as it is now, signatures enqueued meanwhile are kept. The lease
+     * of the released entries ends, so the next run tries them again.
+     */
+    private void update(List<String> done, Properties failed, List<String> released) throws Exception {
+        locked(() -> {
+            var queue = load(queueFile);
+            done.forEach(queue::remove);
+            failed.stringPropertyNames().forEach(queue::remove);
+            for (var entry : released) {
+                var value = queue.getProperty(entry);
+                if (value != null) {
+                    queue.setProperty(entry, value.split("\\|")[0]);
+                }
+            }
+            store(queueFile, queue, "detached CAdES signatures to be extended to LT-Level");
+            if (!failed.isEmpty()) {
+                var failedList = load(failedFile);
+                failedList.putAll(failed);
+                store(failedFile, failedList, "detached CAdES signatures that could not be extended to LT-Level");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return the encoded CMS signed data with the certificates and revocation data added
+     */
+    static byte[] addValidationData(CMSSignedData cmsSignedData, ValidationData validationData) throws Exception {
+        var signedData = SignedData.getInstance(cmsSignedData.toASN1Structure().getContent());
+
+        var certificates = new ASN1EncodableVector();
+        if (signedData.getCertificates() != null) {
+            signedData.getCertificates().forEach(certificates::add);
+        }
+        for (var certificateToken : validationData.getCertificateTokens()) {
+            addIfAbsent(certificates, Certificate.getInstance(certificateToken.getEncoded()));
+        }
+
+        var revocations = new ASN1EncodableVector();
+        if (signedData.getCRLs() != null) {
+            signedData.getCRLs().forEach(revocations::add);
+        }
+        for (var crlToken : validationData.getCrlTokens()) {
+            addIfAbsent(revocations, CertificateList.getInstance(crlToken.getEncoded()));
+        }
+        for (var ocspToken : validationData.getOcspTokens()) {
+            // like DSS, the basic OCSP responses are stored as other revocation info
+            addIfAbsent(revocations, new DERTaggedObject(false, 1, new OtherRevocationInfoFormat(
+                    OCSPObjectIdentifiers.id_pkix_ocsp_basic, BasicOCSPResponse.getInstance(ocspToken.getBasicOCSPResp().getEncoded()))));
+        }
+
+        var extendedSignedData = new SignedData(signedData.getDigestAlgorithms(), signedData.getEncapContentInfo(),
+                new DERSet(certificates), revocations.size() == 0 ? null : new DERSet(revocations),
+                signedData.getSignerInfos());
+        return new ContentInfo(CMSObjectIdentifiers.signedData, extendedSignedData).getEncoded(ASN1Encoding.DER);
+    }
+
+    private static void addIfAbsent(ASN1EncodableVector vector, ASN1Encodable element) {
+        var primitive = element.toASN1Primitive();
+        for (var i = 0; i < vector.size(); i++) {
+            if (vector.get(i).toASN1Primitive().equals(primitive)) {
+                return;
+            }
+        }
+        vector.add(element);
+    }
+
+    private <T> T locked(Callable<T> action) throws Exception {
+        // closing the channel releases the lock
+        try (var channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.lock();
+            return action.call();
+        }
+    }
+
+    private static Properties load(Path file) throws Exception {
+        var properties = new Properties();
+        if (Files.exists(file)) {
+            try (var in = new FileInputStream(file.toFile())) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Path file, Properties properties, String comments) throws Exception {
+        var temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new FileOutputStream(temporaryFile.toFile())) {
+            properties.store(out, comments);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,185 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.cades.CAdESSignatureParameters;
+import eu.europa.esig.dss.cades.signature.CAdESService;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.spi.DSSUtils;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.cms.SignerInfo;
+import org.bouncycastle.asn1.cms.Time;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Fast path for CAdES to-be-signed batches with one signing certificate: DSS builds the signed attributes and the
+ * CMS signed data once for a (certificate, algorithm, level) combination, afterwards the signed attributes (DTBS)
+ * of a document differ only in the message digest and the signing time, which are patched into a copy of the
+ * template bytes. The final CMS signed data is assembled from the template with the DTBS, the signature value and
+ * the signature timestamp.
+ * <p>
+ * Only detached CAdES-BASELINE-B and -T are supported, the validation data of the LT-Level must be added afterwards.
+ * Signing times must be between 1950 and 2049 (UTCTime), as the template is patched in place.
+ */
+public class CAdESTemplate {
+
+    private final byte[] dataToSign;
+
+    private final int messageDigestOffset;
+
+    private final int messageDigestLength;
+
+    private final int signingTimeOffset;
+
+    private final int signingTimeLength;
+
+    private final SignedData signedData;
+
+    private final SignerInfo signerInfo;
+
+    private final eu.europa.esig.dss.enumerations.SignatureAlgorithm signatureAlgorithm;
+
+    private CAdESTemplate(byte[] dataToSign, int messageDigestOffset, int messageDigestLength, int signingTimeOffset,
+                          int signingTimeLength, SignedData signedData,
+                          eu.europa.esig.dss.enumerations.SignatureAlgorithm signatureAlgorithm) {
+        this.dataToSign = dataToSign;
+        this.messageDigestOffset = messageDigestOffset;
+        this.messageDigestLength = messageDigestLength;
+        this.signingTimeOffset = signingTimeOffset;
+        this.signingTimeLength = signingTimeLength;
+        this.signedData = signedData;
+        this.signerInfo = SignerInfo.getInstance(signedData.getSignerInfos().getObjectAt(0));
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * @param parameters the detached signature parameters with signing certificate, digest and encryption algorithm,
+     *                   they are not changed
+     */
+    public static CAdESTemplate create(CAdESService cAdESService, CAdESSignatureParameters parameters,
+                                       eu.europa.esig.dss.enumerations.SignatureAlgorithm signatureAlgorithm) {
+        parameters = copy(parameters);
+
+        // a random digest makes the position of the patched message digest unambiguous,
+        // the signing time is the only time in the signed attributes
+        var random = new SecureRandom();
+        var markerDigest = new byte[DSSUtils.digest(parameters.getDigestAlgorithm(), new byte[0]).length];
+        random.nextBytes(markerDigest);
+        // the signing time must be within the validity of the signing certificate
+        var markerSigningTime = Date.from(Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(random.nextInt(3600)));
+
+        parameters.bLevel().setSigningDate(markerSigningTime);
+        parameters.setSignatureLevel(SignatureLevel.CAdES_BASELINE_B);
+        var document = new DigestDocument(parameters.getDigestAlgorithm(), markerDigest);
+        var dataToSign = cAdESService.getDataToSign(document, parameters).getBytes();
+
+        var encodedSigningTime = encode(new Time(markerSigningTime));
+        var messageDigestOffset = indexOf(dataToSign, markerDigest);
+        var signingTimeOffset = indexOf(dataToSign, encodedSigningTime);
+
+        // the signature value is replaced, any value of the right type is sufficient for the template
+        var signedDocument = cAdESService.signDocument(document, parameters, new SignatureValue(signatureAlgorithm, new byte[]{0}));
+        var signedData = SignedData.getInstance(DSSUtils.toCMSSignedData(signedDocument).toASN1Structure().getContent());
+
+        return new CAdESTemplate(dataToSign, messageDigestOffset, markerDigest.length, signingTimeOffset,
+                encodedSigningTime.length, signedData, signatureAlgorithm);
+    }
+
+    /**
+     * @return the DER encoded signed attributes to be signed
+     */
+    public byte[] dataToSign(byte[] documentDigest, Date signingTime) {
+        if (documentDigest.length != messageDigestLength) {
+            throw new IllegalArgumentException("document digest must have %d bytes".formatted(messageDigestLength));
+        }
+        var encodedSigningTime = encode(new Time(signingTime));
+        if (encodedSigningTime.length != signingTimeLength) {
+            throw new IllegalArgumentException("signing time must be encoded as UTCTime");
+        }
+
+        var patched = dataToSign.clone();
+        System.arraycopy(documentDigest, 0, patched, messageDigestOffset, messageDigestLength);
+        System.arraycopy(encodedSigningTime, 0, patched, signingTimeOffset, signingTimeLength);
+        return patched;
+    }
+
+    /**
+     * @param timestampToken the signature timestamp token, may be null for CAdES-BASELINE-B
+     * @return the encoded CMS signed data
+     */
+    public byte[] cmsSignedData(byte[] dataToSign, byte[] signatureValue, byte[] timestampToken) throws Exception {
+        // like DSS, ECDSA signature values are DER encoded and PLAIN-ECDSA signature values are concatenated (r, s)
+        var encryptionAlgorithm = signatureAlgorithm.getEncryptionAlgorithm();
+        if (encryptionAlgorithm == EncryptionAlgorithm.ECDSA || encryptionAlgorithm == EncryptionAlgorithm.PLAIN_ECDSA) {
+            signatureValue = DSSUtils.convertECSignatureValue(signatureAlgorithm,
+                    new SignatureValue(signatureAlgorithm, signatureValue)).getValue();
+        }
+
+        ASN1Set unsignedAttributes = null;
+        if (timestampToken != null) {
+            unsignedAttributes = new DERSet(new Attribute(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken,
+                    new DERSet(ASN1Primitive.fromByteArray(timestampToken))));
+        }
+
+        var patchedSignerInfo = new SignerInfo(signerInfo.getSID(), signerInfo.getDigestAlgorithm(),
+                ASN1Set.getInstance(dataToSign), signerInfo.getDigestEncryptionAlgorithm(),
+                new DEROctetString(signatureValue), unsignedAttributes);
+        var patchedSignedData = new SignedData(signedData.getDigestAlgorithms(), signedData.getEncapContentInfo(),
+                signedData.getCertificates(), signedData.getCRLs(), new DERSet(patchedSignerInfo));
+        return new ContentInfo(CMSObjectIdentifiers.signedData, patchedSignedData).getEncoded(ASN1Encoding.DER);
+    }
+
+    /**
+     * A deep copy, the signature parameters of DSS are serializable.
+     */
+    private static CAdESSignatureParameters copy(CAdESSignatureParameters parameters) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            try (var out = new ObjectOutputStream(bytes)) {
+                out.writeObject(parameters);
+            }
+            try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (CAdESSignatureParameters) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] encode(Time time) {
+        try {
+            return time.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] marker) {
+        for (var i = 0; i <= bytes.length - marker.length; i++) {
+            if (Arrays.equals(bytes, i, i + marker.length, marker, 0, marker.length)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("marker not found in the signed attributes");
+    }
+}
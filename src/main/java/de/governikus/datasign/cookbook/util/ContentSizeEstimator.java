@@ -0,0 +1,270 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.SignatureLevel;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.validation.ValidationData;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationStore;
+import org.bouncycastle.util.CollectionStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Estimates the PAdES signature content size (the reserved space for the CMS signed data in the PDF) instead of
+ * a fixed value. The estimation is calculated from the signing certificate, the signature value size, the expected
+ * timestamp size and the signature level and learns from the CMS signed data sizes observed per signer
+ * (e.g. provider and seal) and the timestamp token sizes observed per timestamp provider.
+ */
+public class ContentSizeEstimator {
+
+    /**
+     * SignedData structure, algorithm identifiers and signed attributes.
+     */
+    private static final int SIGNED_DATA_OVERHEAD = 1_024;
+
+    private static final int DEFAULT_CERTIFICATE_SIZE = 2_048;
+
+    /**
+     * Signing certificate, intermediate CA and root CA.
+     */
+    private static final int DEFAULT_CHAIN_LENGTH = 3;
+
+    private static final int DEFAULT_SIGNATURE_VALUE_SIZE = 512;
+
+    private static final int DEFAULT_TIMESTAMP_SIZE = 7_168;
+
+    /**
+     * The former fixed content size, the minimum until sizes have been observed for the signer or timestamp provider.
+     */
+    private static final int DEFAULT_CONTENT_SIZE = 14_500;
+
+    /**
+     * Only the most recent observations are kept, so the estimation also shrinks, e.g. after a certificate renewal.
+     */
+    private static final int RECENT_OBSERVATIONS = 16;
+
+    private static final double SAFETY_MARGIN = 0.1;
+
+    private final Map<String, List<Integer>> cmsSizes = new ConcurrentHashMap<>();
+
+    private final Map<String, List<Integer>> timestampSizes = new ConcurrentHashMap<>();
+
+    /**
+     * @param timestampToken     the signature timestamp token with the TSA certificate only
+     * @param removedCertificates the other certificates of the timestamp token, to be provided in the DSS dictionary
+     */
+    public record FittedTimestamp(byte[] timestampToken, ValidationData removedCertificates) {
+    }
+
+    /**
+     * Thrown before the signature is incorporated, if the CMS signed data does not fit into the reserved content size.
+     */
+    public static class ContentSizeExceededException extends DSSException {
+
+        private static final long serialVersionUID = 1L;
+
+        public ContentSizeExceededException(int cmsSize, int contentSize) {
+            super("CMS signed data of %d bytes exceeds the content size of %d bytes".formatted(cmsSize, contentSize));
+        }
+    }
+
+    /**
+     * @param signerKey         identifies the signer, e.g. provider and sealId or userId
+     * @param certificateChain  the signing certificate first, followed by its CA certificates, if known
+     * @param signatureLevel    the level of the CMS signed data in the signature dictionary, validation data in the DSS
+     *                          dictionary is not part of the content
+     * @param timestampProvider the timestamp provider, only relevant for signature levels including a timestamp
+     * @return the content size in bytes
+     */
+    public int estimate(String signerKey, List<byte[]> certificateChain, SignatureLevel signatureLevel, String timestampProvider) throws Exception {
+        var observedCmsSizes = cmsSizes.get(signerKey);
+        var observedTimestampSizes = timestampProvider == null ? null : timestampSizes.get(timestampProvider);
+
+        int estimation;
+        if (observedCmsSizes != null) {
+            // the CMS signed data recently created for the signer is the best estimation
+            estimation = Collections.max(observedCmsSizes);
+        } else {
+            estimation = SIGNED_DATA_OVERHEAD;
+            if (certificateChain == null || certificateChain.isEmpty()) {
+                estimation += DEFAULT_CHAIN_LENGTH * DEFAULT_CERTIFICATE_SIZE + DEFAULT_SIGNATURE_VALUE_SIZE;
+            } else {
+                for (var certificate : certificateChain) {
+                    estimation += certificate.length;
+                }
+                estimation += signatureValueSize(certificateChain.get(0));
+            }
+            if (signatureLevel != SignatureLevel.B_B) {
+                estimation += observedTimestampSizes == null ? DEFAULT_TIMESTAMP_SIZE : Collections.max(observedTimestampSizes);
+            }
+        }
+
+        var withMargin = (int) (estimation * (1 + SAFETY_MARGIN));
+        if (observedCmsSizes == null && observedTimestampSizes == null) {
+            withMargin = Math.max(withMargin, DEFAULT_CONTENT_SIZE);
+        }
+        return (withMargin + 255) / 256 * 256;
+    }
+
+    /**
+     * Learns from the CMS signed data created for the given signer.
+     */
+    public void observe(String signerKey, String timestampProvider, CMSSignedData cmsSignedData) throws Exception {
+        addObservation(cmsSizes, signerKey, cmsSignedData.getEncoded().length);
+
+        var timestampAttribute = signatureTimestampAttribute(cmsSignedData.getSignerInfos().getSigners().iterator().next());
+        if (timestampAttribute != null && timestampProvider != null) {
+            observeTimestamp(timestampProvider, timestampAttribute.getAttrValues().getObjectAt(0).toASN1Primitive().getEncoded().length);
+        }
+    }
+
+    /**
+     * Learns from a timestamp token issued by the given timestamp provider.
+     */
+    public void observeTimestamp(String timestampProvider, int timestampTokenSize) {
+        addObservation(timestampSizes, timestampProvider, timestampTokenSize);
+    }
+
+    /**
+     * Makes the CMS signed data fit into the reserved content size without signing again, if the estimation was too
+     * small. Certificates and CRLs are not covered by the signature value: all but the signer certificates are
+     * removed from the signed data and from the signature timestamp. The removed validation data must then be
+     * provided in the DSS dictionary, see {@link DSSFactory#validationData(CMSSignedData)}.
+     *
+     * @throws IllegalStateException when the CMS signed data is still too large
+     */
+    public CMSSignedData fit(CMSSignedData cmsSignedData, int contentSize) throws Exception {
+        if (cmsSignedData.getEncoded().length <= contentSize) {
+            return cmsSignedData;
+        }
+
+        var reduced = withSignerCertificatesOnly(cmsSignedData);
+        if (reduced.getEncoded().length <= contentSize) {
+            return reduced;
+        }
+
+        var signer = reduced.getSignerInfos().getSigners().iterator().next();
+        var timestampAttribute = signatureTimestampAttribute(signer);
+        if (timestampAttribute != null) {
+            var timestampToken = new CMSSignedData(ContentInfo.getInstance(timestampAttribute.getAttrValues().getObjectAt(0)));
+            var reducedTimestampToken = withSignerCertificatesOnly(timestampToken);
+            var unsignedAttributes = signer.getUnsignedAttributes()
+                    .remove(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken)
+                    .add(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken, reducedTimestampToken.toASN1Structure());
+            reduced = CMSSignedData.replaceSigners(reduced,
+                    new SignerInformationStore(SignerInformation.replaceUnsignedAttributes(signer, unsignedAttributes)));
+        }
+
+        if (reduced.getEncoded().length > contentSize) {
+            throw new IllegalStateException("CMS signed data of %d bytes exceeds the content size of %d bytes"
+                    .formatted(reduced.getEncoded().length, contentSize));
+        }
+        return reduced;
+    }
+
+    /**
+     * Makes the signature timestamp of a signature assembled by DSS (see {@link DSSFactory#pAdESService(byte[])}) fit
+     * into the reserved content size without signing again, if the estimation was too small: all but the TSA
+     * certificate are removed from the timestamp token, its signature does not cover them.
+     */
+    public FittedTimestamp fitTimestamp(byte[] timestampToken) throws Exception {
+        var cmsSignedData = new CMSSignedData(timestampToken);
+        var tsaCertificate = DSSFactory.signerCertificate(cmsSignedData.getCertificates(),
+                cmsSignedData.getSignerInfos().getSigners().iterator().next().getSID()).orElse(null);
+        var removedCertificates = new ValidationData();
+        for (var certificate : cmsSignedData.getCertificates().getMatches(null)) {
+            if (!certificate.equals(tsaCertificate)) {
+                removedCertificates.addToken(new CertificateToken(new JcaX509CertificateConverter().getCertificate(certificate)));
+            }
+        }
+        return new FittedTimestamp(withSignerCertificatesOnly(cmsSignedData).getEncoded(), removedCertificates);
+    }
+
+    public void load(Path path) throws Exception {
+        if (!Files.exists(path)) {
+            return;
+        }
+        var props = new Properties();
+        try (var in = new FileInputStream(path.toFile())) {
+            props.load(in);
+        }
+        for (var key : props.stringPropertyNames()) {
+            for (var size : props.getProperty(key).split(",")) {
+                if (key.startsWith("cms.")) {
+                    addObservation(cmsSizes, key.substring(4), Integer.parseInt(size));
+                } else if (key.startsWith("timestamp.")) {
+                    addObservation(timestampSizes, key.substring(10), Integer.parseInt(size));
+                }
+            }
+        }
+    }
+
+    public void store(Path path) throws Exception {
+        var props = new Properties();
+        cmsSizes.forEach((key, sizes) -> props.setProperty("cms." + key, join(sizes)));
+        timestampSizes.forEach((key, sizes) -> props.setProperty("timestamp." + key, join(sizes)));
+        try (var out = new FileOutputStream(path.toFile())) {
+            props.store(out, "observed CMS signed data and timestamp token sizes");
+        }
+    }
+
+    private static void addObservation(Map<String, List<Integer>> sizes, String key, int size) {
+        sizes.compute(key, (ignored, recent) -> {
+            var updated = new ArrayList<Integer>(recent == null ? List.of() : recent);
+            updated.add(size);
+            return List.copyOf(updated.subList(Math.max(0, updated.size() - RECENT_OBSERVATIONS), updated.size()));
+        });
+    }
+
+    private static String join(List<Integer> sizes) {
+        return sizes.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static int signatureValueSize(byte[] signingCertificate) throws Exception {
+        var certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(signingCertificate));
+        if (certificate.getPublicKey() instanceof RSAPublicKey rsaPublicKey) {
+            return (rsaPublicKey.getModulus().bitLength() + 7) / 8;
+        }
+        if (certificate.getPublicKey() instanceof ECPublicKey ecPublicKey) {
+            // DER encoded (r, s)
+            return 2 * ((ecPublicKey.getParams().getOrder().bitLength() + 7) / 8) + 9;
+        }
+        return DEFAULT_SIGNATURE_VALUE_SIZE;
+    }
+
+    private static Attribute signatureTimestampAttribute(SignerInformation signer) {
+        if (signer.getUnsignedAttributes() == null) {
+            return null;
+        }
+        return signer.getUnsignedAttributes().get(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken);
+    }
+
+    private static CMSSignedData withSignerCertificatesOnly(CMSSignedData cmsSignedData) throws Exception {
+        var signer = cmsSignedData.getSignerInfos().getSigners().iterator().next();
+        var signerCertificate = DSSFactory.signerCertificate(cmsSignedData.getCertificates(), signer.getSID());
+        return CMSSignedData.replaceCertificatesAndCRLs(cmsSignedData,
+                new CollectionStore<>(signerCertificate.stream().toList()), null, null);
+    }
+}
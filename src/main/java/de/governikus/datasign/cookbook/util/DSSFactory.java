@@ -2,26 +2,64 @@ package de.governikus.datasign.cookbook.util;
 
 import eu.europa.esig.dss.cades.signature.CAdESService;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.TimestampType;
 import eu.europa.esig.dss.model.DSSDocument;
 import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.model.SignatureValue;
 import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.pades.PAdESSignatureParameters;
 import eu.europa.esig.dss.pades.signature.PAdESExtensionService;
 import eu.europa.esig.dss.pades.signature.PAdESService;
 import eu.europa.esig.dss.pades.signature.PAdESWithExternalCMSService;
+import eu.europa.esig.dss.pades.validation.ByteRange;
+import eu.europa.esig.dss.pades.validation.PAdESSignature;
+import eu.europa.esig.dss.pades.validation.PDFDocumentAnalyzer;
+import eu.europa.esig.dss.pades.validation.PDFDocumentValidator;
+import eu.europa.esig.dss.pades.validation.timestamp.PdfTimestampToken;
+import eu.europa.esig.dss.pdf.IPdfObjFactory;
+import eu.europa.esig.dss.pdf.PDFServiceMode;
+import eu.europa.esig.dss.pdf.PDFSignatureService;
+import eu.europa.esig.dss.pdf.PdfMemoryUsageSetting;
+import eu.europa.esig.dss.pdf.pdfbox.PdfBoxDefaultObjectFactory;
+import eu.europa.esig.dss.pdf.pdfbox.PdfBoxSignatureService;
+import eu.europa.esig.dss.service.crl.FileCacheCRLSource;
 import eu.europa.esig.dss.service.crl.OnlineCRLSource;
 import eu.europa.esig.dss.service.http.commons.CommonsDataLoader;
+import eu.europa.esig.dss.service.ocsp.FileCacheOCSPSource;
 import eu.europa.esig.dss.service.ocsp.OnlineOCSPSource;
+import eu.europa.esig.dss.signature.resources.TempFileResourcesHandlerBuilder;
 import eu.europa.esig.dss.spi.DSSASN1Utils;
+import eu.europa.esig.dss.spi.DSSUtils;
+import eu.europa.esig.dss.spi.signature.AdvancedSignature;
 import eu.europa.esig.dss.spi.validation.CertificateVerifier;
 import eu.europa.esig.dss.spi.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.spi.validation.SignatureValidationContext;
+import eu.europa.esig.dss.spi.validation.ValidationData;
 import eu.europa.esig.dss.spi.x509.aia.DefaultAIASource;
 import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import eu.europa.esig.dss.spi.x509.tsp.TimestampToken;
 import eu.europa.esig.dss.validation.SignedDocumentValidator;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerId;
 import org.bouncycastle.tsp.TimeStampToken;
+import org.bouncycastle.util.Store;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 
 /**
@@ -30,8 +68,48 @@ import java.util.Objects;
  */
 public class DSSFactory {
 
+    /**
+     * In large document mode ({@code -Dcookbook.largeDocuments=true}) intermediate and signed documents are
+     * spilled to temporary files and PDFBox buffers the parsed PDF in temporary files instead of the heap.
+     * Combined with {@link eu.europa.esig.dss.model.FileDocument} inputs the heap use does not grow with the
+     * document size.
+     */
+    private static final boolean LARGE_DOCUMENTS = Boolean.getBoolean("cookbook.largeDocuments");
+
+    /**
+     * Visible signature appearances are rendered once and shared by all PAdES services.
+     */
+    private static final SignatureAppearanceCache SIGNATURE_APPEARANCE_CACHE = new SignatureAppearanceCache();
+
+    /**
+     * Use {@link SignatureAppearanceCache#imageParameters} of this cache for the visible signatures of the PAdES services.
+     */
+    public static SignatureAppearanceCache signatureAppearanceCache() {
+        return SIGNATURE_APPEARANCE_CACHE;
+    }
+
+    /**
+     * Revocation data fetched by validations, cached in {@code revocation-cache/} until its next update (one day for
+     * OCSP responses without next update) and shared by all validations of the process.
+     */
+    private static final FileCacheOCSPSource CACHING_OCSP_SOURCE = new FileCacheOCSPSource(new OnlineOCSPSource());
+
+    private static final FileCacheCRLSource CACHING_CRL_SOURCE = new FileCacheCRLSource(new OnlineCRLSource());
+
+    static {
+        CACHING_OCSP_SOURCE.setFileCacheDirectory(new File("revocation-cache/ocsp"));
+        CACHING_OCSP_SOURCE.setDefaultNextUpdateDelay(Duration.ofDays(1).toSeconds());
+        CACHING_CRL_SOURCE.setFileCacheDirectory(new File("revocation-cache/crl"));
+    }
+
+    /**
+     * The returned service throws {@link ContentSizeEstimator.ContentSizeExceededException} before incorporating the
+     * signature, if the CMS signed data assembled by DSS exceeds the content size of the signature parameters.
+     */
     public static PAdESService pAdESService() {
-        return new PAdESService(offlineCertificateVerifier());
+        var pAdESService = new ContentSizeCheckingPAdESService(offlineCertificateVerifier());
+        pAdESService.setPdfObjFactory(pdfObjFactory(new SignatureAppearanceCachePdfObjFactory()));
+        return pAdESService;
     }
 
     public static PAdESService pAdESService(byte[] timestampToken) throws Exception {
@@ -40,33 +118,238 @@ public class DSSFactory {
         return pAdESService;
     }
 
+    /**
+     * The returned service writes the given validation data right after incorporating the signature.
+     */
+    public static PAdESService pAdESService(byte[] timestampToken, ValidationData validationData) throws Exception {
+        var pAdESService = pAdESService(timestampToken);
+        pAdESService.setPdfObjFactory(pdfObjFactory(new ValidationDataPdfObjFactory(validationData, SIGNATURE_APPEARANCE_CACHE)));
+        return pAdESService;
+    }
+
     public static PAdESWithExternalCMSService pAdESWithExternalCMSService() {
         var pAdESWithExternalCMSService = new PAdESWithExternalCMSService();
         pAdESWithExternalCMSService.setCertificateVerifier(offlineCertificateVerifier());
+        pAdESWithExternalCMSService.setPdfObjFactory(pdfObjFactory(new SignatureAppearanceCachePdfObjFactory()));
+        return pAdESWithExternalCMSService;
+    }
+
+    /**
+     * The returned service writes the given validation data right after incorporating the CMS signed data.
+     */
+    public static PAdESWithExternalCMSService pAdESWithExternalCMSService(ValidationData validationData) {
+        var pAdESWithExternalCMSService = pAdESWithExternalCMSService();
+        pAdESWithExternalCMSService.setPdfObjFactory(pdfObjFactory(new ValidationDataPdfObjFactory(validationData, SIGNATURE_APPEARANCE_CACHE)));
         return pAdESWithExternalCMSService;
     }
 
     public static PAdESExtensionService pAdESExtensionService() {
-        return new PAdESExtensionService(certificateVerifierForLtv());
+        return new PAdESExtensionService(certificateVerifierForLtv(), pdfObjFactory(new PdfBoxDefaultObjectFactory()));
+    }
+
+    /**
+     * The returned service extends signed PDFs, e.g. to PAdES-BASELINE-LTA with document timestamps of the given
+     * source, and fetches the validation data.
+     */
+    public static PAdESService pAdESArchiveService(TSPSource tspSource) {
+        var pAdESService = new PAdESService(certificateVerifierForLtv());
+        pAdESService.setPdfObjFactory(pdfObjFactory(new PdfBoxDefaultObjectFactory()));
+        pAdESService.setTspSource(tspSource);
+        return pAdESService;
     }
 
     public static CAdESService cAdESService() {
-        return new CAdESService(certificateVerifierForLtv());
+        var cAdESService = new CAdESService(certificateVerifierForLtv());
+        if (LARGE_DOCUMENTS) {
+            cAdESService.setResourcesHandlerBuilder(new TempFileResourcesHandlerBuilder());
+        }
+        return cAdESService;
     }
 
     public static SignedDocumentValidator signedDocumentValidator(DSSDocument unsignedDocument, DSSDocument signedDocument) {
-        var validator = SignedDocumentValidator.fromDocument(signedDocument);
+        var validator = signedDocumentValidator(signedDocument);
         validator.setDetachedContents(List.of(unsignedDocument));
-        validator.setCertificateVerifier(offlineCertificateVerifier());
         return validator;
     }
 
-    private static CertificateVerifier offlineCertificateVerifier() {
+    /**
+     * For enveloping signatures, the signed content is part of the signed document.
+     */
+    public static SignedDocumentValidator signedDocumentValidator(DSSDocument signedDocument) {
+        return signedDocumentValidator(signedDocument, offlineCertificateVerifier());
+    }
+
+    /**
+     * One certificate verifier (with its trusted certificate sources and revocation sources) can be shared by many
+     * validations.
+     */
+    public static SignedDocumentValidator signedDocumentValidator(DSSDocument signedDocument, CertificateVerifier certificateVerifier) {
+        var validator = SignedDocumentValidator.fromDocument(signedDocument);
+        validator.setCertificateVerifier(certificateVerifier);
+        if (validator instanceof PDFDocumentValidator pdfDocumentValidator) {
+            pdfDocumentValidator.setPdfObjFactory(pdfObjFactory(new PdfBoxDefaultObjectFactory()));
+        }
+        return validator;
+    }
+
+    /**
+     * Validates only the PDF signature or document timestamp with the ByteRange, e.g. the one completing the newest
+     * revision. The other signatures and document timestamps of the document are neither validated nor reported.
+     */
+    public static SignedDocumentValidator pdfRevisionValidator(DSSDocument signedDocument, int[] byteRange,
+                                                               CertificateVerifier certificateVerifier) {
+        var validator = new PDFDocumentValidator(new PdfRevisionAnalyzer(signedDocument, new ByteRange(byteRange))) {
+        };
+        validator.setCertificateVerifier(certificateVerifier);
+        validator.setPdfObjFactory(pdfObjFactory(new PdfBoxDefaultObjectFactory()));
+        return validator;
+    }
+
+    /**
+     * A document represented only by its digest, e.g. as detached content for CAdES signing and validation.
+     * The document is read once by streaming.
+     */
+    public static DigestDocument digestDocument(Path document, DigestAlgorithm digestAlgorithm) {
+        var digestDocument = new DigestDocument(digestAlgorithm, new FileDocument(document.toFile()).getDigestValue(digestAlgorithm));
+        digestDocument.setName(document.getFileName().toString());
+        return digestDocument;
+    }
+
+    /**
+     * Collects the certificate chains and revocation data (OCSP, CRL) of the signing certificate and of the
+     * TSA certificates of the given timestamp tokens. Fails if revocation data is missing, the signing certificate is
+     * revoked or a timestamp is not valid.
+     */
+    public static ValidationData validationData(CertificateToken signingCertificate, byte[]... timestampTokens) throws Exception {
+        var validationContext = new SignatureValidationContext();
+        validationContext.initialize(certificateVerifierForLtv());
+        validationContext.addCertificateTokenForVerification(signingCertificate);
+        for (var timestampToken : timestampTokens) {
+            validationContext.addTimestampTokenForVerification(new TimestampToken(timestampToken, TimestampType.SIGNATURE_TIMESTAMP));
+        }
+        validationContext.validate();
+
+        // the checks of the LT augmentation of DSS, so missing or damning revocation data is never written as LT data
+        if (!validationContext.checkAllRequiredRevocationDataPresent()) {
+            throw new DSSException("revocation data is missing for the certificate chain of " + signingCertificate.getSubject().getRFC2253());
+        }
+        if (!validationContext.checkCertificateNotRevoked(signingCertificate)) {
+            throw new DSSException("the signing certificate " + signingCertificate.getSubject().getRFC2253() + " is revoked");
+        }
+        if (!validationContext.checkAllTimestampsValid()) {
+            throw new DSSException("a signature timestamp of " + signingCertificate.getSubject().getRFC2253() + " is not valid");
+        }
+
+        var validationData = new ValidationData();
+        validationContext.getProcessedCertificates().forEach(validationData::addToken);
+        validationContext.getProcessedRevocations().forEach(validationData::addToken);
+        return validationData;
+    }
+
+    /**
+     * Collects the certificate chains and revocation data (OCSP, CRL) of the signer and of the signature
+     * timestamps found in the given CMS signed data.
+     */
+    public static ValidationData validationData(CMSSignedData cmsSignedData) throws Exception {
+        var signerInformation = cmsSignedData.getSignerInfos().getSigners().iterator().next();
+        var certificateHolder = signerCertificate(cmsSignedData.getCertificates(), signerInformation.getSID()).orElseThrow();
+        var signingCertificate = new CertificateToken(new JcaX509CertificateConverter().getCertificate(certificateHolder));
+
+        var timestampTokens = new ArrayList<byte[]>();
+        if (signerInformation.getUnsignedAttributes() != null) {
+            var attributes = signerInformation.getUnsignedAttributes().getAll(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken);
+            for (var i = 0; i < attributes.size(); i++) {
+                timestampTokens.add(Attribute.getInstance(attributes.get(i)).getAttrValues().getObjectAt(0).toASN1Primitive().getEncoded());
+            }
+        }
+        return validationData(signingCertificate, timestampTokens.toArray(byte[][]::new));
+    }
+
+    /**
+     * Identifies the certificates whose validation data is collected by {@link #validationData(CMSSignedData)}: the
+     * digest of the signing certificate and the issuer and serial number of the TSA certificates. Signatures with the
+     * same key can share their validation data.
+     */
+    public static String validationDataKey(CMSSignedData cmsSignedData) throws Exception {
+        var signer = cmsSignedData.getSignerInfos().getSigners().iterator().next();
+        var signingCertificate = signerCertificate(cmsSignedData.getCertificates(), signer.getSID()).orElseThrow();
+        var key = new StringBuilder(Base64.getEncoder().encodeToString(
+                DSSUtils.digest(DigestAlgorithm.SHA256, signingCertificate.getEncoded())));
+        if (signer.getUnsignedAttributes() != null) {
+            var attributes = signer.getUnsignedAttributes().getAll(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken);
+            for (var i = 0; i < attributes.size(); i++) {
+                var encoded = Attribute.getInstance(attributes.get(i)).getAttrValues().getObjectAt(0).toASN1Primitive().getEncoded();
+                var tsaId = new TimeStampToken(new CMSSignedData(encoded)).getSID();
+                key.append('|').append(tsaId.getIssuer()).append(':').append(tsaId.getSerialNumber());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * The certificate of a signer or timestamp, matched without the raw {@link org.bouncycastle.util.Selector} type of
+     * {@link SignerId}.
+     */
+    static Optional<X509CertificateHolder> signerCertificate(Store<X509CertificateHolder> certificates, SignerId signerId) {
+        return certificates.getMatches(null).stream().filter(signerId::match).findFirst();
+    }
+
+    /**
+     * Adds already collected validation data to signed documents, see
+     * {@link ValidationDataPdfObjFactory#incorporateValidationData(DSSDocument)}.
+     */
+    public static ValidationDataPdfObjFactory validationDataPdfObjFactory(ValidationData validationData) {
+        return pdfObjFactory(new ValidationDataPdfObjFactory(validationData));
+    }
+
+    private static <T extends IPdfObjFactory> T pdfObjFactory(T pdfObjFactory) {
+        if (LARGE_DOCUMENTS) {
+            pdfObjFactory.setResourcesHandlerBuilder(new TempFileResourcesHandlerBuilder());
+            pdfObjFactory.setPdfMemoryUsageSetting(PdfMemoryUsageSetting.fileOnly());
+        }
+        return pdfObjFactory;
+    }
+
+    /**
+     * Neither fetches missing certificates nor revocation data.
+     */
+    public static CertificateVerifier offlineCertificateVerifier() {
+        var verifier = new CommonCertificateVerifier();
+        verifier.setAIASource(null);
+        return verifier;
+    }
+
+    /**
+     * Fetches revocation data through the shared file cache, also for chains without trust anchor, but no missing
+     * certificates.
+     */
+    public static CertificateVerifier cachingCertificateVerifier() {
         var verifier = new CommonCertificateVerifier();
+        verifier.setCheckRevocationForUntrustedChains(true);
+        verifier.setOcspSource(CACHING_OCSP_SOURCE);
+        verifier.setCrlSource(CACHING_CRL_SOURCE);
         verifier.setAIASource(null);
         return verifier;
     }
 
+    /**
+     * The signing certificate followed by its CA certificates, as far as they can be fetched via AIA.
+     */
+    public static List<CertificateToken> certificateChain(CertificateToken signingCertificate) {
+        var aiaSource = new DefaultAIASource(new CommonsDataLoader());
+        var chain = new ArrayList<CertificateToken>();
+        var certificate = signingCertificate;
+        while (certificate != null && !chain.contains(certificate)) {
+            chain.add(certificate);
+            if (certificate.isSelfSigned()) {
+                break;
+            }
+            var subject = certificate;
+            certificate = aiaSource.getCertificatesByAIA(subject).stream().filter(subject::isSignedBy).findFirst().orElse(null);
+        }
+        return chain;
+    }
+
     private static CertificateVerifier certificateVerifierForLtv() {
         var verifier = new CommonCertificateVerifier();
         verifier.setCheckRevocationForUntrustedChains(true);
@@ -76,11 +359,63 @@ public class DSSFactory {
         return verifier;
     }
 
+    private static class ContentSizeCheckingPAdESService extends PAdESService {
+
+        private static final long serialVersionUID = 1L;
+
+        ContentSizeCheckingPAdESService(CertificateVerifier certificateVerifier) {
+            super(certificateVerifier);
+        }
+
+        @Override
+        protected byte[] generateCMSSignedData(DSSDocument toSignDocument, PAdESSignatureParameters parameters, SignatureValue signatureValue) {
+            var cmsSignedData = super.generateCMSSignedData(toSignDocument, parameters, signatureValue);
+            if (parameters.getContentSize() > 0 && cmsSignedData.length > parameters.getContentSize()) {
+                throw new ContentSizeEstimator.ContentSizeExceededException(cmsSignedData.length, parameters.getContentSize());
+            }
+            return cmsSignedData;
+        }
+    }
+
+    private static class PdfRevisionAnalyzer extends PDFDocumentAnalyzer {
+
+        private final ByteRange byteRange;
+
+        PdfRevisionAnalyzer(DSSDocument document, ByteRange byteRange) {
+            super(document);
+            this.byteRange = byteRange;
+        }
+
+        @Override
+        protected List<AdvancedSignature> buildSignatures() {
+            return super.buildSignatures().stream()
+                    .filter(s -> s instanceof PAdESSignature p && byteRange.equals(p.getPdfRevision().getByteRange()))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        protected List<TimestampToken> buildDetachedTimestamps() {
+            return super.buildDetachedTimestamps().stream()
+                    .filter(t -> t instanceof PdfTimestampToken p && byteRange.equals(p.getPdfRevision().getByteRange()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static class SignatureAppearanceCachePdfObjFactory extends PdfBoxDefaultObjectFactory {
+
+        @Override
+        public PDFSignatureService newPAdESSignatureService() {
+            return configure(new PdfBoxSignatureService(PDFServiceMode.SIGNATURE, SIGNATURE_APPEARANCE_CACHE));
+        }
+    }
+
     /**
      * This {@link TSPSource} provides an already existing timestamp, once.
      */
     public static class DataSignTspSource implements TSPSource {
 
+        private static final long serialVersionUID = 1L;
+
         private final transient TimestampBinary timestampBinary;
 
         public DataSignTspSource(byte[] timestampTokenBytes) throws Exception {
@@ -0,0 +1,80 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.FileDocument;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Validates detached CAdES signatures against the digest of the signed document instead of the document itself.
+ * The digest is either known from signing (e.g. the document hash sent to {@code /seal/document-hash/transactions})
+ * or calculated once by streaming the document (see {@link DSSFactory#digestDocument(Path, DigestAlgorithm)}),
+ * afterwards the document is not read again.
+ * <p>
+ * Digests are stored in a properties file with the signature file as key and
+ * {@code <digest algorithm>:<base64 digest>} as value.
+ */
+public class DetachedSignatureValidator {
+
+    /**
+     * @param failure the cause, if the signature could not be validated at all
+     */
+    public record Result(Path signatureFile, Indication indication, SubIndication subIndication, Exception failure) {
+    }
+
+    public static Result validate(Path signatureFile, DigestDocument digestDocument) {
+        return validate(signatureFile, digestDocument, TieredValidator.Tier.FULL);
+    }
+
+    public static Result validate(Path signatureFile, DigestDocument digestDocument, TieredValidator.Tier tier) {
+        var result = TieredValidator.validate(new FileDocument(signatureFile.toFile()), digestDocument, tier);
+        return new Result(signatureFile, result.indication(), result.subIndication(), result.failure());
+    }
+
+    public static List<Result> validateAll(Map<Path, DigestDocument> digestDocuments) {
+        return validateAll(digestDocuments, TieredValidator.Tier.FULL);
+    }
+
+    public static List<Result> validateAll(Map<Path, DigestDocument> digestDocuments, TieredValidator.Tier tier) {
+        var results = new ArrayList<Result>(digestDocuments.size());
+        digestDocuments.forEach((signatureFile, digestDocument) -> results.add(validate(signatureFile, digestDocument, tier)));
+        return results;
+    }
+
+    public static Map<Path, DigestDocument> loadDigests(Path digestsFile) throws Exception {
+        var props = new Properties();
+        try (var in = new FileInputStream(digestsFile.toFile())) {
+            props.load(in);
+        }
+        var digestDocuments = new LinkedHashMap<Path, DigestDocument>();
+        for (var signatureFile : props.stringPropertyNames()) {
+            var value = props.getProperty(signatureFile).split(":", 2);
+            digestDocuments.put(Path.of(signatureFile), new DigestDocument(DigestAlgorithm.valueOf(value[0]), value[1]));
+        }
+        return digestDocuments;
+    }
+
+    public static void storeDigest(Path digestsFile, Path signatureFile, DigestAlgorithm digestAlgorithm, byte[] digest) throws Exception {
+        var props = new Properties();
+        if (digestsFile.toFile().exists()) {
+            try (var in = new FileInputStream(digestsFile.toFile())) {
+                props.load(in);
+            }
+        }
+        props.setProperty(signatureFile.toString(), digestAlgorithm.name() + ":" + Base64.getEncoder().encodeToString(digest));
+        try (var out = new FileOutputStream(digestsFile.toFile())) {
+            props.store(out, "digests of the documents signed by the detached signatures");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.pades.PAdESTimestampParameters;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Protects large numbers of PDFs with PAdES document timestamps instead of seals, e.g. for the archival integrity of
+ * internal documents. The ByteRange digests are calculated locally by DSS in parallel, the timestamps of all threads
+ * are requested in batches (see {@link BatchingTspSource}), so neither a seal transaction nor one timestamp request
+ * per document is needed. Each thread waits for its timestamp, so the number of threads should be at least the batch
+ * size.
+ */
+public class DocumentTimestamper implements AutoCloseable {
+
+    private final BatchingTspSource tspSource;
+
+    private final DigestAlgorithm digestAlgorithm;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    public DocumentTimestamper(BatchingTspSource.TimestampClient timestampClient) {
+        this(new BatchingTspSource(timestampClient), DigestAlgorithm.SHA256, 100);
+    }
+
+    public DocumentTimestamper(BatchingTspSource tspSource, DigestAlgorithm digestAlgorithm, int threads) {
+        this.tspSource = tspSource;
+        this.digestAlgorithm = digestAlgorithm;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Writes the timestamped documents to the target directory with the name of the document. Documents that cannot
+     * be timestamped are reported and skipped.
+     *
+     * @return the number of timestamped documents
+     */
+    public long timestampAll(Stream<Path> documents, Path targetDirectory) throws Exception {
+        Files.createDirectories(targetDirectory);
+        var inFlight = new Semaphore(threads * 2);
+        var timestamped = new AtomicLong();
+
+        for (var iterator = documents.iterator(); iterator.hasNext(); ) {
+            var document = iterator.next();
+            inFlight.acquire();
+            CompletableFuture.runAsync(() -> {
+                try {
+                    var pAdESService = DSSFactory.pAdESService();
+                    pAdESService.setTspSource(tspSource);
+                    pAdESService.timestamp(new FileDocument(document.toFile()), new PAdESTimestampParameters(digestAlgorithm))
+                            .save(targetDirectory.resolve(document.getFileName()).toString());
+                    timestamped.incrementAndGet();
+                } catch (Exception e) {
+                    System.err.printf("unable to timestamp %s: %s%n", document, e.getMessage());
+                }
+            }, executor).whenComplete((ignored, e) -> inFlight.release());
+        }
+        // wait for the remaining documents
+        inFlight.acquire(threads * 2);
+        inFlight.release(threads * 2);
+        return timestamped.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
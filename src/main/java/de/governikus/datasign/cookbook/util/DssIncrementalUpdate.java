@@ -0,0 +1,385 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.x509.Token;
+import eu.europa.esig.dss.spi.DSSUtils;
+import eu.europa.esig.dss.spi.validation.ValidationData;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Appends a DSS dictionary as raw incremental update to a PDF revision that has just been saved from a still open
+ * {@link PDDocument}: the token streams, the DSS dictionary, the catalog with the new /DSS reference and a
+ * cross-reference section of the kind the saved revision uses. The saved revision is not parsed or serialized again,
+ * only the object numbers PDFBox assigned while saving and the trailer at the end of the revision are used.
+ * <p>
+ * Encrypted documents are not supported, their strings and streams would have to be encrypted.
+ */
+final class DssIncrementalUpdate {
+
+    private static final Pattern START_XREF = Pattern.compile("startxref\\s+(\\d+)");
+
+    private static final Pattern SIZE = Pattern.compile("/Size\\s+(\\d+)");
+
+    private static final COSName DSS = COSName.getPDFName("DSS");
+
+    private static final COSName EXTENSIONS = COSName.getPDFName("Extensions");
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final TreeMap<COSObjectKey, Long> offsets = new TreeMap<>();
+
+    private final long base;
+
+    private long nextNumber;
+
+    private DssIncrementalUpdate(long base, long nextNumber) {
+        this.base = base;
+        this.nextNumber = nextNumber;
+    }
+
+    /**
+     * Counts the bytes of the saved revision and keeps its end, where the trailer is. The delegate is not closed, so
+     * the update can be appended after PDFBox has closed the stream.
+     */
+    static class RevisionOutputStream extends FilterOutputStream {
+
+        private static final int TAIL_SIZE = 64 * 1024;
+
+        private final byte[] tail = new byte[TAIL_SIZE];
+
+        private long length;
+
+        RevisionOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            tail[(int) (length++ % TAIL_SIZE)] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (var i = Math.max(0, len - TAIL_SIZE); i < len; i++) {
+                tail[(int) ((length + i) % TAIL_SIZE)] = b[off + i];
+            }
+            length += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+
+        long length() {
+            return length;
+        }
+
+        byte[] tail() {
+            var size = (int) Math.min(length, TAIL_SIZE);
+            var result = new byte[size];
+            for (var i = 0; i < size; i++) {
+                result[i] = tail[(int) ((length - size + i) % TAIL_SIZE)];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param revision the saved revision of the document, still open
+     * @return false if there is nothing to append, all tokens are already in the DSS dictionary
+     */
+    static boolean append(PDDocument pdDocument, RevisionOutputStream revision, ValidationData validationData,
+                          OutputStream out) throws IOException {
+        var catalog = pdDocument.getDocumentCatalog().getCOSObject();
+        if (catalog.getKey() == null) {
+            throw new IOException("the catalog has no object number");
+        }
+        var trailerText = new String(revision.tail(), StandardCharsets.ISO_8859_1);
+        var startXref = lastNumber(START_XREF, trailerText, trailerText.length());
+        var update = new DssIncrementalUpdate(revision.length(),
+                lastNumber(SIZE, trailerText, trailerText.lastIndexOf("startxref")));
+        if (!trailerText.endsWith("\n")) {
+            update.buffer.write('\n');
+        }
+
+        // the DSS dictionary is written as new object, with the entries of the existing one
+        var dss = new COSDictionary();
+        var existingDss = catalog.getCOSDictionary(DSS);
+        if (existingDss != null) {
+            existingDss.entrySet().forEach(entry -> dss.setItem(entry.getKey(), entry.getValue()));
+        }
+        var added = update.addTokens(dss, "Certs", validationData.getCertificateTokens())
+                + update.addTokens(dss, "OCSPs", validationData.getOcspTokens())
+                + update.addTokens(dss, "CRLs", validationData.getCrlTokens());
+        if (added == 0) {
+            return false;
+        }
+        var dssKey = new COSObjectKey(update.nextNumber++, 0);
+        update.writeObject(dssKey, dss);
+
+        var catalogUpdate = new COSDictionary();
+        catalog.entrySet().forEach(entry -> catalogUpdate.setItem(entry.getKey(), entry.getValue()));
+        catalogUpdate.setItem(DSS, new COSObject(COSNull.NULL, dssKey));
+        // changed in memory only, e.g. the ESIC developer extension, so it is written inline
+        var extensions = catalog.getCOSDictionary(EXTENSIONS);
+        if (extensions != null) {
+            var extensionsUpdate = new COSDictionary();
+            extensions.entrySet().forEach(entry -> extensionsUpdate.setItem(entry.getKey(), entry.getValue()));
+            catalogUpdate.setItem(EXTENSIONS, extensionsUpdate);
+        }
+        update.writeObject(catalog.getKey(), catalogUpdate);
+
+        var trailer = new COSDictionary();
+        trailer.setItem(COSName.ROOT, new COSObject(COSNull.NULL, catalog.getKey()));
+        var previousTrailer = pdDocument.getDocument().getTrailer();
+        if (previousTrailer.getItem(COSName.INFO) != null) {
+            trailer.setItem(COSName.INFO, previousTrailer.getItem(COSName.INFO));
+        }
+        if (previousTrailer.getItem(COSName.ID) != null) {
+            trailer.setItem(COSName.ID, previousTrailer.getItem(COSName.ID));
+        }
+        trailer.setLong(COSName.PREV, startXref);
+        var xrefOffset = update.offset();
+        if (pdDocument.getDocument().isXRefStream()) {
+            update.writeXrefStream(trailer);
+        } else {
+            update.writeXrefTable(trailer);
+        }
+        update.buffer.write("startxref\n%d\n%%%%EOF\n".formatted(xrefOffset).getBytes(StandardCharsets.US_ASCII));
+        update.buffer.writeTo(out);
+        return true;
+    }
+
+    private long offset() {
+        return base + buffer.size();
+    }
+
+    /**
+     * Writes the tokens not yet in the DSS array as new streams and references them from the array.
+     *
+     * @return the number of tokens written
+     */
+    private int addTokens(COSDictionary dss, String name, Collection<? extends Token> tokens) throws IOException {
+        var existing = dss.getCOSArray(COSName.getPDFName(name));
+        var present = presentTokens(existing);
+        var array = new COSArray();
+        if (existing != null) {
+            for (var i = 0; i < existing.size(); i++) {
+                array.add(existing.get(i));
+            }
+        }
+        var added = 0;
+        for (var token : tokens) {
+            var encoded = token.getEncoded();
+            if (!present.add(tokenId(encoded))) {
+                continue;
+            }
+            var key = new COSObjectKey(nextNumber++, 0);
+            offsets.put(key, offset());
+            buffer.write("%d 0 obj\n<< /Length %d >>\nstream\n".formatted(key.getNumber(), encoded.length).getBytes(StandardCharsets.US_ASCII));
+            buffer.write(encoded);
+            buffer.write("\nendstream\nendobj\n".getBytes(StandardCharsets.US_ASCII));
+            array.add(new COSObject(COSNull.NULL, key));
+            added++;
+        }
+        if (array.size() > 0) {
+            dss.setItem(name, array);
+        }
+        return added;
+    }
+
+    /**
+     * @return the ids of the tokens already in a DSS array
+     */
+    static Set<String> presentTokens(COSArray array) throws IOException {
+        var present = new HashSet<String>();
+        if (array != null) {
+            for (var i = 0; i < array.size(); i++) {
+                if (array.getObject(i) instanceof COSStream existing) {
+                    try (var in = existing.createInputStream()) {
+                        present.add(tokenId(in.readAllBytes()));
+                    }
+                }
+            }
+        }
+        return present;
+    }
+
+    static String tokenId(byte[] encoded) {
+        return Base64.getEncoder().encodeToString(DSSUtils.digest(DigestAlgorithm.SHA256, encoded));
+    }
+
+    private static long lastNumber(Pattern pattern, String text, int end) throws IOException {
+        var matcher = pattern.matcher(text).region(0, Math.max(0, end));
+        long number = -1;
+        while (matcher.find()) {
+            number = Long.parseLong(matcher.group(1));
+        }
+        if (number < 0) {
+            throw new IOException("no trailer found at the end of the saved revision");
+        }
+        return number;
+    }
+
+    private void writeObject(COSObjectKey key, COSDictionary dictionary) throws IOException {
+        offsets.put(key, offset());
+        buffer.write("%d %d obj\n".formatted(key.getNumber(), key.getGeneration()).getBytes(StandardCharsets.US_ASCII));
+        writeDirect(dictionary, buffer);
+        buffer.write("\nendobj\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeXrefTable(COSDictionary trailer) throws IOException {
+        var xref = new StringBuilder("xref\n");
+        for (var section : sections()) {
+            xref.append(section.get(0).getNumber()).append(' ').append(section.size()).append('\n');
+            for (var key : section) {
+                xref.append("%010d %05d n\r\n".formatted(offsets.get(key), key.getGeneration()));
+            }
+        }
+        xref.append("trailer\n");
+        buffer.write(xref.toString().getBytes(StandardCharsets.US_ASCII));
+        trailer.setLong(COSName.SIZE, nextNumber);
+        writeDirect(trailer, buffer);
+        buffer.write('\n');
+    }
+
+    private void writeXrefStream(COSDictionary trailer) throws IOException {
+        var key = new COSObjectKey(nextNumber++, 0);
+        offsets.put(key, offset());
+        // type 1, 8 bytes offset, 2 bytes generation
+        var entries = new ByteArrayOutputStream();
+        var index = new COSArray();
+        for (var section : sections()) {
+            index.add(COSInteger.get(section.get(0).getNumber()));
+            index.add(COSInteger.get(section.size()));
+            for (var entry : section) {
+                entries.write(1);
+                var offset = offsets.get(entry);
+                for (var shift = 56; shift >= 0; shift -= 8) {
+                    entries.write((int) (offset >>> shift));
+                }
+                entries.write(entry.getGeneration() >>> 8);
+                entries.write(entry.getGeneration());
+            }
+        }
+        var dictionary = new COSDictionary();
+        dictionary.setItem(COSName.TYPE, COSName.XREF);
+        dictionary.setLong(COSName.SIZE, nextNumber);
+        dictionary.setItem(COSName.INDEX, index);
+        dictionary.setItem(COSName.W, new COSArray(List.of(COSInteger.get(1), COSInteger.get(8), COSInteger.get(2))));
+        trailer.entrySet().forEach(entry -> dictionary.setItem(entry.getKey(), entry.getValue()));
+        dictionary.setInt(COSName.LENGTH, entries.size());
+
+        buffer.write("%d 0 obj\n".formatted(key.getNumber()).getBytes(StandardCharsets.US_ASCII));
+        writeDirect(dictionary, buffer);
+        buffer.write("\nstream\n".getBytes(StandardCharsets.US_ASCII));
+        entries.writeTo(buffer);
+        buffer.write("\nendstream\nendobj\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return the object keys in runs of consecutive numbers
+     */
+    private List<List<COSObjectKey>> sections() {
+        var sections = new ArrayList<List<COSObjectKey>>();
+        List<COSObjectKey> section = null;
+        for (var key : offsets.keySet()) {
+            if (section == null || section.get(section.size() - 1).getNumber() + 1 != key.getNumber()) {
+                section = new ArrayList<>();
+                sections.add(section);
+            }
+            section.add(key);
+        }
+        return sections;
+    }
+
+    /**
+     * Writes a dictionary or array inline, indirect objects (with an object number) as references.
+     */
+    private static void writeDirect(COSBase value, OutputStream out) throws IOException {
+        if (value instanceof COSDictionary dictionary && !(value instanceof COSStream)) {
+            out.write("<<".getBytes(StandardCharsets.US_ASCII));
+            for (var entry : dictionary.entrySet()) {
+                out.write(' ');
+                entry.getKey().writePDF(out);
+                out.write(' ');
+                write(entry.getValue(), out);
+            }
+            out.write(" >>".getBytes(StandardCharsets.US_ASCII));
+        } else if (value instanceof COSArray array) {
+            out.write('[');
+            for (var i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    out.write(' ');
+                }
+                write(array.get(i), out);
+            }
+            out.write(']');
+        } else {
+            throw new IOException("unable to write " + value.getClass().getSimpleName() + " inline");
+        }
+    }
+
+    private static void write(COSBase value, OutputStream out) throws IOException {
+        if (value == null || value instanceof COSNull) {
+            out.write("null".getBytes(StandardCharsets.US_ASCII));
+        } else if (value instanceof COSObject object) {
+            var key = object.getKey() != null ? object.getKey() : object.getObject() == null ? null : object.getObject().getKey();
+            if (key == null) {
+                throw new IOException("indirect object without object number");
+            }
+            reference(key, out);
+        } else if (value.getKey() != null) {
+            reference(value.getKey(), out);
+        } else if (value instanceof COSStream) {
+            throw new IOException("stream without object number");
+        } else if (value instanceof COSDictionary || value instanceof COSArray) {
+            writeDirect(value, out);
+        } else if (value instanceof COSString string) {
+            out.write(('<' + string.toHexString() + '>').getBytes(StandardCharsets.US_ASCII));
+        } else if (value instanceof COSName name) {
+            name.writePDF(out);
+        } else if (value instanceof COSInteger integer) {
+            integer.writePDF(out);
+        } else if (value instanceof COSFloat number) {
+            number.writePDF(out);
+        } else if (value instanceof COSBoolean bool) {
+            bool.writePDF(out);
+        } else {
+            throw new IOException("unable to write " + value.getClass().getSimpleName());
+        }
+    }
+
+    private static void reference(COSObjectKey key, OutputStream out) throws IOException {
+        out.write("%d %d R".formatted(key.getNumber(), key.getGeneration()).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,139 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent cache of file hashes keyed on path, size, modification time and file key (e.g. device and inode).
+ * Re-running a bulk sealing over a directory only hashes and reports the files that changed or are new. The hash of a
+ * changed file is only remembered once it is confirmed, e.g. after the file is sealed.
+ * <p>
+ * A file is hashed again whenever its metadata is ambiguous: no file key is provided by the file system, or the
+ * modification time is too close to the time the hash was recorded, so a change within the same timestamp
+ * granularity could have been missed.
+ */
+public class FileHashCache {
+
+    /**
+     * Coarsest common file system timestamp granularity (FAT).
+     */
+    private static final long TIMESTAMP_GRANULARITY_MILLIS = 2_000;
+
+    public record ChangedFile(Path file, Map<HashAlgorithm, byte[]> hashes) {
+    }
+
+    private record Entry(long size, long lastModified, String fileKey, long recordedAt, Map<HashAlgorithm, byte[]> hashes) {
+    }
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<Path, Entry> unconfirmedEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Hashes the changed and new regular files below the given directory with the given hash algorithms. Deleted files
+     * are forgotten.
+     */
+    public List<ChangedFile> changedFiles(Path directory, Set<HashAlgorithm> hashAlgorithms, HashingService hashingService) throws IOException {
+        Set<Path> files;
+        try (var stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).map(f -> f.toAbsolutePath().normalize()).collect(Collectors.toSet());
+        }
+        // forget deleted files
+        var root = directory.toAbsolutePath().normalize();
+        entries.keySet().removeIf(file -> file.startsWith(root) && !files.contains(file));
+
+        var futures = new ArrayList<CompletableFuture<ChangedFile>>();
+        for (var file : files) {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            var cached = entries.get(file);
+            if (isUnchanged(cached, attributes, hashAlgorithms)) {
+                continue;
+            }
+            var recordedAt = System.currentTimeMillis();
+            futures.add(hashingService.hashAsync(file, hashAlgorithms).thenApply(hashes -> {
+                unconfirmedEntries.put(file, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        fileKey(attributes), recordedAt, hashes));
+                return new ChangedFile(file, hashes);
+            }));
+        }
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * Remembers the hashes of a changed file, files that are not confirmed are reported as changed again.
+     */
+    public void confirm(Path file) {
+        var entry = unconfirmedEntries.remove(file);
+        if (entry != null) {
+            entries.put(file, entry);
+        }
+    }
+
+    private static boolean isUnchanged(Entry cached, BasicFileAttributes attributes, Set<HashAlgorithm> hashAlgorithms) {
+        if (cached == null || cached.fileKey() == null || !cached.hashes().keySet().containsAll(hashAlgorithms)) {
+            return false;
+        }
+        var lastModified = attributes.lastModifiedTime().toMillis();
+        return cached.size() == attributes.size()
+                && cached.lastModified() == lastModified
+                && Objects.equals(cached.fileKey(), fileKey(attributes))
+                && lastModified + TIMESTAMP_GRANULARITY_MILLIS < cached.recordedAt();
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        return attributes.fileKey() == null ? null : attributes.fileKey().toString();
+    }
+
+    public void load(Path path) throws Exception {
+        if (!Files.exists(path)) {
+            return;
+        }
+        var props = new Properties();
+        try (var in = new FileInputStream(path.toFile())) {
+            props.load(in);
+        }
+        var decoder = Base64.getDecoder();
+        for (var file : props.stringPropertyNames()) {
+            var fields = props.getProperty(file).split("\\|", 5);
+            var hashes = new EnumMap<HashAlgorithm, byte[]>(HashAlgorithm.class);
+            for (var hash : fields[4].split(",")) {
+                var algorithmAndValue = hash.split("=", 2);
+                hashes.put(HashAlgorithm.valueOf(algorithmAndValue[0]), decoder.decode(algorithmAndValue[1]));
+            }
+            entries.put(Path.of(file), new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    fields[2].isEmpty() ? null : fields[2], Long.parseLong(fields[3]), hashes));
+        }
+    }
+
+    public void store(Path path) throws Exception {
+        var encoder = Base64.getEncoder();
+        var props = new Properties();
+        entries.forEach((file, entry) -> {
+            var hashes = entry.hashes().entrySet().stream()
+                    .map(e -> e.getKey() + "=" + encoder.encodeToString(e.getValue()))
+                    .collect(Collectors.joining(","));
+            props.setProperty(file.toString(), "%d|%d|%s|%d|%s".formatted(entry.size(), entry.lastModified(),
+                    entry.fileKey() == null ? "" : entry.fileKey(), entry.recordedAt(), hashes));
+        });
+        try (var out = new FileOutputStream(path.toFile())) {
+            props.store(out, "file hashes keyed on path, size, modification time and file key");
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.EncodableDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashes append-only files (growing logs, PDFs with incremental updates) incrementally. While hashing, the digest
+ * state is saved every {@value #CHECKPOINT_INTERVAL} bytes and at the end of the file together with a fingerprint
+ * of the bytes before the checkpoint. Re-hashing the grown file resumes from the last checkpoint whose fingerprint
+ * and the fingerprints of all checkpoints before still match, so only the appended bytes are read.
+ * <p>
+ * A fingerprint samples {@value #FINGERPRINT_SIZE} bytes every {@value #SAMPLE_INTERVAL} bytes since the previous
+ * aligned checkpoint and the last {@value #FINGERPRINT_SIZE} bytes, so the checkpoints together sample the whole
+ * prefix. This detects truncated, rewritten and replaced files and most modifications, but a modification between two
+ * samples resumes from a wrong digest state: the store is only for files that are truly append-only.
+ * <p>
+ * JCA {@link MessageDigest}s can be cloned but not persisted, so the BouncyCastle digests with their encoded state
+ * are used here, the checkpoints survive a restart with {@link #load(Path)} and {@link #store(Path)}.
+ */
+public class HashCheckpointStore {
+
+    private static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+    private static final int FINGERPRINT_SIZE = 4 * 1024;
+
+    private static final int SAMPLE_INTERVAL = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private record Checkpoint(long offset, byte[] fingerprint, byte[] state) {
+    }
+
+    private final Map<String, List<Checkpoint>> checkpoints = new ConcurrentHashMap<>();
+
+    public byte[] hash(Path file, HashAlgorithm hashAlgorithm) throws IOException {
+        var key = key(file, hashAlgorithm);
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+
+            // keep the checkpoints up to the last valid one
+            var validCheckpoints = new ArrayList<Checkpoint>();
+            Checkpoint resumeFrom = null;
+            for (var checkpoint : checkpoints.getOrDefault(key, List.of())) {
+                if (checkpoint.offset() > size || !Arrays.equals(checkpoint.fingerprint(), fingerprint(channel, checkpoint.offset()))) {
+                    break;
+                }
+                validCheckpoints.add(checkpoint);
+                resumeFrom = checkpoint;
+            }
+
+            var digest = resumeFrom == null ? digest(hashAlgorithm) : digest(hashAlgorithm, resumeFrom.state());
+            var position = resumeFrom == null ? 0L : resumeFrom.offset();
+            var nextCheckpoint = (position / CHECKPOINT_INTERVAL + 1) * CHECKPOINT_INTERVAL;
+
+            var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, nextCheckpoint - position));
+                var read = channel.read(buffer, position);
+                if (read == -1) {
+                    break;
+                }
+                digest.update(buffer.array(), 0, read);
+                position += read;
+                if (position == nextCheckpoint) {
+                    validCheckpoints.add(checkpoint(channel, position, digest));
+                    nextCheckpoint += CHECKPOINT_INTERVAL;
+                }
+            }
+            // keep the aligned checkpoints and the one at the end of the file only, so the list does not grow per run
+            validCheckpoints.removeIf(checkpoint -> checkpoint.offset() % CHECKPOINT_INTERVAL != 0);
+            if (position % CHECKPOINT_INTERVAL != 0) {
+                validCheckpoints.add(checkpoint(channel, position, digest));
+            }
+            checkpoints.put(key, validCheckpoints);
+
+            var hash = new byte[digest.getDigestSize()];
+            digest.doFinal(hash, 0);
+            return hash;
+        }
+    }
+
+    public void load(Path path) throws Exception {
+        if (!Files.exists(path)) {
+            return;
+        }
+        var props = new Properties();
+        try (var in = new FileInputStream(path.toFile())) {
+            props.load(in);
+        }
+        var decoder = Base64.getDecoder();
+        for (var key : props.stringPropertyNames()) {
+            var list = new ArrayList<Checkpoint>();
+            for (var checkpoint : props.getProperty(key).split(";")) {
+                var fields = checkpoint.split(":");
+                list.add(new Checkpoint(Long.parseLong(fields[0]), decoder.decode(fields[1]), decoder.decode(fields[2])));
+            }
+            checkpoints.put(key, list);
+        }
+    }
+
+    public void store(Path path) throws Exception {
+        var encoder = Base64.getEncoder();
+        var props = new Properties();
+        checkpoints.forEach((key, list) -> {
+            var value = new StringBuilder();
+            for (var checkpoint : list) {
+                if (!value.isEmpty()) {
+                    value.append(';');
+                }
+                value.append(checkpoint.offset()).append(':')
+                        .append(encoder.encodeToString(checkpoint.fingerprint())).append(':')
+                        .append(encoder.encodeToString(checkpoint.state()));
+            }
+            props.setProperty(key, value.toString());
+        });
+        try (var out = new FileOutputStream(path.toFile())) {
+            props.store(out, "hash checkpoints of append-only files");
+        }
+    }
+
+    private static String key(Path file, HashAlgorithm hashAlgorithm) {
+        return hashAlgorithm + "|" + file.toAbsolutePath().normalize();
+    }
+
+    private static Checkpoint checkpoint(FileChannel channel, long offset, Digest digest) throws IOException {
+        return new Checkpoint(offset, fingerprint(channel, offset), ((EncodableDigest) digest).getEncodedState());
+    }
+
+    private static byte[] fingerprint(FileChannel channel, long offset) throws IOException {
+        var messageDigest = HashingService.messageDigest(HashAlgorithm.SHA_256);
+        messageDigest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, offset));
+
+        var segmentStart = offset == 0 ? 0 : (offset - 1) / CHECKPOINT_INTERVAL * CHECKPOINT_INTERVAL;
+        var sample = ByteBuffer.allocate(FINGERPRINT_SIZE);
+        for (var position = segmentStart; position < offset; position += SAMPLE_INTERVAL) {
+            read(channel, sample, position, offset);
+            messageDigest.update(sample);
+        }
+        read(channel, sample, Math.max(segmentStart, offset - FINGERPRINT_SIZE), offset);
+        messageDigest.update(sample);
+        return messageDigest.digest();
+    }
+
+    private static void read(FileChannel channel, ByteBuffer sample, long position, long end) throws IOException {
+        sample.clear().limit((int) Math.min(FINGERPRINT_SIZE, end - position));
+        var read = 0;
+        while (sample.hasRemaining() && read != -1) {
+            read = channel.read(sample, position + sample.position());
+        }
+        sample.flip();
+    }
+
+    private static Digest digest(HashAlgorithm hashAlgorithm) {
+        return switch (hashAlgorithm) {
+            case SHA_256 -> new SHA256Digest();
+            case SHA_384 -> new SHA384Digest();
+            case SHA_512 -> new SHA512Digest();
+        };
+    }
+
+    private static Digest digest(HashAlgorithm hashAlgorithm, byte[] encodedState) {
+        return switch (hashAlgorithm) {
+            case SHA_256 -> new SHA256Digest(encodedState);
+            case SHA_384 -> new SHA384Digest(encodedState);
+            case SHA_512 -> new SHA512Digest(encodedState);
+        };
+    }
+}
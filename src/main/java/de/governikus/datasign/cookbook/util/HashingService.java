@@ -0,0 +1,123 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hashes files of any size (also beyond 2 GB) by streaming them through a reused direct {@link ByteBuffer} over a
+ * {@link FileChannel}, so the heap use does not depend on the file size. Many files are hashed concurrently on a
+ * bounded thread pool, each thread owns one buffer. Several hash algorithms of the same file share one read.
+ */
+public class HashingService implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final ExecutorService executor;
+
+    public HashingService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the number of files hashed concurrently, more threads than disks rarely help
+     */
+    public HashingService(int threads) {
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public static byte[] hash(Path file, HashAlgorithm hashAlgorithm) throws IOException {
+        return hash(file, EnumSet.of(hashAlgorithm)).get(hashAlgorithm);
+    }
+
+    /**
+     * Reads the file once and feeds every chunk into one {@link MessageDigest} per requested hash algorithm.
+     */
+    public static Map<HashAlgorithm, byte[]> hash(Path file, Set<HashAlgorithm> hashAlgorithms) throws IOException {
+        var messageDigests = new EnumMap<HashAlgorithm, MessageDigest>(HashAlgorithm.class);
+        for (var hashAlgorithm : hashAlgorithms) {
+            messageDigests.put(hashAlgorithm, messageDigest(hashAlgorithm));
+        }
+
+        var buffer = BUFFERS.get();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                for (var messageDigest : messageDigests.values()) {
+                    messageDigest.update(buffer.duplicate());
+                }
+                buffer.clear();
+            }
+        }
+
+        var hashes = new EnumMap<HashAlgorithm, byte[]>(HashAlgorithm.class);
+        messageDigests.forEach((hashAlgorithm, messageDigest) -> hashes.put(hashAlgorithm, messageDigest.digest()));
+        return hashes;
+    }
+
+    public CompletableFuture<byte[]> hashAsync(Path file, HashAlgorithm hashAlgorithm) {
+        return hashAsync(file, EnumSet.of(hashAlgorithm)).thenApply(hashes -> hashes.get(hashAlgorithm));
+    }
+
+    public CompletableFuture<Map<HashAlgorithm, byte[]>> hashAsync(Path file, Set<HashAlgorithm> hashAlgorithms) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return hash(file, hashAlgorithms);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to hash " + file, e);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return the hashes in the iteration order of the given files
+     */
+    public Map<Path, byte[]> hashAll(Collection<Path> files, HashAlgorithm hashAlgorithm) {
+        var futures = new ArrayList<CompletableFuture<byte[]>>(files.size());
+        for (var file : files) {
+            futures.add(hashAsync(file, hashAlgorithm));
+        }
+        var hashes = new LinkedHashMap<Path, byte[]>();
+        var i = 0;
+        for (var file : files) {
+            hashes.put(file, futures.get(i++).join());
+        }
+        return hashes;
+    }
+
+    public static MessageDigest messageDigest(HashAlgorithm hashAlgorithm) {
+        try {
+            return MessageDigest.getInstance(switch (hashAlgorithm) {
+                case SHA_256 -> "SHA-256";
+                case SHA_384 -> "SHA-384";
+                case SHA_512 -> "SHA-512";
+            });
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
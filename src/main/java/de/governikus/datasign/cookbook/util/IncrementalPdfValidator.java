@@ -0,0 +1,467 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.MimeTypeEnum;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.model.CommonDocument;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.spi.DSSUtils;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Validates PDFs that collect signatures over time. Every signature (or document timestamp) completes a revision,
+ * the results are remembered keyed on the ByteRange and the SHA-256 of the revision (everything up to the end of
+ * the signature revision, including its Contents). When the document comes back with a new signature, only the
+ * revisions not seen before are validated, each one:
+ * <ul>
+ *     <li>with {@link TieredValidator} against the previous revision, i.e. the previous revision must be unchanged
+ *     and the new signature must cover it and everything appended but its Contents,</li>
+ *     <li>for {@link TieredValidator.Tier#FULL} additionally by DSS as PAdES document cut at the end of the revision,
+ *     restricted to the signature or document timestamp completing the revision, the signatures of the earlier
+ *     revisions are not validated again.</li>
+ * </ul>
+ * The document is streamed: the ByteRanges are found and all revision digests are calculated in two passes, the
+ * revisions are read from the document as bounded views instead of copies.
+ * <p>
+ * The remembered results reflect the time of their validation, e.g. revoked certificates are not noticed afterwards.
+ */
+public class IncrementalPdfValidator {
+
+    private static final byte[] BYTE_RANGE = "/ByteRange".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_BYTE_RANGE_LENGTH = 128;
+
+    public record Revision(int[] byteRange, String digest, TieredValidator.Result result, boolean cached) {
+
+        public long end() {
+            return (long) byteRange[2] + byteRange[3];
+        }
+    }
+
+    /**
+     * @param appendedAfterLastSignature true if incremental updates follow the last signature that do more than add
+     *                                   validation data (the DSS dictionary of the LT-Level), e.g. modifications
+     */
+    public record Result(List<Revision> revisions, boolean appendedAfterLastSignature) {
+
+        public boolean isValid() {
+            return !revisions.isEmpty() && revisions.stream().allMatch(r -> r.result().isValid());
+        }
+    }
+
+    /**
+     * @param length the length of the document
+     */
+    private record Digests(List<String> revisionDigests, boolean appendedAfterLastRevision, long length) {
+    }
+
+    private final TieredValidator.Tier tier;
+
+    private final ValidationConfiguration configuration;
+
+    private final Map<String, TieredValidator.Result> results = new ConcurrentHashMap<>();
+
+    public IncrementalPdfValidator(TieredValidator.Tier tier) {
+        this(tier, ValidationConfiguration.defaultConfiguration(ValidationConfiguration.ReportLevel.INDICATION));
+    }
+
+    public IncrementalPdfValidator(TieredValidator.Tier tier, ValidationConfiguration configuration) {
+        this.tier = tier;
+        this.configuration = configuration;
+    }
+
+    public Result validate(Path pdf) throws IOException {
+        return validate(new FileDocument(pdf.toFile()));
+    }
+
+    public Result validate(byte[] pdf) throws IOException {
+        return validate(new InMemoryDocument(pdf));
+    }
+
+    public Result validate(DSSDocument pdf) throws IOException {
+        var byteRanges = byteRanges(pdf);
+        var digests = revisionDigests(pdf, byteRanges);
+
+        var revisions = new ArrayList<Revision>();
+        var previousEnd = 0L;
+        for (var i = 0; i < byteRanges.size(); i++) {
+            var byteRange = byteRanges.get(i);
+            var digest = digests.revisionDigests().get(i);
+            var key = "%s|%s|%s|%s".formatted(tier, configuration.policyId(),
+                    Arrays.stream(byteRange).mapToObj(String::valueOf).collect(Collectors.joining(" ")), digest);
+            var cached = results.get(key);
+            if (cached != null) {
+                revisions.add(new Revision(byteRange, digest, cached, true));
+            } else {
+                var result = validateRevision(pdf, digests.length(), byteRange, previousEnd);
+                // a failure, e.g. an unreadable revision, is not a result of the signature
+                if (result.failure() == null) {
+                    results.put(key, result);
+                }
+                revisions.add(new Revision(byteRange, digest, result, false));
+            }
+            previousEnd = revisions.get(i).end();
+        }
+        var appended = digests.appendedAfterLastRevision()
+                && (revisions.isEmpty() || !onlyValidationDataAppended(pdf, previousEnd));
+        return new Result(revisions, appended);
+    }
+
+    private TieredValidator.Result validateRevision(DSSDocument pdf, long length, int[] byteRange, long previousEnd) {
+        var end = (long) byteRange[2] + byteRange[3];
+        if (byteRange[0] != 0 || end > length) {
+            return new TieredValidator.Result(tier, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE);
+        }
+        var revision = new RevisionDocument(pdf, end);
+        var previousRevision = previousEnd == 0 ? null : new RevisionDocument(pdf, previousEnd);
+        var cheapTier = tier == TieredValidator.Tier.FULL ? TieredValidator.Tier.SIGNATURE_VALUE : tier;
+        var result = TieredValidator.validate(revision, previousRevision, cheapTier);
+        if (tier != TieredValidator.Tier.FULL || !result.isValid()) {
+            return result;
+        }
+        try {
+            // the signatures of the earlier revisions have their own results
+            return configuration.validatePdfRevision(revision, byteRange).pdfRevisionResult(byteRange)
+                    .map(r -> new TieredValidator.Result(TieredValidator.Tier.FULL, r.indication(), r.subIndication()))
+                    .orElse(new TieredValidator.Result(TieredValidator.Tier.FULL, Indication.NO_SIGNATURE_FOUND, null));
+        } catch (DSSException e) {
+            return new TieredValidator.Result(TieredValidator.Tier.FULL, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE, e);
+        }
+    }
+
+    /**
+     * Compares the document with its last signed revision: the objects written after the last signature must be
+     * cross-reference or object streams, the catalog with nothing changed but the DSS dictionary and the developer
+     * extensions, objects of the DSS dictionary of the signed revision or new objects of the current DSS dictionary.
+     * Only the changed objects are parsed.
+     */
+    private static boolean onlyValidationDataAppended(DSSDocument pdf, long lastRevisionEnd) {
+        try (var randomAccess = pdf instanceof FileDocument file
+                ? new RandomAccessReadBufferedFile(file.getFile())
+                : new RandomAccessReadBuffer(pdf.openStream());
+             var current = Loader.loadPDF(new RevisionView(randomAccess, randomAccess.length()));
+             var signed = Loader.loadPDF(new RevisionView(randomAccess, lastRevisionEnd))) {
+            var catalog = current.getDocumentCatalog().getCOSObject();
+            var signedCatalog = signed.getDocumentCatalog().getCOSObject();
+            var keys = new HashSet<>(catalog.keySet());
+            keys.addAll(signedCatalog.keySet());
+            keys.removeAll(List.of(COSName.getPDFName("DSS"), COSName.getPDFName("Extensions")));
+            for (var key : keys) {
+                if (!sameValue(catalog.getItem(key), signedCatalog.getItem(key))) {
+                    return false;
+                }
+            }
+
+            var changeable = indirectObjects(signedCatalog.getItem(COSName.getPDFName("DSS")));
+            changeable.add(current.getDocument().getTrailer().getItem(COSName.ROOT).getKey());
+            var added = indirectObjects(catalog.getItem(COSName.getPDFName("DSS")));
+            var signedXref = signed.getDocument().getXrefTable();
+            for (var entry : current.getDocument().getXrefTable().entrySet()) {
+                var key = entry.getKey();
+                if (entry.getValue().equals(signedXref.get(key))
+                        || (signedXref.containsKey(key) ? changeable : added).contains(key)) {
+                    continue;
+                }
+                var type = current.getDocument().getObjectFromPool(key).getObject() instanceof COSStream stream
+                        ? stream.getCOSName(COSName.TYPE) : null;
+                if (!COSName.XREF.equals(type) && !COSName.OBJ_STM.equals(type)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            // e.g. encrypted, the updates cannot be told apart
+            return false;
+        }
+    }
+
+    /**
+     * Indirect values are compared by their object key, changes of the objects are found by the cross-reference table.
+     */
+    private static boolean sameValue(COSBase value, COSBase signedValue) {
+        if (value instanceof COSObject object && signedValue instanceof COSObject signedObject) {
+            return object.getKey().equals(signedObject.getKey());
+        }
+        if (value instanceof COSDictionary dictionary && signedValue instanceof COSDictionary signedDictionary) {
+            return dictionary.keySet().equals(signedDictionary.keySet()) && dictionary.keySet().stream()
+                    .allMatch(key -> sameValue(dictionary.getItem(key), signedDictionary.getItem(key)));
+        }
+        if (value instanceof COSArray array && signedValue instanceof COSArray signedArray) {
+            if (array.size() != signedArray.size()) {
+                return false;
+            }
+            for (var i = 0; i < array.size(); i++) {
+                if (!sameValue(array.get(i), signedArray.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.equals(value, signedValue);
+    }
+
+    /**
+     * @return the keys of all indirect objects reachable from the value
+     */
+    private static Set<COSObjectKey> indirectObjects(COSBase value) {
+        var keys = new HashSet<COSObjectKey>();
+        var pending = new ArrayDeque<COSBase>();
+        if (value != null) {
+            pending.add(value);
+        }
+        while (!pending.isEmpty()) {
+            var next = pending.poll();
+            if (next instanceof COSObject object) {
+                if (keys.add(object.getKey()) && object.getObject() != null) {
+                    pending.add(object.getObject());
+                }
+            } else if (next instanceof COSDictionary dictionary) {
+                dictionary.keySet().forEach(key -> pending.add(dictionary.getItem(key)));
+            } else if (next instanceof COSArray array) {
+                array.forEach(pending::add);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the ByteRanges of all signatures ordered by the end of their revision
+     */
+    private static List<int[]> byteRanges(DSSDocument pdf) throws IOException {
+        var byteRanges = new TreeMap<Long, int[]>();
+        var buffer = new byte[BUFFER_SIZE];
+        var matched = 0;
+        ByteArrayOutputStream capture = null;
+        try (var in = pdf.openStream()) {
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                for (var i = 0; i < read; i++) {
+                    var b = buffer[i];
+                    if (capture != null) {
+                        capture.write(b);
+                        if (b == ']' || capture.size() >= MAX_BYTE_RANGE_LENGTH) {
+                            addByteRange(byteRanges, capture.toString(StandardCharsets.US_ASCII));
+                            capture = null;
+                        }
+                    }
+                    matched = b == BYTE_RANGE[matched] ? matched + 1 : (b == BYTE_RANGE[0] ? 1 : 0);
+                    if (matched == BYTE_RANGE.length) {
+                        capture = new ByteArrayOutputStream();
+                        matched = 0;
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(byteRanges.values());
+    }
+
+    private static void addByteRange(Map<Long, int[]> byteRanges, String value) {
+        var start = value.indexOf('[');
+        var end = value.indexOf(']');
+        if (start == -1 || end < start) {
+            return;
+        }
+        try {
+            var byteRange = Arrays.stream(value.substring(start + 1, end).trim().split("\\s+")).mapToInt(Integer::parseInt).toArray();
+            if (byteRange.length == 4) {
+                byteRanges.putIfAbsent((long) byteRange[2] + byteRange[3], byteRange);
+            }
+        } catch (NumberFormatException e) {
+            // a ByteRange placeholder of a signature in progress
+        }
+    }
+
+    /**
+     * @return the SHA-256 of each revision, calculated in one pass over the document, whether anything but
+     * whitespace follows the last revision and the length of the document
+     */
+    private static Digests revisionDigests(DSSDocument pdf, List<int[]> byteRanges) throws IOException {
+        var messageDigest = DSSUtils.getMessageDigest(DigestAlgorithm.SHA256);
+        var digests = new ArrayList<String>();
+        var buffer = new byte[BUFFER_SIZE];
+        var appended = false;
+        var position = 0L;
+        try (var in = pdf.openStream()) {
+            for (var byteRange : byteRanges) {
+                var end = (long) byteRange[2] + byteRange[3];
+                while (position < end) {
+                    var read = in.readNBytes(buffer, 0, (int) Math.min(buffer.length, end - position));
+                    if (read == 0) {
+                        break;
+                    }
+                    messageDigest.update(buffer, 0, read);
+                    position += read;
+                }
+                try {
+                    var revisionDigest = (MessageDigest) messageDigest.clone();
+                    digests.add(Base64.getEncoder().encodeToString(revisionDigest.digest()));
+                } catch (CloneNotSupportedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                for (var i = 0; i < read && !appended; i++) {
+                    appended = !Character.isWhitespace(buffer[i]);
+                }
+                position += read;
+            }
+        }
+        return new Digests(digests, appended, position);
+    }
+
+    /**
+     * The first bytes of a document up to the end of a revision for PDFBox, the document stays open when the view is
+     * closed.
+     */
+    private static class RevisionView extends RandomAccessReadView {
+
+        private final RandomAccessRead document;
+
+        RevisionView(RandomAccessRead document, long length) {
+            super(document, 0, length, false);
+            this.document = document;
+        }
+
+        /**
+         * PDFBox reads streams, e.g. object streams, through views.
+         */
+        @Override
+        public RandomAccessReadView createView(long startPosition, long streamLength) throws IOException {
+            return document.createView(startPosition, streamLength);
+        }
+    }
+
+    /**
+     * The first bytes of a document up to the end of a revision, read from the document on every
+     * {@link #openStream()}.
+     */
+    private static class RevisionDocument extends CommonDocument {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DSSDocument document;
+
+        private final long length;
+
+        RevisionDocument(DSSDocument document, long length) {
+            this.document = document;
+            this.length = length;
+            this.name = document.getName();
+            this.mimeType = MimeTypeEnum.PDF;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new FilterInputStream(document.openStream()) {
+
+                private long remaining = length;
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    var b = super.read();
+                    if (b != -1) {
+                        remaining--;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    var read = super.read(b, off, (int) Math.min(len, remaining));
+                    if (read > 0) {
+                        remaining -= read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    var skipped = super.skip(Math.min(n, remaining));
+                    remaining -= skipped;
+                    return skipped;
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return (int) Math.min(super.available(), remaining);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+    }
+
+    public void load(Path path) throws Exception {
+        if (!path.toFile().exists()) {
+            return;
+        }
+        var props = new Properties();
+        try (var in = new FileInputStream(path.toFile())) {
+            props.load(in);
+        }
+        for (var key : props.stringPropertyNames()) {
+            var fields = props.getProperty(key).split("\\|", 3);
+            results.put(key, new TieredValidator.Result(TieredValidator.Tier.valueOf(fields[0]),
+                    Indication.valueOf(fields[1]), fields[2].isEmpty() ? null : SubIndication.valueOf(fields[2])));
+        }
+    }
+
+    public void store(Path path) throws Exception {
+        var props = new Properties();
+        results.forEach((key, result) -> props.setProperty(key, "%s|%s|%s".formatted(result.tier(), result.indication(),
+                result.subIndication() == null ? "" : result.subIndication())));
+        try (var out = new FileOutputStream(path.toFile())) {
+            props.store(out, "validated PDF revisions keyed on tier, policy, ByteRange and revision digest");
+        }
+    }
+}
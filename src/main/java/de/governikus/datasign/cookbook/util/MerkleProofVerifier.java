@@ -0,0 +1,81 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.FileDocument;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Verifies documents sealed by a {@link MerkleTree} root: the document must match the digest of its proof, the path
+ * of the proof must lead to the root and the detached CAdES signature must be valid for the root as document hash.
+ * <p>
+ * A proof file is a properties file next to the signature of the root, the path is stored as {@code L:<base64>} or
+ * {@code R:<base64>} per step, from the leaf upwards.
+ */
+public class MerkleProofVerifier {
+
+    public static TieredValidator.Result verify(Path document, Path proofFile) throws Exception {
+        return verify(document, proofFile, TieredValidator.Tier.FULL);
+    }
+
+    public static TieredValidator.Result verify(Path document, Path proofFile, TieredValidator.Tier tier) throws Exception {
+        var props = new Properties();
+        try (var in = new FileInputStream(proofFile.toFile())) {
+            props.load(in);
+        }
+        var decoder = Base64.getDecoder();
+        var path = new ArrayList<MerkleTree.Step>();
+        for (var step : props.getProperty("path").split(" ")) {
+            if (!step.isEmpty()) {
+                path.add(new MerkleTree.Step(step.startsWith("L:"), decoder.decode(step.substring(2))));
+            }
+        }
+        var proof = new MerkleTree.Proof(HashAlgorithm.valueOf(props.getProperty("hashAlgorithm")),
+                decoder.decode(props.getProperty("documentDigest")), path, decoder.decode(props.getProperty("root")));
+
+        if (!MessageDigest.isEqual(HashingService.hash(document, proof.hashAlgorithm()), proof.documentDigest())
+                || !MessageDigest.isEqual(MerkleTree.root(proof), proof.root())) {
+            return new TieredValidator.Result(tier, Indication.TOTAL_FAILED, SubIndication.HASH_FAILURE);
+        }
+        var signatureFile = proofFile.resolveSibling(props.getProperty("signature"));
+        return TieredValidator.validate(new FileDocument(signatureFile.toFile()),
+                new DigestDocument(digestAlgorithm(proof.hashAlgorithm()), proof.root()), tier);
+    }
+
+    /**
+     * @param signatureFile the detached signature of the root, in the directory of the proof file
+     */
+    public static void store(Path proofFile, MerkleTree.Proof proof, Path signatureFile) throws Exception {
+        var encoder = Base64.getEncoder();
+        var props = new Properties();
+        props.setProperty("hashAlgorithm", proof.hashAlgorithm().name());
+        props.setProperty("documentDigest", encoder.encodeToString(proof.documentDigest()));
+        props.setProperty("path", proof.path().stream()
+                .map(step -> (step.left() ? "L:" : "R:") + encoder.encodeToString(step.hash()))
+                .collect(Collectors.joining(" ")));
+        props.setProperty("root", encoder.encodeToString(proof.root()));
+        props.setProperty("signature", signatureFile.getFileName().toString());
+        try (var out = new FileOutputStream(proofFile.toFile())) {
+            props.store(out, "inclusion proof of a document in a sealed Merkle tree");
+        }
+    }
+
+    private static DigestAlgorithm digestAlgorithm(HashAlgorithm hashAlgorithm) {
+        return switch (hashAlgorithm) {
+            case SHA_256 -> DigestAlgorithm.SHA256;
+            case SHA_384 -> DigestAlgorithm.SHA384;
+            case SHA_512 -> DigestAlgorithm.SHA512;
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merkle tree over document digests, so that sealing the root covers any number of documents. Each document is
+ * proven by the hashes on the path from its leaf to the root, i.e. about log2(N) hashes.
+ * <p>
+ * As in RFC 9162, leaves are hashed as {@code H(0x00 || digest)} and inner nodes as {@code H(0x01 || left || right)},
+ * so a leaf cannot be passed off as an inner node. A node without sibling is promoted to the next level unchanged.
+ */
+public class MerkleTree {
+
+    /**
+     * @param left true if the sibling is the left node
+     */
+    public record Step(boolean left, byte[] hash) {
+    }
+
+    public record Proof(HashAlgorithm hashAlgorithm, byte[] documentDigest, List<Step> path, byte[] root) {
+    }
+
+    private final HashAlgorithm hashAlgorithm;
+
+    private final List<byte[]> documentDigests;
+
+    private final List<List<byte[]>> levels = new ArrayList<>();
+
+    public MerkleTree(List<byte[]> documentDigests, HashAlgorithm hashAlgorithm) {
+        if (documentDigests.isEmpty()) {
+            throw new IllegalArgumentException("at least one document digest is required");
+        }
+        this.hashAlgorithm = hashAlgorithm;
+        this.documentDigests = List.copyOf(documentDigests);
+
+        var level = new ArrayList<byte[]>(documentDigests.size());
+        for (var documentDigest : documentDigests) {
+            level.add(leaf(hashAlgorithm, documentDigest));
+        }
+        levels.add(level);
+        while (level.size() > 1) {
+            var parents = new ArrayList<byte[]>((level.size() + 1) / 2);
+            for (var i = 0; i < level.size(); i += 2) {
+                parents.add(i + 1 < level.size() ? node(hashAlgorithm, level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            levels.add(parents);
+            level = parents;
+        }
+    }
+
+    public byte[] root() {
+        return levels.get(levels.size() - 1).get(0);
+    }
+
+    /**
+     * @param index the index of the document digest
+     */
+    public Proof proof(int index) {
+        var path = new ArrayList<Step>();
+        var position = index;
+        for (var level : levels.subList(0, levels.size() - 1)) {
+            var sibling = position % 2 == 0 ? position + 1 : position - 1;
+            if (sibling < level.size()) {
+                path.add(new Step(sibling < position, level.get(sibling)));
+            }
+            position /= 2;
+        }
+        return new Proof(hashAlgorithm, documentDigests.get(index), path, root());
+    }
+
+    /**
+     * @return the root calculated from the document digest and the path of the proof
+     */
+    public static byte[] root(Proof proof) {
+        var hash = leaf(proof.hashAlgorithm(), proof.documentDigest());
+        for (var step : proof.path()) {
+            hash = step.left() ? node(proof.hashAlgorithm(), step.hash(), hash) : node(proof.hashAlgorithm(), hash, step.hash());
+        }
+        return hash;
+    }
+
+    private static byte[] leaf(HashAlgorithm hashAlgorithm, byte[] documentDigest) {
+        var messageDigest = HashingService.messageDigest(hashAlgorithm);
+        messageDigest.update((byte) 0x00);
+        return messageDigest.digest(documentDigest);
+    }
+
+    private static byte[] node(HashAlgorithm hashAlgorithm, byte[] left, byte[] right) {
+        var messageDigest = HashingService.messageDigest(hashAlgorithm);
+        messageDigest.update((byte) 0x01);
+        messageDigest.update(left);
+        return messageDigest.digest(right);
+    }
+}
@@ -0,0 +1,147 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.spi.validation.ValidationData;
+import org.bouncycastle.cms.CMSSignedData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Extends batches of PAdES-BASELINE-T documents to PAdES-BASELINE-LT. Documents sealed with the same certificate
+ * and timestamped by the same TSA need the same certificate chains and revocation data, so instead of
+ * {@link eu.europa.esig.dss.pades.signature.PAdESExtensionService#incorporateValidationData} per document, the
+ * validation data is collected once per distinct signing certificate and TSA certificates and then written into
+ * all documents of the group in parallel (see {@link ValidationDataPdfObjFactory}).
+ */
+public class PAdESBatchExtender {
+
+    public record Extended(Path signedDocument, Path extendedDocument) {
+    }
+
+    /**
+     * @param failed                    the documents that could not be extended, a failed validation data collection
+     *                                  fails all documents with a signature of that seal or TSA
+     * @param validationDataCollections the number of distinct signing certificates and TSA certificates
+     */
+    public record Result(List<Extended> extended, Map<Path, Exception> failed, int validationDataCollections) {
+    }
+
+    private record Signature(String chainKey, CMSSignedData cmsSignedData) {
+    }
+
+    private final int threads;
+
+    public PAdESBatchExtender() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PAdESBatchExtender(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * The validation data of all signatures and document timestamps of a document is written, the extended documents
+     * go to the target directory with the name of the signed document.
+     */
+    public Result extendAll(Collection<Path> signedDocuments, Path targetDirectory) throws Exception {
+        Files.createDirectories(targetDirectory);
+        var failed = new ConcurrentHashMap<Path, Exception>();
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            // the signatures of each document, grouped by signing certificate and TSA certificates
+            var futures = new LinkedHashMap<Path, CompletableFuture<List<Signature>>>();
+            signedDocuments.forEach(document -> futures.put(document, CompletableFuture.supplyAsync(() -> signatures(document), executor)));
+            var signatures = new LinkedHashMap<Path, List<Signature>>();
+            futures.forEach((document, future) -> {
+                try {
+                    signatures.put(document, future.join());
+                } catch (CompletionException e) {
+                    failed.put(document, e.getCause() instanceof Exception cause ? cause
+                            : new IllegalStateException("unable to read the signatures of " + document, e.getCause()));
+                }
+            });
+            var groups = new HashMap<String, CMSSignedData>();
+            signatures.values().forEach(list -> list.forEach(signature -> groups.putIfAbsent(signature.chainKey(), signature.cmsSignedData())));
+
+            // one revocation collection per group, a failure only affects the documents of the group
+            var validationData = new ConcurrentHashMap<String, ValidationData>();
+            var groupFailures = new ConcurrentHashMap<String, Exception>();
+            groups.entrySet().stream()
+                    .map(group -> CompletableFuture.runAsync(() -> {
+                        try {
+                            validationData.put(group.getKey(), DSSFactory.validationData(group.getValue()));
+                        } catch (Exception e) {
+                            groupFailures.put(group.getKey(), e);
+                        }
+                    }, executor))
+                    .toList().forEach(CompletableFuture::join);
+
+            // write the validation data into all documents
+            var extended = signatures.entrySet().stream()
+                    .map(entry -> CompletableFuture.supplyAsync(() -> {
+                        var document = entry.getKey();
+                        var documentValidationData = new ValidationData();
+                        for (var signature : entry.getValue()) {
+                            var groupFailure = groupFailures.get(signature.chainKey());
+                            if (groupFailure != null) {
+                                failed.put(document, groupFailure);
+                                return null;
+                            }
+                            documentValidationData.addValidationData(validationData.get(signature.chainKey()));
+                        }
+                        try {
+                            var target = targetDirectory.resolve(document.getFileName());
+                            DSSFactory.validationDataPdfObjFactory(documentValidationData)
+                                    .incorporateValidationData(new FileDocument(document.toFile()))
+                                    .save(target.toString());
+                            return new Extended(document, target);
+                        } catch (Exception e) {
+                            failed.put(document, e);
+                            return null;
+                        }
+                    }, executor))
+                    .toList().stream().map(CompletableFuture::join).filter(Objects::nonNull).toList();
+            return new Result(extended, Map.copyOf(failed), groups.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The Contents are found by streaming the document (see {@link TieredValidator#signatureContents}), the document
+     * is parsed only once, when the validation data is written.
+     */
+    private static List<Signature> signatures(Path document) {
+        try {
+            var signatureContents = TieredValidator.signatureContents(new FileDocument(document.toFile()));
+            if (signatureContents.isEmpty()) {
+                throw new IllegalArgumentException(document + " is not signed");
+            }
+            var signatures = new ArrayList<Signature>();
+            for (var contents : signatureContents) {
+                var cmsSignedData = new CMSSignedData(contents);
+                signatures.add(new Signature(DSSFactory.validationDataKey(cmsSignedData), cmsSignedData));
+            }
+            return signatures;
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to read the signatures of " + document, e);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("unable to parse the signatures of " + document, e);
+        }
+    }
+}
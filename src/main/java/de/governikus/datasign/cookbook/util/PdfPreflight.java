@@ -0,0 +1,942 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.request.VisualParameter;
+import org.apache.pdfbox.pdmodel.encryption.StandardSecurityHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the page count, the page sizes, the existing signatures and the encryption status of a PDF without loading
+ * it with PDFBox: only the trailer, the cross-reference tables or streams, the page tree and the form fields are
+ * parsed, cross-reference table entries are looked up in place. Documents that DSS or the server would reject are
+ * recognized before they are uploaded.
+ * <p>
+ * Damaged files are not repaired, an {@link IOException} is thrown instead and the document should be routed to a
+ * full load. The page tree and the fields of encrypted documents are not read, only the permissions and whether a
+ * user password is required to open them.
+ */
+public class PdfPreflight {
+
+    private static final int TAIL_SIZE = 2048;
+
+    private static final int MAX_DEPTH = 64;
+
+    private static final Pattern XREF_ENTRY = Pattern.compile("\\d{10} \\d{5} [nf]");
+
+    public record Page(float width, float height, int rotation) {
+    }
+
+    /**
+     * Permission bits 4 (modify contents) and 6 (modify annotations and form fields) of the encryption dictionary,
+     * both are required by DSS to add a signature field.
+     */
+    private static final int MODIFY_PERMISSIONS = 0b101000;
+
+    /**
+     * @param userPasswordRequired    true if the encrypted document can not be opened without a password
+     * @param permissions             the permissions (/P) of an encrypted document, -1 if not encrypted
+     * @param signatures              the number of signed signature fields
+     * @param certificationPermission the DocMDP permission (1 - 3) of a certification signature, 0 if not certified
+     * @param pages                   the pages, empty for encrypted documents
+     */
+    public record Result(String version, boolean encrypted, boolean userPasswordRequired, int permissions,
+                         int signatures, int certificationPermission, List<Page> pages) {
+
+        public int pageCount() {
+            return pages.size();
+        }
+
+        /**
+         * Encrypted documents can be signed if they open without password (owner password only) and their permissions
+         * allow modifications. Documents certified without permission for further changes can not be signed.
+         */
+        public boolean isSignable() {
+            var modifiable = !encrypted || (!userPasswordRequired && (permissions & MODIFY_PERMISSIONS) == MODIFY_PERMISSIONS);
+            return modifiable && certificationPermission != 1;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the page does not exist or the signature field exceeds the page
+         */
+        public void checkVisualParameter(VisualParameter visualParameter) {
+            if (visualParameter == null) {
+                return;
+            }
+            var pageNumber = visualParameter.pageNumber();
+            // the page tree of encrypted documents is not read
+            if (pageNumber != null && !encrypted && (pageNumber < 1 || pageNumber > pageCount())) {
+                throw new IllegalArgumentException("page %d does not exist, the document has %d pages"
+                        .formatted(pageNumber, pageCount()));
+            }
+            var coordinates = visualParameter.relativeCoordinates();
+            if (coordinates != null) {
+                var width = visualParameter.relativeWidth() == null ? 0 : visualParameter.relativeWidth();
+                var height = visualParameter.relativeHeight() == null ? 0 : visualParameter.relativeHeight();
+                if (!isRelative(coordinates.x()) || !isRelative(coordinates.y())
+                        || !isRelative(coordinates.x() + width) || !isRelative(coordinates.y() + height)) {
+                    throw new IllegalArgumentException("the signature field %s exceeds the page".formatted(visualParameter));
+                }
+            }
+        }
+
+        private static boolean isRelative(Float value) {
+            return value == null || (value >= 0 && value <= 1);
+        }
+    }
+
+    public static Result scan(Path pdf) throws IOException {
+        try (var channel = FileChannel.open(pdf, StandardOpenOption.READ)) {
+            return new Scanner(channel).scan();
+        } catch (RuntimeException e) {
+            throw new IOException("malformed PDF " + pdf, e);
+        }
+    }
+
+    private record Name(String name) {
+    }
+
+    private record Ref(int number, int generation) {
+    }
+
+    private record Keyword(String keyword) {
+    }
+
+    private record Stream(Map<String, Object> dictionary, long dataOffset) {
+    }
+
+    /**
+     * @param type 0 free, 1 uncompressed (offset), 2 compressed (object stream number, index)
+     */
+    private record XrefEntry(int type, long field2, int field3) {
+    }
+
+    private interface XrefSection {
+
+        /**
+         * @return the entry or null if the object is not part of the section
+         */
+        XrefEntry lookup(int number) throws IOException;
+    }
+
+    private record ObjectStream(byte[] data, int first, int[] numbers, int[] offsets) {
+    }
+
+    private static class Scanner {
+
+        private final FileSource file;
+
+        private final List<XrefSection> sections = new ArrayList<>();
+
+        private final Map<Integer, Object> objects = new HashMap<>();
+
+        private final Map<Integer, ObjectStream> objectStreams = new HashMap<>();
+
+        Scanner(FileChannel channel) throws IOException {
+            this.file = new FileSource(channel);
+        }
+
+        Result scan() throws IOException {
+            var version = version();
+            var trailer = readXref(startXref());
+
+            if (trailer.get("Encrypt") != null) {
+                var encryption = dictionary(resolve(trailer.get("Encrypt")));
+                if (encryption == null) {
+                    throw new IOException("encryption dictionary not found");
+                }
+                return new Result(version, true, userPasswordRequired(encryption, trailer),
+                        number(resolve(encryption.get("P"))).intValue(), 0, 0, List.of());
+            }
+
+            var catalog = dictionary(resolve(trailer.get("Root")));
+            if (catalog == null) {
+                throw new IOException("document catalog not found");
+            }
+            if (catalog.get("Version") instanceof Name catalogVersion && catalogVersion.name().compareTo(version) > 0) {
+                version = catalogVersion.name();
+            }
+            return new Result(version, false, false, -1, signatures(catalog), certificationPermission(catalog), pages(catalog));
+        }
+
+        /**
+         * Checks the empty user password with the standard security handler, documents of other security handlers
+         * require credentials.
+         */
+        private boolean userPasswordRequired(Map<String, Object> encryption, Map<String, Object> trailer) throws IOException {
+            if (!new Name("Standard").equals(encryption.get("Filter"))) {
+                return true;
+            }
+            var version = encryption.get("V") == null ? 0 : number(resolve(encryption.get("V"))).intValue();
+            var keyLength = encryption.get("Length") == null ? 40 : number(resolve(encryption.get("Length"))).intValue();
+            if (version == 1) {
+                keyLength = 40;
+            } else if (version == 4) {
+                // the key length of the standard crypt filter, AESV2 keys always have 128 bits
+                var cryptFilters = dictionary(resolve(encryption.get("CF")));
+                var standardFilter = cryptFilters == null ? null : dictionary(resolve(cryptFilters.get("StdCF")));
+                keyLength = 128;
+                if (standardFilter != null && new Name("V2").equals(standardFilter.get("CFM")) && standardFilter.get("Length") != null) {
+                    var length = number(resolve(standardFilter.get("Length"))).intValue();
+                    // given in bytes by most writers, in bits by some
+                    keyLength = length <= 16 ? length * 8 : length;
+                }
+            }
+            var ids = array(resolve(trailer.get("ID")));
+            var id = ids == null || ids.isEmpty() || !(resolve(ids.get(0)) instanceof byte[] first) ? new byte[0] : first;
+            return !new StandardSecurityHandler().isUserPassword(new byte[0],
+                    (byte[]) resolve(encryption.get("U")), (byte[]) resolve(encryption.get("O")),
+                    number(resolve(encryption.get("P"))).intValue(), id, number(resolve(encryption.get("R"))).intValue(),
+                    keyLength / 8, !Boolean.FALSE.equals(resolve(encryption.get("EncryptMetadata"))));
+        }
+
+        private String version() throws IOException {
+            var head = new String(file.read(0, (int) Math.min(1024, file.size())), StandardCharsets.ISO_8859_1);
+            var index = head.indexOf("%PDF-");
+            if (index == -1) {
+                throw new IOException("no PDF header found");
+            }
+            var lexer = new Lexer(file, index + 5);
+            return lexer.nextToken();
+        }
+
+        private long startXref() throws IOException {
+            var tailOffset = Math.max(0, file.size() - TAIL_SIZE);
+            var tail = new String(file.read(tailOffset, (int) (file.size() - tailOffset)), StandardCharsets.ISO_8859_1);
+            var index = tail.lastIndexOf("startxref");
+            if (index == -1) {
+                throw new IOException("startxref not found");
+            }
+            return number(new Lexer(file, tailOffset + index + 9).nextObject()).longValue();
+        }
+
+        /**
+         * Reads the cross-reference sections from the newest to the oldest one.
+         *
+         * @return the newest trailer
+         */
+        private Map<String, Object> readXref(long offset) throws IOException {
+            Map<String, Object> newestTrailer = null;
+            var visited = new HashSet<Long>();
+            var next = (Long) offset;
+            while (next != null) {
+                if (!visited.add(next) || next < 0 || next >= file.size()) {
+                    throw new IOException("invalid cross-reference offset " + next);
+                }
+                var lexer = new Lexer(file, next);
+                Map<String, Object> trailer;
+                if (lexer.peekKeyword("xref")) {
+                    lexer.nextToken();
+                    trailer = readXrefTable(lexer);
+                    // hybrid files reference an additional cross-reference stream
+                    if (trailer.get("XRefStm") != null) {
+                        readXrefStream(number(trailer.get("XRefStm")).longValue());
+                    }
+                } else {
+                    trailer = readXrefStream(next);
+                }
+                if (newestTrailer == null) {
+                    newestTrailer = trailer;
+                }
+                next = trailer.get("Prev") == null ? null : number(trailer.get("Prev")).longValue();
+            }
+            return newestTrailer;
+        }
+
+        private Map<String, Object> readXrefTable(Lexer lexer) throws IOException {
+            var subsections = new ArrayList<long[]>();
+            while (true) {
+                if (lexer.peekKeyword("trailer")) {
+                    lexer.nextToken();
+                    break;
+                }
+                var start = number(lexer.nextObject()).longValue();
+                var count = number(lexer.nextObject()).longValue();
+                lexer.skipWhitespace();
+                // entries have exactly 20 bytes and are looked up in place
+                subsections.add(new long[]{start, count, lexer.position()});
+                lexer.seek(lexer.position() + count * 20);
+            }
+            var trailer = dictionary(lexer.nextObject());
+            if (trailer == null) {
+                throw new IOException("trailer not found");
+            }
+            sections.add(number -> {
+                for (var subsection : subsections) {
+                    if (number >= subsection[0] && number < subsection[0] + subsection[1]) {
+                        var entry = new String(file.read(subsection[2] + (number - subsection[0]) * 20, 18), StandardCharsets.US_ASCII);
+                        if (!XREF_ENTRY.matcher(entry).matches()) {
+                            throw new IOException("malformed cross-reference entry for object " + number);
+                        }
+                        return new XrefEntry(entry.charAt(17) == 'n' ? 1 : 0, Long.parseLong(entry.substring(0, 10)),
+                                Integer.parseInt(entry.substring(11, 16)));
+                    }
+                }
+                return null;
+            });
+            return trailer;
+        }
+
+        private Map<String, Object> readXrefStream(long offset) throws IOException {
+            var stream = (Stream) new Lexer(file, offset).nextIndirectObject(null);
+            var dictionary = stream.dictionary();
+            var widths = array(dictionary.get("W")).stream().mapToInt(w -> number(w).intValue()).toArray();
+            var entrySize = widths[0] + widths[1] + widths[2];
+            var index = dictionary.get("Index") == null
+                    ? new long[]{0, number(dictionary.get("Size")).longValue()}
+                    : array(dictionary.get("Index")).stream().mapToLong(i -> number(i).longValue()).toArray();
+            var data = decode(stream);
+
+            sections.add(number -> {
+                var position = 0L;
+                for (var i = 0; i + 1 < index.length; i += 2) {
+                    if (number >= index[i] && number < index[i] + index[i + 1]) {
+                        var entryOffset = (int) ((position + number - index[i]) * entrySize);
+                        if (entryOffset + entrySize > data.length) {
+                            throw new IOException("cross-reference stream too short for object " + number);
+                        }
+                        // the type defaults to 1 if its field is omitted
+                        var type = widths[0] == 0 ? 1 : (int) field(data, entryOffset, widths[0]);
+                        return new XrefEntry(type, field(data, entryOffset + widths[0], widths[1]),
+                                (int) field(data, entryOffset + widths[0] + widths[1], widths[2]));
+                    }
+                    position += index[i + 1];
+                }
+                return null;
+            });
+            return dictionary;
+        }
+
+        private static long field(byte[] data, int offset, int width) {
+            var value = 0L;
+            for (var i = 0; i < width; i++) {
+                value = (value << 8) | (data[offset + i] & 0xff);
+            }
+            return value;
+        }
+
+        private Object resolve(Object object) throws IOException {
+            var depth = 0;
+            while (object instanceof Ref ref) {
+                if (++depth > MAX_DEPTH) {
+                    throw new IOException("reference chain too long");
+                }
+                object = object(ref.number());
+            }
+            return object;
+        }
+
+        private Object object(int number) throws IOException {
+            if (objects.containsKey(number)) {
+                return objects.get(number);
+            }
+            XrefEntry entry = null;
+            for (var section : sections) {
+                entry = section.lookup(number);
+                if (entry != null) {
+                    break;
+                }
+            }
+            Object object = null;
+            if (entry != null && entry.type() == 1) {
+                object = new Lexer(file, entry.field2()).nextIndirectObject(number);
+            } else if (entry != null && entry.type() == 2) {
+                var objectStream = objectStream((int) entry.field2());
+                var index = entry.field3();
+                if (index >= objectStream.numbers().length || objectStream.numbers()[index] != number) {
+                    throw new IOException("object %d not found in its object stream".formatted(number));
+                }
+                object = new Lexer(new ArraySource(objectStream.data()), objectStream.first() + objectStream.offsets()[index]).nextObject();
+            }
+            objects.put(number, object);
+            return object;
+        }
+
+        private ObjectStream objectStream(int number) throws IOException {
+            var objectStream = objectStreams.get(number);
+            if (objectStream == null) {
+                if (!(object(number) instanceof Stream stream)) {
+                    throw new IOException("object stream %d not found".formatted(number));
+                }
+                var data = decode(stream);
+                var count = number(stream.dictionary().get("N")).intValue();
+                var numbers = new int[count];
+                var offsets = new int[count];
+                var lexer = new Lexer(new ArraySource(data), 0);
+                for (var i = 0; i < count; i++) {
+                    numbers[i] = number(lexer.nextObject()).intValue();
+                    offsets[i] = number(lexer.nextObject()).intValue();
+                }
+                objectStream = new ObjectStream(data, number(stream.dictionary().get("First")).intValue(), numbers, offsets);
+                objectStreams.put(number, objectStream);
+            }
+            return objectStream;
+        }
+
+        private byte[] decode(Stream stream) throws IOException {
+            var dictionary = stream.dictionary();
+            var length = number(resolve(dictionary.get("Length"))).intValue();
+            var data = file.read(stream.dataOffset(), length);
+
+            var filter = resolve(dictionary.get("Filter"));
+            if (filter instanceof List<?> filters && filters.size() == 1) {
+                filter = filters.get(0);
+            }
+            if (filter == null) {
+                return data;
+            }
+            if (!(filter instanceof Name name) || !name.name().equals("FlateDecode")) {
+                throw new IOException("unsupported filter " + filter);
+            }
+            try (var in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+                data = in.readAllBytes();
+            }
+
+            var decodeParms = resolve(dictionary.get("DecodeParms"));
+            if (decodeParms instanceof List<?> parms && parms.size() == 1) {
+                decodeParms = resolve(parms.get(0));
+            }
+            var parameters = dictionary(decodeParms);
+            var predictor = parameters == null || parameters.get("Predictor") == null ? 1 : number(parameters.get("Predictor")).intValue();
+            if (predictor == 1) {
+                return data;
+            }
+            if (predictor < 10) {
+                throw new IOException("unsupported predictor " + predictor);
+            }
+            var columns = parameters.get("Columns") == null ? 1 : number(parameters.get("Columns")).intValue();
+            return pngPredictor(data, columns);
+        }
+
+        /**
+         * Reverses the PNG predictors, cross-reference streams use one byte per column and component.
+         */
+        private static byte[] pngPredictor(byte[] data, int columns) throws IOException {
+            var out = new ByteArrayOutputStream(data.length);
+            var previous = new byte[columns];
+            var row = new byte[columns];
+            for (var offset = 0; offset < data.length; offset += columns + 1) {
+                var type = data[offset];
+                var rowLength = Math.min(columns, data.length - offset - 1);
+                for (var i = 0; i < rowLength; i++) {
+                    var raw = data[offset + 1 + i] & 0xff;
+                    var left = i == 0 ? 0 : row[i - 1] & 0xff;
+                    var up = previous[i] & 0xff;
+                    var upLeft = i == 0 ? 0 : previous[i - 1] & 0xff;
+                    row[i] = (byte) switch (type) {
+                        case 0 -> raw;
+                        case 1 -> raw + left;
+                        case 2 -> raw + up;
+                        case 3 -> raw + (left + up) / 2;
+                        case 4 -> raw + paeth(left, up, upLeft);
+                        default -> throw new IOException("unsupported PNG predictor type " + type);
+                    };
+                }
+                out.write(row, 0, rowLength);
+                System.arraycopy(row, 0, previous, 0, columns);
+            }
+            return out.toByteArray();
+        }
+
+        private static int paeth(int left, int up, int upLeft) {
+            var p = left + up - upLeft;
+            var pLeft = Math.abs(p - left);
+            var pUp = Math.abs(p - up);
+            var pUpLeft = Math.abs(p - upLeft);
+            if (pLeft <= pUp && pLeft <= pUpLeft) {
+                return left;
+            }
+            return pUp <= pUpLeft ? up : upLeft;
+        }
+
+        private List<Page> pages(Map<String, Object> catalog) throws IOException {
+            record Node(Object node, Object mediaBox, Object cropBox, Object rotate) {
+            }
+
+            var pages = new ArrayList<Page>();
+            var visited = new HashSet<Object>();
+            var stack = new ArrayDeque<Node>();
+            stack.push(new Node(catalog.get("Pages"), null, null, null));
+            while (!stack.isEmpty()) {
+                var node = stack.pop();
+                if (node.node() instanceof Ref ref && !visited.add(ref)) {
+                    throw new IOException("cycle in the page tree");
+                }
+                var dictionary = dictionary(resolve(node.node()));
+                if (dictionary == null) {
+                    throw new IOException("invalid page tree node " + node.node());
+                }
+                // page attributes are inherited from the page tree nodes
+                var mediaBox = dictionary.getOrDefault("MediaBox", node.mediaBox());
+                var cropBox = dictionary.getOrDefault("CropBox", node.cropBox());
+                var rotate = dictionary.getOrDefault("Rotate", node.rotate());
+
+                var kids = array(resolve(dictionary.get("Kids")));
+                if (kids == null || new Name("Page").equals(dictionary.get("Type"))) {
+                    var box = box(cropBox != null ? cropBox : mediaBox);
+                    var rotation = rotate == null ? 0 : number(resolve(rotate)).intValue();
+                    pages.add(new Page(box[0], box[1], Math.floorMod(rotation, 360)));
+                } else {
+                    // keep the document order
+                    for (var i = kids.size() - 1; i >= 0; i--) {
+                        stack.push(new Node(kids.get(i), mediaBox, cropBox, rotate));
+                    }
+                }
+            }
+            return pages;
+        }
+
+        private float[] box(Object box) throws IOException {
+            var coordinates = array(resolve(box));
+            if (coordinates == null || coordinates.size() != 4) {
+                // US Letter, like PDFBox for pages without a media box
+                return new float[]{612, 792};
+            }
+            var values = new float[4];
+            for (var i = 0; i < 4; i++) {
+                values[i] = number(resolve(coordinates.get(i))).floatValue();
+            }
+            return new float[]{Math.abs(values[2] - values[0]), Math.abs(values[3] - values[1])};
+        }
+
+        private int signatures(Map<String, Object> catalog) throws IOException {
+            var acroForm = dictionary(resolve(catalog.get("AcroForm")));
+            if (acroForm == null) {
+                return 0;
+            }
+            record Field(Object field, Object fieldType, int depth) {
+            }
+
+            var signatures = 0;
+            var visited = new HashSet<Object>();
+            var stack = new ArrayDeque<Field>();
+            var fields = array(resolve(acroForm.get("Fields")));
+            if (fields != null) {
+                fields.forEach(field -> stack.push(new Field(field, null, 0)));
+            }
+            while (!stack.isEmpty()) {
+                var field = stack.pop();
+                if ((field.field() instanceof Ref ref && !visited.add(ref)) || field.depth() > MAX_DEPTH) {
+                    continue;
+                }
+                var dictionary = dictionary(resolve(field.field()));
+                if (dictionary == null) {
+                    continue;
+                }
+                // the field type is inherited from the parent fields
+                var fieldType = dictionary.getOrDefault("FT", field.fieldType());
+                if (new Name("Sig").equals(fieldType) && resolve(dictionary.get("V")) != null) {
+                    signatures++;
+                }
+                var kids = array(resolve(dictionary.get("Kids")));
+                if (kids != null) {
+                    kids.forEach(kid -> stack.push(new Field(kid, fieldType, field.depth() + 1)));
+                }
+            }
+            return signatures;
+        }
+
+        private int certificationPermission(Map<String, Object> catalog) throws IOException {
+            var perms = dictionary(resolve(catalog.get("Perms")));
+            var docMdp = perms == null ? null : dictionary(resolve(perms.get("DocMDP")));
+            if (docMdp == null) {
+                return 0;
+            }
+            var references = array(resolve(docMdp.get("Reference")));
+            if (references != null) {
+                for (var reference : references) {
+                    var dictionary = dictionary(resolve(reference));
+                    if (dictionary != null && new Name("DocMDP").equals(dictionary.get("TransformMethod"))) {
+                        var transformParams = dictionary(resolve(dictionary.get("TransformParams")));
+                        if (transformParams != null && transformParams.get("P") != null) {
+                            return number(resolve(transformParams.get("P"))).intValue();
+                        }
+                    }
+                }
+            }
+            // default permission of a certification signature
+            return 2;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> dictionary(Object object) {
+        if (object instanceof Stream stream) {
+            return stream.dictionary();
+        }
+        return object instanceof Map<?, ?> map ? (Map<String, Object>) map : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Object object) {
+        return object instanceof List<?> list ? (List<Object>) list : null;
+    }
+
+    private static Number number(Object object) {
+        if (object instanceof Number number) {
+            return number;
+        }
+        throw new IllegalStateException("number expected, found " + object);
+    }
+
+    private interface Source {
+
+        /**
+         * @return the byte at the position or -1 at the end
+         */
+        int at(long position) throws IOException;
+    }
+
+    private static class ArraySource implements Source {
+
+        private final byte[] data;
+
+        ArraySource(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int at(long position) {
+            return position < data.length ? data[(int) position] & 0xff : -1;
+        }
+    }
+
+    /**
+     * Reads through a small window, only the parts of the file that are parsed are read.
+     */
+    private static class FileSource implements Source {
+
+        private static final int WINDOW_SIZE = 8192;
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+
+        private long windowStart = -1;
+
+        FileSource(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public int at(long position) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            if (windowStart == -1 || position < windowStart || position >= windowStart + window.limit()) {
+                window.clear();
+                channel.read(window, position);
+                window.flip();
+                windowStart = position;
+            }
+            return window.get((int) (position - windowStart)) & 0xff;
+        }
+
+        byte[] read(long position, int length) throws IOException {
+            if (position < 0 || position + length > size) {
+                throw new IOException("read beyond the end of the file");
+            }
+            var buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) == -1) {
+                    throw new IOException("unexpected end of file");
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    private static class Lexer {
+
+        private final Source source;
+
+        private long position;
+
+        Lexer(Source source, long position) {
+            this.source = source;
+            this.position = position;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void seek(long position) {
+            this.position = position;
+        }
+
+        void skipWhitespace() throws IOException {
+            while (true) {
+                var c = source.at(position);
+                if (c == '%') {
+                    while (c != -1 && c != '\r' && c != '\n') {
+                        c = source.at(++position);
+                    }
+                } else if (isWhitespace(c)) {
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        boolean peekKeyword(String keyword) throws IOException {
+            var start = position;
+            var matches = keyword.equals(nextToken());
+            position = start;
+            return matches;
+        }
+
+        /**
+         * @return the regular characters up to the next delimiter
+         */
+        String nextToken() throws IOException {
+            skipWhitespace();
+            var token = new StringBuilder();
+            var c = source.at(position);
+            while (c != -1 && !isWhitespace(c) && !isDelimiter(c)) {
+                token.append((char) c);
+                c = source.at(++position);
+            }
+            return token.toString();
+        }
+
+        /**
+         * @param expectedNumber the expected object number, null if not known
+         * @return the object at the position, streams as {@link Stream}
+         */
+        Object nextIndirectObject(Integer expectedNumber) throws IOException {
+            var number = nextObject();
+            var generation = nextObject();
+            var keyword = nextObject();
+            if (!(number instanceof Long n) || !(generation instanceof Long) || !new Keyword("obj").equals(keyword)
+                    || (expectedNumber != null && n.intValue() != expectedNumber)) {
+                throw new IOException("object %s not found at offset %d".formatted(expectedNumber, position));
+            }
+            var object = nextObject();
+            if (object instanceof Map<?, ?> && peekKeyword("stream")) {
+                nextToken();
+                // the stream keyword is followed by CRLF or LF
+                if (source.at(position) == '\r') {
+                    position++;
+                }
+                if (source.at(position) == '\n') {
+                    position++;
+                }
+                return new Stream(dictionary(object), position);
+            }
+            return object;
+        }
+
+        Object nextObject() throws IOException {
+            skipWhitespace();
+            var c = source.at(position);
+            if (c == -1) {
+                throw new IOException("unexpected end of data");
+            }
+            if (c == '/') {
+                position++;
+                return new Name(nextName());
+            }
+            if (c == '<' && source.at(position + 1) == '<') {
+                position += 2;
+                return nextDictionary();
+            }
+            if (c == '<') {
+                position++;
+                return nextHexString();
+            }
+            if (c == '[') {
+                position++;
+                var array = new ArrayList<>();
+                while (true) {
+                    skipWhitespace();
+                    if (source.at(position) == ']') {
+                        position++;
+                        return array;
+                    }
+                    array.add(nextObject());
+                }
+            }
+            if (c == '(') {
+                position++;
+                return nextLiteralString();
+            }
+            if (c == ']' || c == '>' || c == ')' || c == '{' || c == '}') {
+                throw new IOException("unexpected delimiter '%c' at offset %d".formatted((char) c, position));
+            }
+            var token = nextToken();
+            if (token.isEmpty()) {
+                throw new IOException("unexpected character at offset " + position);
+            }
+            if (isNumeric(token)) {
+                if (token.contains(".")) {
+                    return Double.parseDouble(token);
+                }
+                var value = Long.parseLong(token);
+                return value >= 0 ? reference(value) : value;
+            }
+            return switch (token) {
+                case "true" -> Boolean.TRUE;
+                case "false" -> Boolean.FALSE;
+                case "null" -> null;
+                default -> new Keyword(token);
+            };
+        }
+
+        /**
+         * Numbers followed by a generation and R are references.
+         */
+        private Object reference(long number) throws IOException {
+            var start = position;
+            var generation = nextToken();
+            if (!generation.isEmpty() && generation.chars().allMatch(Character::isDigit) && "R".equals(nextToken())) {
+                return new Ref((int) number, Integer.parseInt(generation));
+            }
+            position = start;
+            return number;
+        }
+
+        private Map<String, Object> nextDictionary() throws IOException {
+            var dictionary = new LinkedHashMap<String, Object>();
+            while (true) {
+                skipWhitespace();
+                var c = source.at(position);
+                if (c == '>' && source.at(position + 1) == '>') {
+                    position += 2;
+                    return dictionary;
+                }
+                if (c != '/') {
+                    throw new IOException("name expected at offset " + position);
+                }
+                position++;
+                var key = nextName();
+                dictionary.put(key, nextObject());
+            }
+        }
+
+        private String nextName() throws IOException {
+            var name = new ByteArrayOutputStream();
+            var c = source.at(position);
+            while (c != -1 && !isWhitespace(c) && !isDelimiter(c)) {
+                if (c == '#' && isHex(source.at(position + 1)) && isHex(source.at(position + 2))) {
+                    name.write(Character.digit(source.at(position + 1), 16) * 16 + Character.digit(source.at(position + 2), 16));
+                    position += 2;
+                } else {
+                    name.write(c);
+                }
+                c = source.at(++position);
+            }
+            return name.toString(StandardCharsets.UTF_8);
+        }
+
+        private byte[] nextHexString() throws IOException {
+            var hex = new StringBuilder();
+            var c = source.at(position++);
+            while (c != '>') {
+                if (c == -1) {
+                    throw new IOException("unterminated hex string");
+                }
+                if (isHex(c)) {
+                    hex.append((char) c);
+                }
+                c = source.at(position++);
+            }
+            if (hex.length() % 2 == 1) {
+                hex.append('0');
+            }
+            var bytes = new byte[hex.length() / 2];
+            for (var i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+            }
+            return bytes;
+        }
+
+        private byte[] nextLiteralString() throws IOException {
+            var string = new ByteArrayOutputStream();
+            var depth = 1;
+            while (true) {
+                var c = source.at(position++);
+                switch (c) {
+                    case -1 -> throw new IOException("unterminated string");
+                    case '(' -> depth++;
+                    case ')' -> depth--;
+                    case '\\' -> {
+                        c = source.at(position++);
+                        switch (c) {
+                            case 'n' -> c = '\n';
+                            case 'r' -> c = '\r';
+                            case 't' -> c = '\t';
+                            case 'b' -> c = '\b';
+                            case 'f' -> c = '\f';
+                            case '\r', '\n' -> {
+                                // line continuation
+                                if (c == '\r' && source.at(position) == '\n') {
+                                    position++;
+                                }
+                                continue;
+                            }
+                            default -> {
+                                if (c >= '0' && c <= '7') {
+                                    var octal = c - '0';
+                                    for (var i = 0; i < 2 && source.at(position) >= '0' && source.at(position) <= '7'; i++) {
+                                        octal = octal * 8 + source.at(position++) - '0';
+                                    }
+                                    c = octal & 0xff;
+                                }
+                            }
+                        }
+                        string.write(c);
+                        continue;
+                    }
+                    default -> {
+                    }
+                }
+                if (depth == 0) {
+                    return string.toByteArray();
+                }
+                string.write(c);
+            }
+        }
+
+        private static boolean isNumeric(String token) {
+            var c = token.charAt(0);
+            return (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+        }
+
+        private static boolean isHex(int c) {
+            return Character.digit(c, 16) != -1;
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+        }
+
+        private static boolean isDelimiter(int c) {
+            return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']' || c == '{' || c == '}'
+                    || c == '/' || c == '%';
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.governikus.datasign.cookbook.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Renews the signed outputs of a {@link SignatureExpiryIndex} whose indexed certificate expires within the risk
+ * window, e.g. run daily. Renewing means extending to the LTA-Level with {@link ArchiveTimestamper}, which first
+ * revalidates the certificates with fresh revocation data (DSS refuses revoked certificates) and then adds a new
+ * archive timestamp. Renewed outputs are indexed again with the TSA certificate of the new timestamp.
+ * <p>
+ * The index is the progress of the scheduler: entries are only removed after their output has been renewed, outputs
+ * that could not be renewed are due again in the next run.
+ * <p>
+ * Outputs whose certificates refer to a CRL or OCSP responder that is to be discontinued are renewed as well, while
+ * the revocation data can still be fetched.
+ */
+public class RevalidationScheduler {
+
+    public record Summary(int due, long renewed, long failed, int missing) {
+    }
+
+    private final SignatureExpiryIndex index;
+
+    private final ArchiveTimestamper archiveTimestamper;
+
+    private final Duration riskWindow;
+
+    /**
+     * @param archiveTimestamper without progress file
+     */
+    public RevalidationScheduler(SignatureExpiryIndex index, ArchiveTimestamper archiveTimestamper, Duration riskWindow) {
+        this.index = index;
+        this.archiveTimestamper = archiveTimestamper;
+        this.riskWindow = riskWindow;
+    }
+
+    public Summary runDue() throws Exception {
+        return runDue(List.of());
+    }
+
+    /**
+     * @param discontinuedResponders CRL and OCSP URLs, the outputs depending on them are due regardless of expiry
+     */
+    public Summary runDue(Collection<String> discontinuedResponders) throws Exception {
+        var due = new ArrayList<>(index.due(Instant.now().plus(riskWindow)));
+        if (!discontinuedResponders.isEmpty()) {
+            var dependingOn = index.dependingOn(discontinuedResponders);
+            dependingOn.removeAll(due);
+            dependingOn.forEach(entry -> System.out.printf("%s depends on a discontinued responder of %s%n",
+                    entry.output(), entry.subject()));
+            due.addAll(dependingOn);
+        }
+        var entries = new HashMap<Path, SignatureExpiryIndex.Entry>();
+        var missing = 0;
+        for (var entry : due) {
+            if (!Files.exists(entry.output())) {
+                System.err.printf("%s does not exist anymore, removed from the index%n", entry.output());
+                index.remove(entry);
+                missing++;
+                continue;
+            }
+            entries.put(entry.output(), entry);
+        }
+
+        var progress = archiveTimestamper.renewAll(entries.keySet().stream(), output -> {
+            var renewed = index.replace(entries.get(output));
+            if (!renewed.notAfter().isAfter(Instant.now().plus(riskWindow))) {
+                System.err.printf("%s is renewed, but the TSA certificate %s expires at %s%n", output,
+                        renewed.subject(), renewed.notAfter());
+            }
+        });
+        return new Summary(due.size(), progress.renewed(), progress.failed(), missing);
+    }
+}
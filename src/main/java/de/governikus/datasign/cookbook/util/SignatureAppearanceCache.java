@@ -0,0 +1,209 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.request.VisualParameter;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.ImageScaling;
+import eu.europa.esig.dss.enumerations.SignerTextPosition;
+import eu.europa.esig.dss.enumerations.VisualSignatureAlignmentHorizontal;
+import eu.europa.esig.dss.enumerations.VisualSignatureAlignmentVertical;
+import eu.europa.esig.dss.enumerations.VisualSignatureRotation;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.pades.DSSFileFont;
+import eu.europa.esig.dss.pades.DSSFont;
+import eu.europa.esig.dss.pades.SignatureFieldParameters;
+import eu.europa.esig.dss.pades.SignatureImageParameters;
+import eu.europa.esig.dss.pades.SignatureImageTextParameters;
+import eu.europa.esig.dss.pdf.pdfbox.visible.PdfBoxSignatureDrawer;
+import eu.europa.esig.dss.pdf.pdfbox.visible.PdfBoxSignatureDrawerFactory;
+import eu.europa.esig.dss.pdf.pdfbox.visible.defaultdrawer.DefaultImageDrawerUtils;
+import eu.europa.esig.dss.pdf.pdfbox.visible.defaultdrawer.DefaultPdfBoxVisibleSignatureDrawer;
+import eu.europa.esig.dss.pdf.visible.SignatureFieldDimensionAndPosition;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.visible.PDVisibleSigProperties;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.visible.PDVisibleSignDesigner;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws visible signatures like DSS' {@link DefaultPdfBoxVisibleSignatureDrawer}, but renders every appearance only
+ * once. The appearance image (decoded image and rendered text) is cached by image hash, text parameters and field
+ * size, the PDFBox visual signature template built from it (encoded image XObject and appearance streams)
+ * additionally by the field position and page size. Batches with identical visible signatures therefore neither
+ * decode images nor load fonts nor encode image streams again, per document only the template is merged.
+ * <p>
+ * {@link #imageParameters} maps the {@link VisualParameter} of the DATA Sign API for local signing. Its text is a
+ * template with per-document fields, documents with different field values share the decoded image and the font, only
+ * the text is rendered per document.
+ * <p>
+ * Rendering the same appearance from the cache also keeps the DTBS of {@code getDataToSign} and the later
+ * {@code signDocument} identical.
+ * <p>
+ * The text parameters are part of the cache key, they must not be modified after signing with them.
+ */
+public class SignatureAppearanceCache implements PdfBoxSignatureDrawerFactory {
+
+    private static final int MAX_ENTRIES = 100;
+
+    private record AppearanceKey(String imageDigest, SignatureImageTextParameters textParameters, int zoom,
+                                 Color backgroundColor, Integer dpi,
+                                 VisualSignatureAlignmentHorizontal alignmentHorizontal,
+                                 VisualSignatureAlignmentVertical alignmentVertical, ImageScaling imageScaling,
+                                 float width, float height, int rotation) {
+    }
+
+    private record TemplateKey(AppearanceKey appearanceKey, float x, float y, float pageWidth, float pageHeight,
+                               int pageRotation) {
+    }
+
+    private final Map<AppearanceKey, BufferedImage> appearances = lruMap();
+
+    private final Map<TemplateKey, byte[]> templates = lruMap();
+
+    private final Map<String, BufferedImage> images = lruMap();
+
+    private final DSSFont font = DSSFileFont.initializeDefault();
+
+    /**
+     * The relative coordinates and size are measured from the upper left corner of the displayed (rotated) page. The {@code {name}}
+     * placeholders in the text of {@link VisualParameter.ModifyVisualRepresentation} are replaced with the fields of
+     * the document. The DSS drawer places the image left of the text, the relative image width is not supported.
+     *
+     * @param page   the page of the visual parameter, see {@link PdfPreflight.Result#pages()}
+     * @param fields the per-document values of the text template, e.g. the document name
+     */
+    public SignatureImageParameters imageParameters(VisualParameter visualParameter, PdfPreflight.Page page,
+                                                    Map<String, String> fields) {
+        var rotated = page.rotation() % 180 != 0;
+        var pageWidth = rotated ? page.height() : page.width();
+        var pageHeight = rotated ? page.width() : page.height();
+
+        var fieldParameters = new SignatureFieldParameters();
+        fieldParameters.setPage(visualParameter.pageNumber() == null ? 1 : visualParameter.pageNumber());
+        fieldParameters.setRotation(VisualSignatureRotation.AUTOMATIC);
+        var coordinates = visualParameter.relativeCoordinates();
+        if (coordinates != null) {
+            fieldParameters.setOriginX(coordinates.x() == null ? 0 : coordinates.x() * pageWidth);
+            fieldParameters.setOriginY(coordinates.y() == null ? 0 : coordinates.y() * pageHeight);
+        }
+        if (visualParameter.relativeWidth() != null) {
+            fieldParameters.setWidth(visualParameter.relativeWidth() * pageWidth);
+        }
+        if (visualParameter.relativeHeight() != null) {
+            fieldParameters.setHeight(visualParameter.relativeHeight() * pageHeight);
+        }
+
+        var imageParameters = new SignatureImageParameters();
+        imageParameters.setFieldParameters(fieldParameters);
+        if (visualParameter.replaceVisualRepresentation() != null) {
+            imageParameters.setImage(new InMemoryDocument(visualParameter.replaceVisualRepresentation()));
+            return imageParameters;
+        }
+        var modify = visualParameter.modifyVisualRepresentation();
+        if (modify == null) {
+            throw new IllegalArgumentException("the visual parameter has no visual representation");
+        }
+        if (modify.image() != null) {
+            imageParameters.setImage(new InMemoryDocument(modify.image()));
+        }
+        if (modify.text() != null) {
+            var text = modify.text();
+            for (var field : fields.entrySet()) {
+                text = text.replace("{" + field.getKey() + "}", field.getValue());
+            }
+            var textParameters = new SignatureImageTextParameters();
+            textParameters.setText(text);
+            textParameters.setFont(font);
+            textParameters.setSignerTextPosition(SignerTextPosition.RIGHT);
+            imageParameters.setTextParameters(textParameters);
+        }
+        return imageParameters;
+    }
+
+    @Override
+    public PdfBoxSignatureDrawer getSignatureDrawer(SignatureImageParameters imageParameters) {
+        return new CachingSignatureDrawer();
+    }
+
+    private static <K, V> Map<K, V> lruMap() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        });
+    }
+
+    private class CachingSignatureDrawer extends DefaultPdfBoxVisibleSignatureDrawer {
+
+        @Override
+        public void draw() throws IOException {
+            var dimensionAndPosition = buildSignatureFieldBox();
+            var annotationBox = dimensionAndPosition.getAnnotationBox();
+            var page = getPage();
+            var pageBox = getPageAnnotationBox(page);
+
+            var appearanceKey = appearanceKey(dimensionAndPosition);
+            var templateKey = new TemplateKey(appearanceKey, annotationBox.getMinX(), annotationBox.getMaxY(),
+                    pageBox.getWidth(), pageBox.getHeight(), page.getRotation());
+
+            var template = templates.get(templateKey);
+            if (template == null) {
+                var appearance = appearances.get(appearanceKey);
+                if (appearance == null) {
+                    appearance = render(dimensionAndPosition, appearanceKey.imageDigest());
+                    appearances.put(appearanceKey, appearance);
+                }
+
+                // same placement as DefaultPdfBoxVisibleSignatureDrawer
+                var designer = new PDVisibleSignDesigner(document, appearance, parameters.getFieldParameters().getPage());
+                designer.xAxis(annotationBox.getMinX());
+                designer.yAxis(pageBox.getHeight() - annotationBox.getMaxY());
+                designer.width(annotationBox.getWidth());
+                designer.height(annotationBox.getHeight());
+
+                var properties = new PDVisibleSigProperties();
+                properties.visualSignEnabled(true);
+                properties.setPdVisibleSignature(designer);
+                properties.buildSignature();
+                try (var in = properties.getVisibleSignature()) {
+                    template = in.readAllBytes();
+                }
+                templates.put(templateKey, template);
+            }
+            signatureOptions.setVisualSignature(new ByteArrayInputStream(template));
+        }
+
+        private BufferedImage render(SignatureFieldDimensionAndPosition dimensionAndPosition, String imageDigest) {
+            BufferedImage image = null;
+            if (parameters.getImage() != null) {
+                image = images.computeIfAbsent(imageDigest, digest -> DefaultImageDrawerUtils.toBufferedImage(parameters.getImage()));
+            }
+            BufferedImage textImage = null;
+            if (parameters.getTextParameters() != null && !parameters.getTextParameters().isEmpty()) {
+                textImage = DefaultImageDrawerUtils.createTextImage(parameters, dimensionAndPosition, getDSSFontMetrics());
+            }
+            if (image == null && textImage == null) {
+                throw new IllegalArgumentException("Image or text shall be defined in order to build a visual signature!");
+            }
+            var merged = DefaultImageDrawerUtils.mergeImages(image, textImage, dimensionAndPosition, parameters);
+            return DefaultImageDrawerUtils.rotate(merged, dimensionAndPosition.getGlobalRotation());
+        }
+
+        private AppearanceKey appearanceKey(SignatureFieldDimensionAndPosition dimensionAndPosition) {
+            var imageDigest = parameters.getImage() == null ? null
+                    : Base64.getEncoder().encodeToString(parameters.getImage().getDigestValue(DigestAlgorithm.SHA256));
+            var annotationBox = dimensionAndPosition.getAnnotationBox();
+            return new AppearanceKey(imageDigest, parameters.getTextParameters(), parameters.getZoom(),
+                    parameters.getBackgroundColor(), parameters.getDpi(),
+                    parameters.getVisualSignatureAlignmentHorizontal(), parameters.getVisualSignatureAlignmentVertical(),
+                    parameters.getImageScaling(), annotationBox.getWidth(), annotationBox.getHeight(),
+                    dimensionAndPosition.getGlobalRotation());
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.CertificateExtensionsUtils;
+import eu.europa.esig.dss.spi.OID;
+import org.apache.pdfbox.Loader;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerId;
+import org.bouncycastle.tsp.TimeStampToken;
+import org.bouncycastle.util.Store;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Index of signed outputs by the expiry of the certificate their protection depends on, built when the outputs are
+ * written. For each output the earliest expiring of these certificates is indexed:
+ * <ul>
+ *     <li>the TSA certificate of the last archive timestamp or PDF document timestamp, if there is one,</li>
+ *     <li>otherwise the signing certificate and the TSA certificates of the signature timestamps.</li>
+ * </ul>
+ * The index is a directory with one append-only log per day of expiry ({@code yyyy-MM-dd.log}), so finding the
+ * outputs that expire within a risk window reads the logs up to the end of the window only, not the whole index.
+ * The day of each output is kept in {@value #SHARDS} logs in {@code outputs/} (by the hash of the output), so
+ * indexing an output again moves its entry: a removal is appended to the log of the previous day. Adding an output
+ * appends a line to its day and reads one shard, no file is rewritten. A log is compacted (replaced atomically) when
+ * it is read and mostly consists of superseded lines.
+ * <p>
+ * The CRL and OCSP URLs of the indexed certificates are kept, so the outputs depending on a responder that is to be
+ * discontinued can be renewed while its revocation data is still available ({@link #dependingOn(Collection)}).
+ */
+public class SignatureExpiryIndex {
+
+    public enum Kind {
+        SIGNING_CERTIFICATE, SIGNATURE_TIMESTAMP, ARCHIVE_TIMESTAMP
+    }
+
+    /**
+     * @param revocationReferences the CRL and OCSP URLs of the indexed certificate
+     */
+    public record Entry(Path output, Instant notAfter, Kind kind, String subject, List<String> revocationReferences) {
+    }
+
+    private static final int SHARDS = 256;
+
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * The value of a line removing the output, see {@link #readLog(Path, Predicate)}.
+     */
+    private static final String REMOVED = "-";
+
+    private final Path directory;
+
+    private final Path outputsDirectory;
+
+    public SignatureExpiryIndex(Path directory) throws Exception {
+        this.directory = Files.createDirectories(directory);
+        this.outputsDirectory = Files.createDirectories(directory.resolve("outputs"));
+    }
+
+    /**
+     * Indexes a signed PDF (by its last signature or document timestamp) or a CAdES signature.
+     */
+    public Entry add(Path output) throws Exception {
+        return add(output, cmsSignedData(output));
+    }
+
+    public synchronized Entry add(Path output, CMSSignedData cmsSignedData) throws Exception {
+        var entry = entry(output, cmsSignedData);
+        put(entry);
+        return entry;
+    }
+
+    /**
+     * Indexes the output of the given entry again, e.g. after it has been renewed. The entry is kept if the output
+     * cannot be indexed.
+     */
+    public synchronized Entry replace(Entry previous) throws Exception {
+        var entry = entry(previous.output(), cmsSignedData(previous.output()));
+        remove(previous);
+        put(entry);
+        return entry;
+    }
+
+    /**
+     * @return the entries expiring until the given instant, earliest first
+     */
+    public synchronized List<Entry> due(Instant until) throws Exception {
+        var lastBucket = bucket(until).getFileName().toString();
+        var entries = new ArrayList<Entry>();
+        for (var bucket : buckets()) {
+            if (bucket.getFileName().toString().compareTo(lastBucket) > 0) {
+                break;
+            }
+            entries.addAll(entries(bucket).stream().filter(entry -> !entry.notAfter().isAfter(until)).toList());
+        }
+        entries.sort((a, b) -> a.notAfter().compareTo(b.notAfter()));
+        return entries;
+    }
+
+    /**
+     * Reads the whole index, e.g. once before a CRL or OCSP responder is shut down.
+     *
+     * @return the entries whose certificate refers to one of the given CRL or OCSP URLs, earliest first
+     */
+    public synchronized List<Entry> dependingOn(Collection<String> revocationReferences) throws Exception {
+        var entries = new ArrayList<Entry>();
+        for (var bucket : buckets()) {
+            entries.addAll(entries(bucket).stream()
+                    .filter(entry -> entry.revocationReferences().stream().anyMatch(revocationReferences::contains))
+                    .toList());
+        }
+        return entries;
+    }
+
+    private void put(Entry entry) throws Exception {
+        var output = entry.output().toString();
+        var day = day(entry.notAfter());
+        var shard = shard(output);
+        var previousDay = readLog(shard, SignatureExpiryIndex::isDay).get(output);
+        if (previousDay != null && !previousDay.equals(day)) {
+            appendLine(bucket(previousDay), output, REMOVED);
+        }
+        appendLine(bucket(day), output, "%d|%s|%s|%s".formatted(entry.notAfter().toEpochMilli(),
+                entry.kind(), String.join(" ", entry.revocationReferences()), entry.subject()));
+        appendLine(shard, output, day);
+    }
+
+    public synchronized void remove(Entry entry) throws Exception {
+        var output = entry.output().toString();
+        var day = day(entry.notAfter());
+        var shard = shard(output);
+        if (!day.equals(readLog(shard, SignatureExpiryIndex::isDay).get(output))) {
+            return;
+        }
+        appendLine(bucket(day), output, REMOVED);
+        appendLine(shard, output, REMOVED);
+    }
+
+    private List<Path> buckets() throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(LOG_SUFFIX)).sorted().toList();
+        }
+    }
+
+    private static List<Entry> entries(Path bucket) throws Exception {
+        var entries = new ArrayList<Entry>();
+        readLog(bucket, value -> value.split("\\|", 4).length == 4).forEach((output, value) -> {
+            var fields = value.split("\\|", 4);
+            entries.add(new Entry(Path.of(output), Instant.ofEpochMilli(Long.parseLong(fields[0])),
+                    Kind.valueOf(fields[1]), fields[3],
+                    fields[2].isEmpty() ? List.of() : Arrays.asList(fields[2].split(" "))));
+        });
+        entries.sort((a, b) -> a.notAfter().compareTo(b.notAfter()));
+        return entries;
+    }
+
+    /**
+     * Replays a log of {@code output<TAB>value} lines, the last line of an output wins, {@value #REMOVED} removes
+     * it. A line cut off by a crash fails the check of its value and is skipped. The log is compacted if most of
+     * its lines are superseded.
+     */
+    private static Map<String, String> readLog(Path log, Predicate<String> validValue) throws Exception {
+        var values = new LinkedHashMap<String, String>();
+        if (!Files.exists(log)) {
+            return values;
+        }
+        var lines = 0;
+        try (var reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                lines++;
+                var output = line.substring(0, tab);
+                var value = line.substring(tab + 1);
+                if (REMOVED.equals(value)) {
+                    values.remove(output);
+                } else if (validValue.test(value)) {
+                    values.put(output, value);
+                }
+            }
+        }
+        if (lines > 2 * values.size() + 16) {
+            compact(log, values);
+        }
+        return values;
+    }
+
+    private static void compact(Path log, Map<String, String> values) throws Exception {
+        if (values.isEmpty()) {
+            Files.deleteIfExists(log);
+            return;
+        }
+        var temporaryFile = log.resolveSibling(log.getFileName() + ".tmp");
+        try (var writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+            for (var value : values.entrySet()) {
+                writer.write(value.getKey() + "\t" + value.getValue() + "\n");
+            }
+        }
+        Files.move(temporaryFile, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The line starts with a line break, so a line cut off by a crash is never continued by the next one.
+     */
+    private static void appendLine(Path log, String output, String value) throws Exception {
+        Files.writeString(log, "\n" + output + "\t" + value, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static CMSSignedData cmsSignedData(Path output) throws Exception {
+        if (output.getFileName().toString().endsWith(".pdf")) {
+            try (var pdDocument = Loader.loadPDF(output.toFile())) {
+                var signature = pdDocument.getLastSignatureDictionary();
+                if (signature == null) {
+                    throw new IllegalArgumentException(output + " is not signed");
+                }
+                return new CMSSignedData(signature.getContents());
+            }
+        }
+        return new CMSSignedData(Files.readAllBytes(output));
+    }
+
+    static Entry entry(Path output, CMSSignedData cmsSignedData) throws Exception {
+        var signer = cmsSignedData.getSignerInfos().getSigners().iterator().next();
+        var signerCertificate = signerCertificate(cmsSignedData.getCertificates(), signer.getSID());
+
+        // a PDF document timestamp protects everything before
+        if (PKCSObjectIdentifiers.id_ct_TSTInfo.getId().equals(cmsSignedData.getSignedContentTypeOID())) {
+            return entry(output, Kind.ARCHIVE_TIMESTAMP, signerCertificate);
+        }
+
+        var archiveTimestamps = timestampTokens(signer.getUnsignedAttributes(), OID.id_aa_ets_archiveTimestampV3);
+        archiveTimestamps.addAll(timestampTokens(signer.getUnsignedAttributes(), OID.id_aa_ets_archiveTimestampV2));
+        if (!archiveTimestamps.isEmpty()) {
+            var lastArchiveTimestamp = archiveTimestamps.stream()
+                    .max((a, b) -> a.getTimeStampInfo().getGenTime().compareTo(b.getTimeStampInfo().getGenTime()))
+                    .orElseThrow();
+            return entry(output, Kind.ARCHIVE_TIMESTAMP, tsaCertificate(lastArchiveTimestamp, cmsSignedData));
+        }
+
+        var earliest = entry(output, Kind.SIGNING_CERTIFICATE, signerCertificate);
+        for (var signatureTimestamp : timestampTokens(signer.getUnsignedAttributes(), PKCSObjectIdentifiers.id_aa_signatureTimeStampToken)) {
+            X509CertificateHolder tsaCertificate;
+            try {
+                tsaCertificate = tsaCertificate(signatureTimestamp, cmsSignedData);
+            } catch (IllegalArgumentException e) {
+                System.err.printf("the TSA certificate of %s is not included, it is not indexed%n", output);
+                continue;
+            }
+            var candidate = entry(output, Kind.SIGNATURE_TIMESTAMP, tsaCertificate);
+            if (candidate.notAfter().isBefore(earliest.notAfter())) {
+                earliest = candidate;
+            }
+        }
+        return earliest;
+    }
+
+    private static Entry entry(Path output, Kind kind, X509CertificateHolder certificateHolder) throws Exception {
+        var certificate = new CertificateToken(new JcaX509CertificateConverter().getCertificate(certificateHolder));
+        var revocationReferences = new ArrayList<String>(CertificateExtensionsUtils.getCRLAccessUrls(certificate));
+        revocationReferences.addAll(CertificateExtensionsUtils.getOCSPAccessUrls(certificate));
+        return new Entry(output, certificate.getNotAfter().toInstant(), kind,
+                certificate.getSubject().getRFC2253(), revocationReferences);
+    }
+
+    private static List<TimeStampToken> timestampTokens(AttributeTable attributes, ASN1ObjectIdentifier type) throws Exception {
+        var timestampTokens = new ArrayList<TimeStampToken>();
+        if (attributes != null) {
+            var values = attributes.getAll(type);
+            for (var i = 0; i < values.size(); i++) {
+                var encoded = Attribute.getInstance(values.get(i)).getAttrValues().getObjectAt(0).toASN1Primitive().getEncoded();
+                timestampTokens.add(new TimeStampToken(new CMSSignedData(encoded)));
+            }
+        }
+        return timestampTokens;
+    }
+
+    /**
+     * The TSA certificate is looked up in the timestamp token and then in the signature, where the LT-Level adds it.
+     */
+    private static X509CertificateHolder tsaCertificate(TimeStampToken timestampToken, CMSSignedData cmsSignedData) {
+        return DSSFactory.signerCertificate(timestampToken.getCertificates(), timestampToken.getSID())
+                .or(() -> DSSFactory.signerCertificate(cmsSignedData.getCertificates(), timestampToken.getSID()))
+                .orElseThrow(() -> notIncluded(timestampToken.getSID()));
+    }
+
+    private static X509CertificateHolder signerCertificate(Store<X509CertificateHolder> certificates, SignerId signerId) {
+        return DSSFactory.signerCertificate(certificates, signerId).orElseThrow(() -> notIncluded(signerId));
+    }
+
+    private static IllegalArgumentException notIncluded(SignerId signerId) {
+        return new IllegalArgumentException("the certificate of " + signerId.getIssuer() + " is not included");
+    }
+
+    private Path bucket(Instant instant) {
+        return bucket(day(instant));
+    }
+
+    private Path bucket(String day) {
+        return directory.resolve(day + LOG_SUFFIX);
+    }
+
+    private Path shard(String output) {
+        return outputsDirectory.resolve("%02x%s".formatted(output.hashCode() & (SHARDS - 1), LOG_SUFFIX));
+    }
+
+    private static boolean isDay(String value) {
+        try {
+            LocalDate.parse(value);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String day(Instant instant) {
+        return LocalDate.ofInstant(instant, ZoneOffset.UTC).toString();
+    }
+}
@@ -0,0 +1,187 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.SignatureAlgorithm;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSASN1Utils;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.ess.ESSCertIDv2;
+import org.bouncycastle.asn1.ess.SigningCertificateV2;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSAttributeTableGenerator;
+import org.bouncycastle.cms.CMSSignedDataStreamGenerator;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Creates CAdES enveloping signatures (B-T) for payloads of any size in constant memory.
+ * <p>
+ * The payload is transferred from a {@link FileChannel} into the encapsulated content of the output file and hashed
+ * in the same pass. Only after the content is written the data to be signed (the DER encoded signed attributes) is
+ * known, it is then passed to the {@link SignatureValueProvider} (e.g. {@code POST /seal/to-be-signed/transactions}),
+ * the signature value is passed to the {@link TimestampTokenProvider} (e.g. {@code POST /timestamp}) and both are
+ * appended to the output file.
+ */
+public class StreamingCAdESEnvelopingGenerator {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    public interface SignatureValueProvider {
+        byte[] signatureValue(byte[] dataToBeSigned) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface TimestampTokenProvider {
+        byte[] timestampToken(byte[] signatureValue) throws Exception;
+    }
+
+    private final X509Certificate signingCertificate;
+
+    private final SignatureAlgorithm signatureAlgorithm;
+
+    public StreamingCAdESEnvelopingGenerator(X509Certificate signingCertificate, SignatureAlgorithm signatureAlgorithm) {
+        this.signingCertificate = signingCertificate;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    public void generate(Path payload, Path output, SignatureValueProvider signatureValueProvider,
+                         TimestampTokenProvider timestampTokenProvider) throws Exception {
+        var contentSigner = new RemoteContentSigner(
+                new DefaultSignatureAlgorithmIdentifierFinder().find(jcaSignatureAlgorithm(signatureAlgorithm)),
+                signatureValueProvider);
+
+        var signerInfoGenerator = new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().build())
+                .setSignedAttributeGenerator(new DefaultSignedAttributeTableGenerator(signingCertificateAttribute()))
+                .setUnsignedAttributeGenerator(timestampAttributeGenerator(timestampTokenProvider))
+                .build(contentSigner, signingCertificate);
+
+        var generator = new CMSSignedDataStreamGenerator();
+        generator.setBufferSize(BUFFER_SIZE);
+        generator.addSignerInfoGenerator(signerInfoGenerator);
+        generator.addCertificates(new JcaCertStore(List.of(signingCertificate)));
+
+        // a failed signature or timestamp request leaves no truncated output behind
+        var temporaryFile = output.resolveSibling(output.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(payload, StandardOpenOption.READ);
+             var out = Files.newOutputStream(temporaryFile);
+             var content = generator.open(out, true)) {
+            var target = Channels.newChannel(content);
+            var position = 0L;
+            var size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private AttributeTable signingCertificateAttribute() throws Exception {
+        var certificateHash = MessageDigest.getInstance("SHA-256").digest(signingCertificate.getEncoded());
+        var issuerSerial = DSSASN1Utils.getIssuerSerial(new CertificateToken(signingCertificate));
+        var signingCertificateV2 = new SigningCertificateV2(new ESSCertIDv2(certificateHash, issuerSerial));
+
+        var attributes = new Hashtable<>();
+        attributes.put(PKCSObjectIdentifiers.id_aa_signingCertificateV2,
+                new Attribute(PKCSObjectIdentifiers.id_aa_signingCertificateV2, new DERSet(signingCertificateV2)));
+        return new AttributeTable(attributes);
+    }
+
+    private static CMSAttributeTableGenerator timestampAttributeGenerator(TimestampTokenProvider timestampTokenProvider) {
+        return parameters -> {
+            var signatureValue = (byte[]) parameters.get(CMSAttributeTableGenerator.SIGNATURE);
+            try {
+                var timestampToken = ASN1Primitive.fromByteArray(timestampTokenProvider.timestampToken(signatureValue));
+                return new AttributeTable(new Attribute(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken,
+                        new DERSet(timestampToken)));
+            } catch (Exception e) {
+                throw new RuntimeOperatorException("Unable to retrieve the signature timestamp", e);
+            }
+        };
+    }
+
+    private static String jcaSignatureAlgorithm(SignatureAlgorithm signatureAlgorithm) {
+        return switch (signatureAlgorithm) {
+            case RSA_SHA256 -> "SHA256withRSA";
+            case RSA_SHA384 -> "SHA384withRSA";
+            case RSA_SHA512 -> "SHA512withRSA";
+            case RSA_WITH_MGF1_SHA256 -> "SHA256withRSAandMGF1";
+            case RSA_WITH_MGF1_SHA384 -> "SHA384withRSAandMGF1";
+            case RSA_WITH_MGF1_SHA512 -> "SHA512withRSAandMGF1";
+            case ECDSA_SHA256 -> "SHA256withECDSA";
+            case ECDSA_SHA384 -> "SHA384withECDSA";
+            case ECDSA_SHA512 -> "SHA512withECDSA";
+            case PLAIN_ECDSA_SHA256 -> "SHA256withPLAIN-ECDSA";
+            case PLAIN_ECDSA_SHA384 -> "SHA384withPLAIN-ECDSA";
+            case PLAIN_ECDSA_SHA512 -> "SHA512withPLAIN-ECDSA";
+        };
+    }
+
+    /**
+     * Collects the DER encoded signed attributes and lets the {@link SignatureValueProvider} sign them.
+     */
+    private class RemoteContentSigner implements ContentSigner {
+
+        private final AlgorithmIdentifier algorithmIdentifier;
+
+        private final SignatureValueProvider signatureValueProvider;
+
+        private final ByteArrayOutputStream dataToBeSigned = new ByteArrayOutputStream();
+
+        RemoteContentSigner(AlgorithmIdentifier algorithmIdentifier, SignatureValueProvider signatureValueProvider) {
+            this.algorithmIdentifier = algorithmIdentifier;
+            this.signatureValueProvider = signatureValueProvider;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return algorithmIdentifier;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return dataToBeSigned;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            try {
+                var signatureValue = signatureValueProvider.signatureValue(dataToBeSigned.toByteArray());
+                return switch (signatureAlgorithm) {
+                    case ECDSA_SHA256, ECDSA_SHA384, ECDSA_SHA512 -> DSSASN1Utils.isAsn1EncodedSignatureValue(signatureValue)
+                            ? signatureValue : DSSASN1Utils.toStandardDSASignatureValue(signatureValue);
+                    case PLAIN_ECDSA_SHA256, PLAIN_ECDSA_SHA384, PLAIN_ECDSA_SHA512 ->
+                            DSSASN1Utils.ensurePlainSignatureValue(EncryptionAlgorithm.PLAIN_ECDSA, signatureValue);
+                    default -> signatureValue;
+                };
+            } catch (Exception e) {
+                throw new RuntimeOperatorException("Unable to retrieve the signature value", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.spi.DSSSecurityProvider;
+import eu.europa.esig.dss.spi.DSSUtils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.ess.SigningCertificateV2;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataParser;
+import org.bouncycastle.cms.CMSSignerDigestMismatchException;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationStore;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TimeStampToken;
+import org.bouncycastle.util.Store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Validates signatures with the effort a pipeline needs:
+ * <ul>
+ *     <li>{@link Tier#SIGNATURE_VALUE} checks the signature value over the signed attributes (the DTBS) with the
+ *     signer's public key and the message digest of the signed content. For PAdES the ByteRange of the newest
+ *     signature must cover the original document and everything but its Contents, document timestamps are checked
+ *     by their message imprint and signature.</li>
+ *     <li>{@link Tier#STRUCTURE} additionally checks the CMS structure (a single signer, the signing certificate
+ *     attribute matching the signer certificate) and the message imprint and signature of the signature
+ *     timestamps.</li>
+ *     <li>{@link Tier#FULL} is the ETSI validation by DSS including certificate chains and revocation data.</li>
+ * </ul>
+ * The lower tiers neither build the certificate chain nor create reports, they prove the integrity of the signature
+ * but not the trust in the signer: {@link Indication#PASSED} means intact, not qualified.
+ */
+public class TieredValidator {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_BYTE_RANGE_LENGTH = 128;
+
+    /**
+     * The hex encoded Contents, far more than any CMS signed data with validation data.
+     */
+    private static final long MAX_CONTENTS_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte ASN1_SEQUENCE = 0x30;
+
+    public enum Tier {
+        SIGNATURE_VALUE, STRUCTURE, FULL
+    }
+
+    /**
+     * @param failure the cause, if the signature could not be validated at all
+     */
+    public record Result(Tier tier, Indication indication, SubIndication subIndication, Exception failure) {
+
+        public Result(Tier tier, Indication indication, SubIndication subIndication) {
+            this(tier, indication, subIndication, null);
+        }
+
+        public boolean isValid() {
+            return indication == Indication.PASSED || indication == Indication.TOTAL_PASSED;
+        }
+
+        /**
+         * @return true if the signature is definitely not valid, unlike {@link Indication#INDETERMINATE}
+         */
+        public boolean isFailed() {
+            return indication == Indication.FAILED || indication == Indication.TOTAL_FAILED
+                    || indication == Indication.NO_SIGNATURE_FOUND;
+        }
+    }
+
+    /**
+     * @param originalDocument the unsigned PDF or the detached content (e.g. a {@link eu.europa.esig.dss.model.DigestDocument}),
+     *                         null for enveloping CAdES and if the original PDF is not known
+     */
+    public static Result validate(DSSDocument signedDocument, DSSDocument originalDocument, Tier tier) {
+        return validate(signedDocument, originalDocument, tier,
+                ValidationConfiguration.defaultConfiguration(ValidationConfiguration.ReportLevel.INDICATION));
+    }
+
+    /**
+     * @param configuration used by {@link Tier#FULL}, can be shared by many validations
+     */
+    public static Result validate(DSSDocument signedDocument, DSSDocument originalDocument, Tier tier,
+                                  ValidationConfiguration configuration) {
+        if (tier == Tier.FULL) {
+            return validateFully(signedDocument, originalDocument, configuration);
+        }
+        try {
+            return isPdf(signedDocument)
+                    ? validatePAdES(signedDocument, originalDocument, tier)
+                    : validateCAdES(signedDocument, originalDocument, tier);
+        } catch (Exception e) {
+            return new Result(tier, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE, e);
+        }
+    }
+
+    private static Result validateFully(DSSDocument signedDocument, DSSDocument originalDocument,
+                                        ValidationConfiguration configuration) {
+        try {
+            var pdf = isPdf(signedDocument);
+            var detachedContents = originalDocument != null && !pdf ? List.of(originalDocument) : List.<DSSDocument>of();
+            var report = configuration.validate(signedDocument, detachedContents);
+            // like the lower tiers, the signature or document timestamp of the newest PDF revision
+            var signatureResult = pdf ? report.newestPdfRevisionResult()
+                    : report.signatureResults().values().stream().findFirst();
+            return signatureResult.map(r -> new Result(Tier.FULL, r.indication(), r.subIndication()))
+                    .orElse(new Result(Tier.FULL, Indication.NO_SIGNATURE_FOUND, null));
+        } catch (DSSException e) {
+            return new Result(Tier.FULL, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE, e);
+        }
+    }
+
+    /**
+     * Streams the PDF instead of loading it: the first pass compares the original document and finds the newest
+     * ByteRange, then the Contents are read and the ByteRange is hashed.
+     */
+    private static Result validatePAdES(DSSDocument signed, DSSDocument original, Tier tier) throws Exception {
+        var scan = scanPdf(signed, original);
+        // the newest signature is appended after the original document as an incremental update
+        if (scan.originalMismatch()) {
+            return new Result(tier, Indication.TOTAL_FAILED, SubIndication.HASH_FAILURE);
+        }
+        if (scan.byteRange() == null) {
+            return new Result(tier, Indication.NO_SIGNATURE_FOUND, null);
+        }
+        var byteRange = scan.byteRange();
+
+        // the ByteRange covers everything up to the end of the signature revision but the hex encoded Contents
+        var contentsStart = byteRange[0] + byteRange[1];
+        var contentsEnd = byteRange[2];
+        if (byteRange[0] != 0 || contentsStart >= contentsEnd || byteRange[2] + byteRange[3] > scan.length()
+                || contentsStart < scan.originalLength() || contentsEnd - contentsStart > MAX_CONTENTS_LENGTH) {
+            return new Result(tier, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE);
+        }
+        byte[] cms;
+        try (var in = signed.openStream()) {
+            in.skipNBytes(contentsStart);
+            cms = contents(in.readNBytes((int) (contentsEnd - contentsStart)));
+        }
+        if (cms == null) {
+            return new Result(tier, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE);
+        }
+
+        var cmsSignedData = new CMSSignedData(cms);
+        if (PKCSObjectIdentifiers.id_ct_TSTInfo.getId().equals(cmsSignedData.getSignedContentTypeOID())) {
+            // a document timestamp, its message imprint is the digest of the ByteRange
+            var timestampFailure = verifyTimestamp(new TimeStampToken(cmsSignedData),
+                    digestAlgorithm -> digest(signed, byteRange, digestAlgorithm), cmsSignedData.getCertificates());
+            return timestampResult(tier, timestampFailure);
+        }
+        var signerDigestAlgorithm = signerDigestAlgorithm(cmsSignedData);
+        var digest = digest(signed, byteRange, signerDigestAlgorithm);
+        var detachedCmsSignedData = new CMSSignedData(Map.of(new ASN1ObjectIdentifier(signerDigestAlgorithm.getOid()), digest), cms);
+        return verify(detachedCmsSignedData.getSignerInfos(), detachedCmsSignedData.getCertificates(), tier);
+    }
+
+    /**
+     * @param byteRange        the newest ByteRange after the original document, null if there is none
+     * @param originalMismatch true if the signed PDF does not start with the original document
+     */
+    private record PdfScan(long length, long originalLength, boolean originalMismatch, long[] byteRange) {
+    }
+
+    private static PdfScan scanPdf(DSSDocument signed, DSSDocument original) throws IOException {
+        var buffer = new byte[BUFFER_SIZE];
+        var originalBuffer = new byte[BUFFER_SIZE];
+        var length = 0L;
+        var originalLength = 0L;
+        var originalEnded = original == null;
+        var scanner = new ByteRangeScanner();
+        try (var in = signed.openStream(); var originalIn = original == null ? null : original.openStream()) {
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                if (!originalEnded) {
+                    var originalRead = originalIn.readNBytes(originalBuffer, 0, read);
+                    if (!Arrays.equals(buffer, 0, originalRead, originalBuffer, 0, originalRead)) {
+                        return new PdfScan(length, originalLength, true, null);
+                    }
+                    originalLength += originalRead;
+                    originalEnded = originalRead < read;
+                }
+                scanner.update(buffer, read, length);
+                length += read;
+            }
+            if (!originalEnded && originalIn.read() != -1) {
+                // the original document is longer than the signed one
+                return new PdfScan(length, originalLength, true, null);
+            }
+        }
+        scanner.finish();
+        var newest = scanner.byteRanges.isEmpty() ? null : scanner.byteRanges.get(scanner.byteRanges.size() - 1);
+        if (newest == null || newest.offset() < originalLength) {
+            return new PdfScan(length, originalLength, false, null);
+        }
+        return new PdfScan(length, originalLength, false, byteRange(newest.value()));
+    }
+
+    /**
+     * The CMS signed data of all signatures and document timestamps of a PDF, in the order of their Contents. The
+     * document is streamed twice instead of being parsed: once for the ByteRanges, once for the Contents between the
+     * two parts of each ByteRange.
+     */
+    static List<byte[]> signatureContents(DSSDocument pdf) throws IOException {
+        var scanner = new ByteRangeScanner();
+        var buffer = new byte[BUFFER_SIZE];
+        try (var in = pdf.openStream()) {
+            var position = 0L;
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                scanner.update(buffer, read, position);
+                position += read;
+            }
+        }
+        scanner.finish();
+
+        // keyed on the start of the Contents, a ByteRange may be found more than once, e.g. in a signature field
+        var byteRanges = new TreeMap<Long, long[]>();
+        for (var found : scanner.byteRanges) {
+            try {
+                var byteRange = byteRange(found.value());
+                byteRanges.put(byteRange[0] + byteRange[1], byteRange);
+            } catch (IllegalStateException | NumberFormatException e) {
+                // a ByteRange placeholder of a signature in progress
+            }
+        }
+        var signatureContents = new ArrayList<byte[]>();
+        try (var in = pdf.openStream()) {
+            var position = 0L;
+            for (var byteRange : byteRanges.values()) {
+                var contentsStart = byteRange[0] + byteRange[1];
+                var contentsEnd = byteRange[2];
+                if (byteRange[0] != 0 || contentsStart < position || contentsEnd <= contentsStart
+                        || contentsEnd - contentsStart > MAX_CONTENTS_LENGTH) {
+                    throw new IOException("invalid ByteRange " + Arrays.toString(byteRange));
+                }
+                in.skipNBytes(contentsStart - position);
+                var contents = contents(in.readNBytes((int) (contentsEnd - contentsStart)));
+                if (contents == null) {
+                    throw new IOException("no Contents at ByteRange " + Arrays.toString(byteRange));
+                }
+                signatureContents.add(contents);
+                position = contentsEnd;
+            }
+        }
+        return signatureContents;
+    }
+
+    /**
+     * @param hexContents the hex string of the Contents including its angle brackets
+     * @return the decoded Contents, null if it is not a hex string
+     */
+    private static byte[] contents(byte[] hexContents) {
+        if (hexContents.length < 2 || hexContents[0] != '<' || hexContents[hexContents.length - 1] != '>') {
+            return null;
+        }
+        var contents = new String(hexContents, 1, hexContents.length - 2, StandardCharsets.US_ASCII).trim();
+        try {
+            return HexFormat.of().parseHex(contents.length() % 2 == 0 ? contents : contents + "0");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the values of all /ByteRange keys in a streamed document.
+     */
+    private static class ByteRangeScanner {
+
+        private static final byte[] KEY = "/ByteRange".getBytes(StandardCharsets.US_ASCII);
+
+        /**
+         * @param offset the offset of the key in the document
+         * @param value  the bytes following the key, up to the closing bracket
+         */
+        record Found(long offset, byte[] value) {
+        }
+
+        private final List<Found> byteRanges = new ArrayList<>();
+
+        private int matched;
+
+        private long offset;
+
+        private ByteArrayOutputStream capture;
+
+        /**
+         * @param position the offset of the buffer in the document
+         */
+        void update(byte[] buffer, int length, long position) {
+            for (var i = 0; i < length; i++) {
+                var b = buffer[i];
+                if (capture != null) {
+                    capture.write(b);
+                    if (b == ']' || capture.size() >= MAX_BYTE_RANGE_LENGTH) {
+                        finish();
+                    }
+                }
+                matched = b == KEY[matched] ? matched + 1 : (b == KEY[0] ? 1 : 0);
+                if (matched == KEY.length) {
+                    offset = position + i + 1 - KEY.length;
+                    capture = new ByteArrayOutputStream();
+                    matched = 0;
+                }
+            }
+        }
+
+        /**
+         * Keeps a value cut off by the end of the document.
+         */
+        void finish() {
+            if (capture != null) {
+                byteRanges.add(new Found(offset, capture.toByteArray()));
+                capture = null;
+            }
+        }
+    }
+
+    private static byte[] digest(DSSDocument signed, long[] byteRange, DigestAlgorithm digestAlgorithm) throws IOException {
+        var messageDigest = DSSUtils.getMessageDigest(digestAlgorithm);
+        var buffer = new byte[BUFFER_SIZE];
+        try (var in = signed.openStream()) {
+            in.skipNBytes(byteRange[0]);
+            update(messageDigest, in, byteRange[1], buffer);
+            in.skipNBytes(byteRange[2] - byteRange[0] - byteRange[1]);
+            update(messageDigest, in, byteRange[3], buffer);
+        }
+        return messageDigest.digest();
+    }
+
+    private static void update(MessageDigest messageDigest, InputStream in, long length, byte[] buffer) throws IOException {
+        while (length > 0) {
+            var read = in.readNBytes(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == 0) {
+                throw new EOFException("the ByteRange exceeds the document");
+            }
+            messageDigest.update(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Enveloping signatures are parsed as stream, the encapsulated content is hashed without loading it.
+     */
+    private static Result validateCAdES(DSSDocument signed, DSSDocument detachedContent, Tier tier) throws Exception {
+        if (detachedContent != null) {
+            // a detached signature is small, the content digest comes from the detached content
+            CMSSignedData cmsSignedData;
+            try (var in = signed.openStream()) {
+                cmsSignedData = new CMSSignedData(in);
+            }
+            var signerDigestAlgorithm = signerDigestAlgorithm(cmsSignedData);
+            var digest = detachedContent.getDigestValue(signerDigestAlgorithm);
+            cmsSignedData = new CMSSignedData(Map.of(new ASN1ObjectIdentifier(signerDigestAlgorithm.getOid()), digest),
+                    cmsSignedData.toASN1Structure());
+            return verify(cmsSignedData.getSignerInfos(), cmsSignedData.getCertificates(), tier);
+        }
+        try (var in = new BufferedInputStream(signed.openStream(), BUFFER_SIZE)) {
+            var parser = new CMSSignedDataParser(new JcaDigestCalculatorProviderBuilder().build(), in);
+            if (parser.getSignedContent() != null) {
+                parser.getSignedContent().drain();
+            }
+            // the parser returns a raw store of X509CertificateHolder
+            @SuppressWarnings("unchecked")
+            Store<X509CertificateHolder> certificates = parser.getCertificates();
+            return verify(parser.getSignerInfos(), certificates, tier);
+        }
+    }
+
+    private static Result verify(SignerInformationStore signerInfos, Store<X509CertificateHolder> certificates, Tier tier) throws Exception {
+        var signers = signerInfos.getSigners();
+        if (signers.isEmpty()) {
+            return new Result(tier, Indication.NO_SIGNATURE_FOUND, null);
+        }
+        if (tier == Tier.STRUCTURE && signers.size() != 1) {
+            return new Result(tier, Indication.TOTAL_FAILED, SubIndication.FORMAT_FAILURE);
+        }
+        var signer = signers.iterator().next();
+        var certificate = DSSFactory.signerCertificate(certificates, signer.getSID());
+        if (certificate.isEmpty()) {
+            return new Result(tier, Indication.INDETERMINATE, SubIndication.NO_SIGNING_CERTIFICATE_FOUND);
+        }
+        var signingCertificate = certificate.get();
+
+        // checks the message digest attribute and the signature value of the signed attributes
+        var verifier = new JcaSimpleSignerInfoVerifierBuilder().setProvider(DSSSecurityProvider.getSecurityProvider())
+                .build(signingCertificate);
+        try {
+            if (!signer.verify(verifier)) {
+                return new Result(tier, Indication.TOTAL_FAILED, SubIndication.SIG_CRYPTO_FAILURE);
+            }
+        } catch (CMSSignerDigestMismatchException e) {
+            return new Result(tier, Indication.TOTAL_FAILED, SubIndication.HASH_FAILURE);
+        }
+
+        if (tier == Tier.STRUCTURE) {
+            if (!matchesSigningCertificateAttribute(signer, signingCertificate)) {
+                return new Result(tier, Indication.INDETERMINATE, SubIndication.NO_SIGNING_CERTIFICATE_FOUND);
+            }
+            return timestampResult(tier, verifySignatureTimestamps(signer, certificates));
+        }
+        return new Result(tier, Indication.PASSED, null);
+    }
+
+    private static Result timestampResult(Tier tier, SubIndication timestampFailure) {
+        if (timestampFailure == null) {
+            return new Result(tier, Indication.PASSED, null);
+        }
+        return timestampFailure == SubIndication.NO_SIGNING_CERTIFICATE_FOUND
+                ? new Result(tier, Indication.INDETERMINATE, timestampFailure)
+                : new Result(tier, Indication.TOTAL_FAILED, timestampFailure);
+    }
+
+    private static boolean matchesSigningCertificateAttribute(SignerInformation signer, X509CertificateHolder signingCertificate) throws Exception {
+        var attribute = signer.getSignedAttributes() == null ? null
+                : signer.getSignedAttributes().get(PKCSObjectIdentifiers.id_aa_signingCertificateV2);
+        if (attribute == null) {
+            return false;
+        }
+        var certId = SigningCertificateV2.getInstance(attribute.getAttrValues().getObjectAt(0)).getCerts()[0];
+        var digestAlgorithm = DigestAlgorithm.forOID(certId.getHashAlgorithm().getAlgorithm().getId());
+        return Arrays.equals(certId.getCertHash(), DSSUtils.digest(digestAlgorithm, signingCertificate.getEncoded()));
+    }
+
+    /**
+     * The message imprint of each signature timestamp must be the hash of the signature value.
+     *
+     * @return null if all signature timestamps are valid
+     */
+    private static SubIndication verifySignatureTimestamps(SignerInformation signer, Store<X509CertificateHolder> certificates) throws Exception {
+        if (signer.getUnsignedAttributes() == null) {
+            return null;
+        }
+        var attributes = signer.getUnsignedAttributes().getAll(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken);
+        for (var i = 0; i < attributes.size(); i++) {
+            var encoded = Attribute.getInstance(attributes.get(i)).getAttrValues().getObjectAt(0).toASN1Primitive().getEncoded();
+            var timestampFailure = verifyTimestamp(new TimeStampToken(new CMSSignedData(encoded)),
+                    digestAlgorithm -> DSSUtils.digest(digestAlgorithm, signer.getSignature()), certificates);
+            if (timestampFailure != null) {
+                return timestampFailure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The message imprint must be the digest of the timestamped data and the timestamp must be signed by the TSA
+     * certificate, which is taken from the timestamp or the signature.
+     *
+     * @return null if the timestamp is valid
+     */
+    private static SubIndication verifyTimestamp(TimeStampToken timestampToken, TimestampedDigest timestampedDigest,
+                                                 Store<X509CertificateHolder> certificates) throws Exception {
+        var imprintAlgorithm = DigestAlgorithm.forOID(timestampToken.getTimeStampInfo().getMessageImprintAlgOID().getId());
+        if (!Arrays.equals(timestampToken.getTimeStampInfo().getMessageImprintDigest(), timestampedDigest.digest(imprintAlgorithm))) {
+            return SubIndication.HASH_FAILURE;
+        }
+        var tsaCertificate = DSSFactory.signerCertificate(timestampToken.getCertificates(), timestampToken.getSID())
+                .or(() -> DSSFactory.signerCertificate(certificates, timestampToken.getSID()));
+        if (tsaCertificate.isEmpty()) {
+            return SubIndication.NO_SIGNING_CERTIFICATE_FOUND;
+        }
+        var verifier = new JcaSimpleSignerInfoVerifierBuilder().setProvider(DSSSecurityProvider.getSecurityProvider())
+                .build(tsaCertificate.get());
+        return timestampToken.isSignatureValid(verifier) ? null : SubIndication.SIG_CRYPTO_FAILURE;
+    }
+
+    private interface TimestampedDigest {
+
+        byte[] digest(DigestAlgorithm digestAlgorithm) throws IOException;
+    }
+
+    private static DigestAlgorithm signerDigestAlgorithm(CMSSignedData cmsSignedData) {
+        var signer = cmsSignedData.getSignerInfos().getSigners().iterator().next();
+        return DigestAlgorithm.forOID(signer.getDigestAlgOID());
+    }
+
+    /**
+     * @param value the bytes following the ByteRange key, e.g. {@code [0 840 960 240]}
+     */
+    private static long[] byteRange(byte[] value) {
+        var start = indexOf(value, (byte) '[', 0);
+        var end = indexOf(value, (byte) ']', start);
+        var values = new String(value, start + 1, end - start - 1, StandardCharsets.US_ASCII).trim().split("\\s+");
+        if (values.length != 4) {
+            throw new IllegalStateException("invalid ByteRange");
+        }
+        return Arrays.stream(values).mapToLong(Long::parseLong).toArray();
+    }
+
+    private static boolean isPdf(DSSDocument document) {
+        try (var in = document.openStream()) {
+            return isPdf(in.readNBytes(1024));
+        } catch (IOException e) {
+            throw new DSSException("unable to read " + document.getName(), e);
+        }
+    }
+
+    /**
+     * CMS signed data starts with the ASN.1 SEQUENCE tag, PDFs with the {@code %PDF-} header, optionally preceded by
+     * a byte order mark or whitespace.
+     */
+    private static boolean isPdf(byte[] document) {
+        if (document.length == 0 || document[0] == ASN1_SEQUENCE) {
+            return false;
+        }
+        var offset = document.length >= 3 && (document[0] & 0xff) == 0xef && (document[1] & 0xff) == 0xbb
+                && (document[2] & 0xff) == 0xbf ? 3 : 0;
+        while (offset < document.length && Character.isWhitespace(document[offset])) {
+            offset++;
+        }
+        var header = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+        return document.length - offset >= header.length
+                && Arrays.equals(document, offset, offset + header.length, header, 0, header.length);
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (var i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("'%c' not found".formatted((char) b));
+    }
+}
@@ -0,0 +1,235 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.detailedreport.DetailedReportFacade;
+import eu.europa.esig.dss.diagnostic.AbstractSignatureWrapper;
+import eu.europa.esig.dss.diagnostic.DiagnosticDataFacade;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.model.policy.ValidationPolicy;
+import eu.europa.esig.dss.simplereport.SimpleReport;
+import eu.europa.esig.dss.simplereport.SimpleReportFacade;
+import eu.europa.esig.dss.spi.validation.CertificateVerifier;
+import eu.europa.esig.dss.validation.SignedDocumentValidator;
+import eu.europa.esig.dss.validation.policy.ValidationPolicyLoader;
+import eu.europa.esig.dss.validation.reports.Reports;
+import eu.europa.esig.validationreport.ValidationReportFacade;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Validation policy, certificate verifier and report level shared by many validations.
+ * <p>
+ * DSS loads the default validation policy (JAXB unmarshalling including schema validation) for every
+ * {@code validateDocument()} call and always builds the ETSI validation report. Here a policy is parsed once per
+ * content and the ETSI validation report is only built for {@link ReportLevel#ETSI}. The JAXB contexts of the
+ * reports are created once when this class is loaded, the reports are only marshalled when the XML is requested.
+ * With {@link ReportLevel#INDICATION} only the indications are kept, the reports are released right away.
+ */
+public class ValidationConfiguration {
+
+    public enum ReportLevel {
+        INDICATION, SIMPLE, DETAILED, ETSI
+    }
+
+    public record SignatureResult(Indication indication, SubIndication subIndication) {
+    }
+
+    private static final String DEFAULT_POLICY_ID = "default";
+
+    private static final Map<String, ValidationPolicy> POLICIES = new ConcurrentHashMap<>();
+
+    static {
+        // the report facades keep their JAXB contexts in static state, initialize them once
+        try {
+            SimpleReportFacade.newFacade().getMarshaller(false);
+            DetailedReportFacade.newFacade().getMarshaller(false);
+            DiagnosticDataFacade.newFacade().getMarshaller(false);
+            ValidationReportFacade.newFacade().getMarshaller(false);
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String policyId;
+
+    private final ValidationPolicy policy;
+
+    private final CertificateVerifier certificateVerifier;
+
+    private final ReportLevel reportLevel;
+
+    private ValidationConfiguration(String policyId, ValidationPolicy policy, CertificateVerifier certificateVerifier,
+                                    ReportLevel reportLevel) {
+        this.policyId = policyId;
+        this.policy = policy;
+        this.certificateVerifier = certificateVerifier;
+        this.reportLevel = reportLevel;
+    }
+
+    /**
+     * The default validation policy of DSS with the offline certificate verifier.
+     */
+    public static ValidationConfiguration defaultConfiguration(ReportLevel reportLevel) {
+        return defaultConfiguration(DSSFactory.offlineCertificateVerifier(), reportLevel);
+    }
+
+    public static ValidationConfiguration defaultConfiguration(CertificateVerifier certificateVerifier, ReportLevel reportLevel) {
+        var policy = POLICIES.computeIfAbsent(DEFAULT_POLICY_ID,
+                id -> ValidationPolicyLoader.fromDefaultValidationPolicy().create());
+        return new ValidationConfiguration(DEFAULT_POLICY_ID, policy, certificateVerifier, reportLevel);
+    }
+
+    /**
+     * A validation policy file, files with the same content are parsed only once.
+     */
+    public static ValidationConfiguration fromPolicyFile(Path policyFile, CertificateVerifier certificateVerifier,
+                                                         ReportLevel reportLevel) {
+        var policyDocument = new FileDocument(policyFile.toFile());
+        var policyId = "SHA256:" + Base64.getEncoder().encodeToString(policyDocument.getDigestValue(DigestAlgorithm.SHA256));
+        var policy = POLICIES.computeIfAbsent(policyId,
+                id -> ValidationPolicyLoader.fromValidationPolicy(policyDocument).create());
+        return new ValidationConfiguration(policyId, policy, certificateVerifier, reportLevel);
+    }
+
+    /**
+     * @return identifies the content of the validation policy, e.g. for caching validation results
+     */
+    public String policyId() {
+        return policyId;
+    }
+
+    public CertificateVerifier certificateVerifier() {
+        return certificateVerifier;
+    }
+
+    public ReportLevel reportLevel() {
+        return reportLevel;
+    }
+
+    /**
+     * @param detachedContents the signed documents of detached signatures, otherwise empty
+     */
+    public Report validate(DSSDocument signedDocument, List<DSSDocument> detachedContents) {
+        var validator = DSSFactory.signedDocumentValidator(signedDocument, certificateVerifier);
+        if (!detachedContents.isEmpty()) {
+            validator.setDetachedContents(detachedContents);
+        }
+        return validate(validator);
+    }
+
+    /**
+     * Validates only the PDF signature or document timestamp with the ByteRange, see
+     * {@link DSSFactory#pdfRevisionValidator}.
+     */
+    public Report validatePdfRevision(DSSDocument pdf, int[] byteRange) {
+        return validate(DSSFactory.pdfRevisionValidator(pdf, byteRange, certificateVerifier));
+    }
+
+    private Report validate(SignedDocumentValidator validator) {
+        validator.setEnableEtsiValidationReport(reportLevel == ReportLevel.ETSI);
+        validator.setIncludeSemantics(false);
+        return new Report(reportLevel, validator.validateDocument(policy));
+    }
+
+    /**
+     * Result of a validation with the reports of the configured report level.
+     */
+    public static class Report {
+
+        private final ReportLevel reportLevel;
+
+        private final Map<String, SignatureResult> signatureResults = new LinkedHashMap<>();
+
+        private final Map<List<BigInteger>, SignatureResult> pdfRevisionResults = new LinkedHashMap<>();
+
+        private final Reports reports;
+
+        private String detailedReportXml;
+
+        private Report(ReportLevel reportLevel, Reports reports) {
+            this.reportLevel = reportLevel;
+            var simpleReport = reports.getSimpleReport();
+            for (var signatureId : simpleReport.getSignatureIdList()) {
+                signatureResults.put(signatureId, new SignatureResult(simpleReport.getIndication(signatureId),
+                        simpleReport.getSubIndication(signatureId)));
+            }
+            // PDF signatures and document timestamps by the ByteRange of their revision
+            var diagnosticData = reports.getDiagnosticData();
+            var tokens = new ArrayList<AbstractSignatureWrapper>(diagnosticData.getSignatures());
+            tokens.addAll(diagnosticData.getTimestampList());
+            for (var token : tokens) {
+                if (token.getPDFRevision() != null) {
+                    pdfRevisionResults.put(token.getPDFRevision().getSignatureByteRange(),
+                            new SignatureResult(simpleReport.getIndication(token.getId()), simpleReport.getSubIndication(token.getId())));
+                }
+            }
+            this.reports = reportLevel == ReportLevel.INDICATION ? null : reports;
+        }
+
+        /**
+         * @return the results keyed on signature id in the order of the simple report
+         */
+        public Map<String, SignatureResult> signatureResults() {
+            return Collections.unmodifiableMap(signatureResults);
+        }
+
+        /**
+         * @param byteRange the ByteRange of a PDF signature or document timestamp
+         * @return the result of the signature or document timestamp, empty if there is none with the ByteRange
+         */
+        public Optional<SignatureResult> pdfRevisionResult(int[] byteRange) {
+            var key = Arrays.stream(byteRange).mapToObj(BigInteger::valueOf).toList();
+            return Optional.ofNullable(pdfRevisionResults.get(key));
+        }
+
+        /**
+         * @return the result of the PDF signature or document timestamp of the newest revision, empty if not a PDF
+         */
+        public Optional<SignatureResult> newestPdfRevisionResult() {
+            return pdfRevisionResults.entrySet().stream()
+                    .max(Comparator.comparing(e -> e.getKey().get(2).add(e.getKey().get(3))))
+                    .map(Map.Entry::getValue);
+        }
+
+        public SimpleReport simpleReport() {
+            requireReportLevel(ReportLevel.SIMPLE);
+            return reports.getSimpleReport();
+        }
+
+        /**
+         * The detailed report is marshalled on the first call only.
+         */
+        public synchronized String detailedReportXml() {
+            requireReportLevel(ReportLevel.DETAILED);
+            if (detailedReportXml == null) {
+                detailedReportXml = reports.getXmlDetailedReport();
+            }
+            return detailedReportXml;
+        }
+
+        public String etsiValidationReportXml() {
+            requireReportLevel(ReportLevel.ETSI);
+            return reports.getXmlValidationReport();
+        }
+
+        private void requireReportLevel(ReportLevel required) {
+            if (reportLevel.compareTo(required) < 0) {
+                throw new IllegalStateException("report level %s does not include the %s report".formatted(reportLevel, required));
+            }
+        }
+    }
+}
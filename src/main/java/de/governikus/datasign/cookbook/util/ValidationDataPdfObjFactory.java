@@ -0,0 +1,182 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.enumerations.MimeTypeEnum;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.x509.Token;
+import eu.europa.esig.dss.pades.PAdESCommonParameters;
+import eu.europa.esig.dss.pdf.PDFServiceMode;
+import eu.europa.esig.dss.pdf.PDFSignatureService;
+import eu.europa.esig.dss.pdf.PdfDocumentReader;
+import eu.europa.esig.dss.pdf.pdfbox.PdfBoxDefaultObjectFactory;
+import eu.europa.esig.dss.pdf.pdfbox.PdfBoxDocumentReader;
+import eu.europa.esig.dss.pdf.pdfbox.PdfBoxSignatureService;
+import eu.europa.esig.dss.pdf.pdfbox.visible.PdfBoxSignatureDrawerFactory;
+import eu.europa.esig.dss.pdf.pdfbox.visible.defaultdrawer.PdfBoxDefaultSignatureDrawerFactory;
+import eu.europa.esig.dss.spi.validation.ValidationData;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Writes the DSS dictionary with already collected validation data right after the signature is incorporated.
+ * Compared to {@link eu.europa.esig.dss.pades.signature.PAdESExtensionService#incorporateValidationData} the
+ * signed document is neither validated nor is revocation data fetched again.
+ * <p>
+ * The DSS dictionary is still written in its own incremental update, because validation data for PAdES-BASELINE-LT
+ * must be added after the signature revision (ETSI EN 319 142-1). That update is appended to the signed revision
+ * from the document still open after signing, without parsing the signed document again (see
+ * {@link DssIncrementalUpdate}); only encrypted documents are loaded again.
+ */
+public class ValidationDataPdfObjFactory extends PdfBoxDefaultObjectFactory {
+
+    private final ValidationData validationData;
+
+    private final PdfBoxSignatureDrawerFactory signatureDrawerFactory;
+
+    public ValidationDataPdfObjFactory(ValidationData validationData) {
+        this(validationData, new PdfBoxDefaultSignatureDrawerFactory());
+    }
+
+    public ValidationDataPdfObjFactory(ValidationData validationData, PdfBoxSignatureDrawerFactory signatureDrawerFactory) {
+        this.validationData = Objects.requireNonNull(validationData);
+        this.signatureDrawerFactory = Objects.requireNonNull(signatureDrawerFactory);
+    }
+
+    @Override
+    public PDFSignatureService newPAdESSignatureService() {
+        return configure(new ValidationDataSignatureService(validationData, signatureDrawerFactory));
+    }
+
+    /**
+     * Writes the DSS dictionary into an already signed document, e.g. the same validation data into all documents
+     * sealed with one certificate.
+     */
+    public DSSDocument incorporateValidationData(DSSDocument signedDocument) {
+        return ((ValidationDataSignatureService) newPAdESSignatureService()).incorporateValidationData(signedDocument, null);
+    }
+
+    private static class ValidationDataSignatureService extends PdfBoxSignatureService {
+
+        private final ValidationData validationData;
+
+        private boolean signing;
+
+        private boolean appended;
+
+        private PdfDocumentReader signingReader;
+
+        ValidationDataSignatureService(ValidationData validationData, PdfBoxSignatureDrawerFactory signatureDrawerFactory) {
+            super(PDFServiceMode.SIGNATURE, signatureDrawerFactory);
+            this.validationData = validationData;
+        }
+
+        @Override
+        public DSSDocument sign(DSSDocument toSignDocument, byte[] cmsSignedData, PAdESCommonParameters parameters) {
+            if (validationData.isEmpty()) {
+                return super.sign(toSignDocument, cmsSignedData, parameters);
+            }
+            signing = true;
+            appended = false;
+            try {
+                // instead of inserting the CMS into the cached revision, the revision is written again as on a cache
+                // miss, so the DSS revision can be appended while the document is still open
+                var signedDocument = signDocument(toSignDocument, cmsSignedData, parameters);
+                return appended ? signedDocument : incorporateValidationData(signedDocument, parameters.getPasswordProtection());
+            } finally {
+                signing = false;
+                signingReader = null;
+            }
+        }
+
+        @Override
+        protected void digitalSignatureEnhancement(PdfDocumentReader reader, PAdESCommonParameters parameters) {
+            super.digitalSignatureEnhancement(reader, parameters);
+            // the digest may have been computed by a service without validation data, so the signature revision is
+            // left alone and the developer extension goes into the DSS revision
+            signingReader = reader;
+        }
+
+        @Override
+        public void checkEncryptedAndSaveIncrementally(PDDocument pdDocument, OutputStream out, PAdESCommonParameters parameters) {
+            if (!signing || validationData.isEmpty() || pdDocument.isEncrypted()) {
+                super.checkEncryptedAndSaveIncrementally(pdDocument, out, parameters);
+                return;
+            }
+            var revision = new DssIncrementalUpdate.RevisionOutputStream(out);
+            super.checkEncryptedAndSaveIncrementally(pdDocument, revision, parameters);
+            try {
+                ensureESICDeveloperExtension1(signingReader);
+                // nothing is appended if the DSS dictionary of an earlier signature already has all tokens
+                DssIncrementalUpdate.append(pdDocument, revision, validationData, out);
+                appended = true;
+            } catch (IOException e) {
+                throw new DSSException("Unable to add the DSS dictionary", e);
+            }
+        }
+
+        DSSDocument incorporateValidationData(DSSDocument signedDocument, char[] passwordProtection) {
+            if (validationData.isEmpty()) {
+                return signedDocument;
+            }
+
+            try (var resourcesHandler = instantiateResourcesHandler();
+                 var out = resourcesHandler.createOutputStream();
+                 var reader = (PdfBoxDocumentReader) loadPdfDocumentReader(signedDocument, passwordProtection)) {
+                var pdDocument = reader.getPDDocument();
+                var catalog = pdDocument.getDocumentCatalog().getCOSObject();
+
+                var dss = catalog.getCOSDictionary(COSName.getPDFName("DSS"));
+                if (dss == null) {
+                    dss = new COSDictionary();
+                    catalog.setItem("DSS", dss);
+                }
+                addStreams(pdDocument.getDocument(), dss, "Certs", validationData.getCertificateTokens());
+                addStreams(pdDocument.getDocument(), dss, "OCSPs", validationData.getOcspTokens());
+                addStreams(pdDocument.getDocument(), dss, "CRLs", validationData.getCrlTokens());
+                dss.setNeedToBeUpdated(true);
+                catalog.setNeedToBeUpdated(true);
+
+                ensureESICDeveloperExtension1(reader);
+                saveDocumentIncrementally(pdDocument, out);
+
+                var extendedDocument = resourcesHandler.writeToDSSDocument();
+                extendedDocument.setMimeType(MimeTypeEnum.PDF);
+                return extendedDocument;
+            } catch (IOException e) {
+                throw new DSSException("Unable to add the DSS dictionary", e);
+            }
+        }
+
+        private static void addStreams(COSDocument document, COSDictionary dss, String key, Collection<? extends Token> tokens) throws IOException {
+            if (tokens.isEmpty()) {
+                return;
+            }
+            var array = dss.getCOSArray(COSName.getPDFName(key));
+            if (array == null) {
+                array = new COSArray();
+                dss.setItem(key, array);
+            }
+            // tokens already written, e.g. by the extension of an earlier signature, are not written again
+            var present = DssIncrementalUpdate.presentTokens(array);
+            for (var token : tokens) {
+                if (!present.add(DssIncrementalUpdate.tokenId(token.getEncoded()))) {
+                    continue;
+                }
+                var stream = document.createCOSStream();
+                try (var out = stream.createOutputStream()) {
+                    out.write(token.getEncoded());
+                }
+                array.add(stream);
+            }
+            array.setNeedToBeUpdated(true);
+        }
+    }
+}
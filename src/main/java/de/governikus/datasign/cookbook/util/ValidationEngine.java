@@ -0,0 +1,221 @@
+package de.governikus.datasign.cookbook.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.FileDocument;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Validates large numbers of signed PDFs and detached signatures in parallel with {@link TieredValidator}. All
+ * validations share one {@link ValidationConfiguration}, i.e. the parsed validation policy and the certificate
+ * verifier with its trusted certificate sources and revocation sources (and their caches).
+ * <p>
+ * Results are cached keyed on the SHA-256 of the signed file, the digest of the detached content, the validation
+ * tier and policy and the time bucket of the validation, so unchanged signatures are validated only once per time
+ * bucket. INDETERMINATE results are not cached, they are validated again on the next run. The cache can be persisted
+ * with {@link #load(Path)} and {@link #store(Path)}.
+ * <p>
+ * The results are written as NDJSON (one JSON object per line) in the order the validations complete.
+ */
+public class ValidationEngine implements AutoCloseable {
+
+    public record Job(Path signedFile, DigestDocument detachedContent) {
+    }
+
+    public record Outcome(Path signedFile, TieredValidator.Result result, boolean cached, long durationMillis) {
+    }
+
+    private final TieredValidator.Tier tier;
+
+    private final ValidationConfiguration configuration;
+
+    private final Duration timeBucket;
+
+    private final ForkJoinPool pool;
+
+    private final Map<String, TieredValidator.Result> cache = new ConcurrentHashMap<>();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * The default validation policy with revocation data from the shared file cache of
+     * {@link DSSFactory#cachingCertificateVerifier()}.
+     */
+    public ValidationEngine(TieredValidator.Tier tier) {
+        this(tier, ValidationConfiguration.defaultConfiguration(DSSFactory.cachingCertificateVerifier(),
+                        ValidationConfiguration.ReportLevel.INDICATION),
+                Duration.ofDays(1), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param configuration validation policy and certificate verifier of {@link TieredValidator.Tier#FULL}, results of
+     *                      other policies are not reused
+     * @param timeBucket    results are reused within the same time bucket only, e.g. until revocation data is updated
+     */
+    public ValidationEngine(TieredValidator.Tier tier, ValidationConfiguration configuration, Duration timeBucket,
+                            int parallelism) {
+        this.tier = tier;
+        this.configuration = configuration;
+        this.timeBucket = timeBucket;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public Outcome validate(Job job) throws IOException {
+        var start = System.nanoTime();
+        var key = cacheKey(job);
+        var cached = cache.get(key);
+        if (cached != null) {
+            return new Outcome(job.signedFile(), cached, true, (System.nanoTime() - start) / 1_000_000);
+        }
+        var result = TieredValidator.validate(new FileDocument(job.signedFile().toFile()), job.detachedContent(), tier,
+                configuration);
+        if (cacheable(result)) {
+            cache.put(key, result);
+        }
+        return new Outcome(job.signedFile(), result, false, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Validates all jobs in parallel and writes one NDJSON line per job to the report. Only a bounded number of jobs
+     * is in flight, so the jobs may be a lazy stream of any size.
+     *
+     * @return the number of validated jobs
+     */
+    public long validateAll(Stream<Job> jobs, Writer report) throws Exception {
+        var parallelism = pool.getParallelism();
+        var inFlight = new Semaphore(parallelism * 4);
+        var failure = new AtomicReference<Throwable>();
+        var count = 0L;
+
+        for (var iterator = jobs.iterator(); iterator.hasNext() && failure.get() == null; count++) {
+            var job = iterator.next();
+            inFlight.acquire();
+            CompletableFuture.runAsync(() -> {
+                try {
+                    var line = toJson(validate(job));
+                    synchronized (report) {
+                        report.write(line);
+                        report.write('\n');
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, pool).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    failure.compareAndSet(null, e);
+                }
+                inFlight.release();
+            });
+        }
+        // wait for the remaining jobs
+        inFlight.acquire(parallelism * 4);
+        inFlight.release(parallelism * 4);
+        report.flush();
+
+        if (failure.get() != null) {
+            throw new IOException("validation report could not be written", failure.get());
+        }
+        return count;
+    }
+
+    private String toJson(Outcome outcome) throws IOException {
+        var line = new LinkedHashMap<String, Object>();
+        line.put("file", outcome.signedFile().toString());
+        line.put("tier", outcome.result().tier());
+        line.put("indication", outcome.result().indication());
+        line.put("subIndication", outcome.result().subIndication());
+        if (outcome.result().failure() != null) {
+            line.put("failure", String.valueOf(outcome.result().failure().getMessage()));
+        }
+        line.put("cached", outcome.cached());
+        line.put("durationMillis", outcome.durationMillis());
+        return objectMapper.writeValueAsString(line);
+    }
+
+    private String cacheKey(Job job) throws IOException {
+        var encoder = Base64.getEncoder();
+        var signatureDigest = encoder.encodeToString(HashingService.hash(job.signedFile(), HashAlgorithm.SHA_256));
+        var detachedDigest = "";
+        if (job.detachedContent() != null) {
+            var digest = job.detachedContent().getExistingDigest();
+            detachedDigest = digest.getAlgorithm() + ":" + encoder.encodeToString(digest.getValue());
+        }
+        return "%s|%s|%s|%s|%d".formatted(signatureDigest, detachedDigest, tier, configuration.policyId(), currentTimeBucket());
+    }
+
+    /**
+     * A failure, e.g. an unreadable file, is not a result of the signature, and an INDETERMINATE result, e.g. without
+     * revocation data because the responder was not reachable, may change with the next try.
+     */
+    private static boolean cacheable(TieredValidator.Result result) {
+        return result.failure() == null && result.indication() != Indication.INDETERMINATE;
+    }
+
+    private long currentTimeBucket() {
+        return System.currentTimeMillis() / timeBucket.toMillis();
+    }
+
+    /**
+     * Loads the cached results, results of past time buckets are skipped.
+     */
+    public void load(Path path) throws Exception {
+        if (!path.toFile().exists()) {
+            return;
+        }
+        var props = new Properties();
+        try (var in = new FileInputStream(path.toFile())) {
+            props.load(in);
+        }
+        var bucket = "|" + currentTimeBucket();
+        for (var key : props.stringPropertyNames()) {
+            if (!key.endsWith(bucket)) {
+                continue;
+            }
+            var fields = props.getProperty(key).split("\\|", 3);
+            var result = new TieredValidator.Result(TieredValidator.Tier.valueOf(fields[0]),
+                    Indication.valueOf(fields[1]), fields[2].isEmpty() ? null : SubIndication.valueOf(fields[2]));
+            if (cacheable(result)) {
+                cache.put(key, result);
+            }
+        }
+    }
+
+    public void store(Path path) throws Exception {
+        var bucket = "|" + currentTimeBucket();
+        var props = new Properties();
+        cache.forEach((key, result) -> {
+            if (key.endsWith(bucket)) {
+                props.setProperty(key, "%s|%s|%s".formatted(result.tier(), result.indication(),
+                        result.subIndication() == null ? "" : result.subIndication()));
+            }
+        });
+        try (var out = new FileOutputStream(path.toFile())) {
+            props.store(out, "validation results keyed on signature digest, detached digest, tier, policy and time bucket");
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
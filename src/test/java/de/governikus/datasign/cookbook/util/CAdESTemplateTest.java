@@ -0,0 +1,179 @@
+package de.governikus.datasign.cookbook.util;
+
+import eu.europa.esig.dss.cades.CAdESSignatureParameters;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.enumerations.SignaturePackaging;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSUtils;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CAdESTemplateTest {
+
+    private static KeyPair keyPair;
+
+    private static CertificateToken signingCertificate;
+
+    private static TimeStampTokenGenerator timeStampTokenGenerator;
+
+    @BeforeAll
+    static void createCertificates() throws Exception {
+        var keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        keyPair = keyPairGenerator.generateKeyPair();
+        signingCertificate = new CertificateToken(new JcaX509CertificateConverter().getCertificate(
+                certificate("CN=signer", keyPair, null)));
+
+        var tsaKeyPair = keyPairGenerator.generateKeyPair();
+        var tsaCertificate = new JcaX509CertificateConverter().getCertificate(
+                certificate("CN=tsa", tsaKeyPair, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping)));
+        timeStampTokenGenerator = new TimeStampTokenGenerator(new JcaSimpleSignerInfoGeneratorBuilder()
+                .build("SHA256withRSA", tsaKeyPair.getPrivate(), tsaCertificate),
+                new JcaDigestCalculatorProviderBuilder().build().get(
+                        new org.bouncycastle.asn1.x509.AlgorithmIdentifier(org.bouncycastle.asn1.nist.NISTObjectIdentifiers.id_sha256)),
+                new ASN1ObjectIdentifier("1.2.3.4"));
+        timeStampTokenGenerator.addCertificates(new JcaCertStore(List.of(tsaCertificate)));
+    }
+
+    @Test
+    void dataToSignAndSignatureAreByteCompatibleWithDSS() throws Exception {
+        var parameters = parameters(SignatureLevel.CAdES_BASELINE_B);
+        var template = CAdESTemplate.create(DSSFactory.cAdESService(), parameters, SignatureAlgorithm.RSA_SHA256);
+
+        var documentDigest = DSSUtils.digest(DigestAlgorithm.SHA256, "document".getBytes());
+        var signingTime = Date.from(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        var document = new DigestDocument(DigestAlgorithm.SHA256, documentDigest);
+        var dssParameters = parameters(SignatureLevel.CAdES_BASELINE_B);
+        dssParameters.bLevel().setSigningDate(signingTime);
+
+        var dataToSign = template.dataToSign(documentDigest, signingTime);
+        assertArrayEquals(DSSFactory.cAdESService().getDataToSign(document, dssParameters).getBytes(), dataToSign);
+
+        var signatureValue = sign(dataToSign);
+        var expected = DSSFactory.cAdESService().signDocument(document, dssParameters,
+                new SignatureValue(SignatureAlgorithm.RSA_SHA256, signatureValue));
+        var cmsSignedData = template.cmsSignedData(dataToSign, signatureValue, null);
+        assertArrayEquals(DSSUtils.toByteArray(expected), cmsSignedData);
+
+        assertValid(document, cmsSignedData, 0);
+    }
+
+    @Test
+    void graftedTimestampIsByteCompatibleWithDSS() throws Exception {
+        var template = CAdESTemplate.create(DSSFactory.cAdESService(), parameters(SignatureLevel.CAdES_BASELINE_T),
+                SignatureAlgorithm.RSA_SHA256);
+
+        var documentDigest = DSSUtils.digest(DigestAlgorithm.SHA256, "timestamped document".getBytes());
+        var signingTime = Date.from(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        var document = new DigestDocument(DigestAlgorithm.SHA256, documentDigest);
+        var dssParameters = parameters(SignatureLevel.CAdES_BASELINE_T);
+        dssParameters.bLevel().setSigningDate(signingTime);
+
+        var dataToSign = template.dataToSign(documentDigest, signingTime);
+        var signatureValue = sign(dataToSign);
+
+        // DSS requests the timestamp, the same token is grafted into the template
+        var timestampToken = new byte[1][];
+        var cAdESService = DSSFactory.cAdESService();
+        cAdESService.setTspSource((TSPSource) (digestAlgorithm, digest) -> {
+            try {
+                var request = new TimeStampRequestGenerator();
+                request.setCertReq(true);
+                timestampToken[0] = timeStampTokenGenerator.generate(
+                        request.generate(new ASN1ObjectIdentifier(digestAlgorithm.getOid()), digest), BigInteger.ONE, new Date()).getEncoded();
+                return new TimestampBinary(timestampToken[0]);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        var expected = cAdESService.signDocument(document, dssParameters, new SignatureValue(SignatureAlgorithm.RSA_SHA256, signatureValue));
+
+        var cmsSignedData = template.cmsSignedData(dataToSign, signatureValue, timestampToken[0]);
+        assertArrayEquals(DSSUtils.toByteArray(expected), cmsSignedData);
+
+        assertValid(document, cmsSignedData, 1);
+    }
+
+    @Test
+    void parametersAreNotChanged() {
+        var parameters = parameters(SignatureLevel.CAdES_BASELINE_T);
+        var signingDate = parameters.bLevel().getSigningDate();
+        CAdESTemplate.create(DSSFactory.cAdESService(), parameters, SignatureAlgorithm.RSA_SHA256);
+
+        assertEquals(SignatureLevel.CAdES_BASELINE_T, parameters.getSignatureLevel());
+        assertEquals(signingDate, parameters.bLevel().getSigningDate());
+    }
+
+    private static void assertValid(DigestDocument document, byte[] cmsSignedData, int timestamps) {
+        var diagnosticData = DSSFactory.signedDocumentValidator(document, new InMemoryDocument(cmsSignedData))
+                .validateDocument().getDiagnosticData();
+        var signature = diagnosticData.getSignatures().get(0);
+        assertTrue(signature.isSignatureIntact());
+        assertTrue(signature.isSignatureValid());
+        assertEquals(timestamps, diagnosticData.getTimestampList().size());
+        for (var timestamp : diagnosticData.getTimestampList()) {
+            assertTrue(timestamp.isMessageImprintDataIntact());
+            assertTrue(timestamp.isSignatureValid());
+        }
+    }
+
+    private static CAdESSignatureParameters parameters(SignatureLevel signatureLevel) {
+        var parameters = new CAdESSignatureParameters();
+        parameters.setSigningCertificate(signingCertificate);
+        parameters.setSignaturePackaging(SignaturePackaging.DETACHED);
+        parameters.setDigestAlgorithm(DigestAlgorithm.SHA256);
+        parameters.setSignatureLevel(signatureLevel);
+        return parameters;
+    }
+
+    private static byte[] sign(byte[] dataToSign) throws Exception {
+        var signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(dataToSign);
+        return signature.sign();
+    }
+
+    private static X509CertificateHolder certificate(String subject, KeyPair keyPair, ExtendedKeyUsage extendedKeyUsage) throws Exception {
+        var now = System.currentTimeMillis();
+        var builder = new JcaX509v3CertificateBuilder(new X500Name(subject), BigInteger.valueOf(now),
+                new Date(now - 86_400_000L), new Date(now + 365 * 86_400_000L), new X500Name(subject), keyPair.getPublic());
+        if (extendedKeyUsage != null) {
+            builder.addExtension(Extension.extendedKeyUsage, true, extendedKeyUsage);
+        }
+        return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()));
+    }
+}
@@ -0,0 +1,123 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.HashAlgorithm;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MerkleTreeTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void proofsOfAllDocumentsReproduceTheRoot() {
+        // odd sizes promote a node without sibling, on one or more levels
+        for (var size : List.of(2, 3, 5, 7, 8, 9, 13)) {
+            var tree = new MerkleTree(digests(size), HashAlgorithm.SHA_256);
+            for (var i = 0; i < size; i++) {
+                var proof = tree.proof(i);
+                assertArrayEquals(tree.root(), proof.root());
+                assertArrayEquals(tree.root(), MerkleTree.root(proof), "document %d of %d".formatted(i, size));
+                assertTrue(proof.path().size() <= 32 - Integer.numberOfLeadingZeros(size - 1));
+            }
+        }
+    }
+
+    @Test
+    void singleDocumentIsTheRoot() {
+        var digest = digests(1).get(0);
+        var tree = new MerkleTree(List.of(digest), HashAlgorithm.SHA_256);
+        var proof = tree.proof(0);
+
+        assertTrue(proof.path().isEmpty());
+        assertArrayEquals(tree.root(), MerkleTree.root(proof));
+        // the root is the leaf hash, not the document digest itself
+        assertFalse(Arrays.equals(digest, tree.root()));
+    }
+
+    @Test
+    void emptyTreeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new MerkleTree(List.of(), HashAlgorithm.SHA_256));
+    }
+
+    @Test
+    void tamperedSiblingDoesNotReproduceTheRoot() {
+        var tree = new MerkleTree(digests(5), HashAlgorithm.SHA_256);
+        var proof = tree.proof(2);
+        var path = new ArrayList<>(proof.path());
+        var sibling = path.get(0).hash().clone();
+        sibling[0] ^= 1;
+        path.set(0, new MerkleTree.Step(path.get(0).left(), sibling));
+
+        var tampered = new MerkleTree.Proof(proof.hashAlgorithm(), proof.documentDigest(), path, proof.root());
+        assertFalse(Arrays.equals(tree.root(), MerkleTree.root(tampered)));
+    }
+
+    @Test
+    void swappedStepDoesNotReproduceTheRoot() {
+        var tree = new MerkleTree(digests(5), HashAlgorithm.SHA_256);
+        var proof = tree.proof(2);
+        for (var i = 0; i < proof.path().size(); i++) {
+            var path = new ArrayList<>(proof.path());
+            path.set(i, new MerkleTree.Step(!path.get(i).left(), path.get(i).hash()));
+
+            var swapped = new MerkleTree.Proof(proof.hashAlgorithm(), proof.documentDigest(), path, proof.root());
+            assertFalse(Arrays.equals(tree.root(), MerkleTree.root(swapped)), "step %d".formatted(i));
+        }
+    }
+
+    @Test
+    void verifierRejectsTamperedProofsBeforeTheSignature() throws Exception {
+        var documents = new ArrayList<Path>();
+        var digests = new ArrayList<byte[]>();
+        for (var i = 0; i < 3; i++) {
+            var document = Files.writeString(directory.resolve("document-" + i + ".txt"), "document " + i);
+            documents.add(document);
+            digests.add(HashingService.hash(document, HashAlgorithm.SHA_256));
+        }
+        var tree = new MerkleTree(digests, HashAlgorithm.SHA_256);
+        // no signature is written, the proof has to fail before it is needed
+        var signatureFile = directory.resolve("root.p7s");
+
+        var proof = tree.proof(0);
+        var sibling = proof.path().get(0).hash().clone();
+        sibling[0] ^= 1;
+        var path = new ArrayList<>(proof.path());
+        path.set(0, new MerkleTree.Step(path.get(0).left(), sibling));
+        var proofFile = directory.resolve("document-0.txt.proof");
+        MerkleProofVerifier.store(proofFile,
+                new MerkleTree.Proof(proof.hashAlgorithm(), proof.documentDigest(), path, proof.root()), signatureFile);
+        assertHashFailure(MerkleProofVerifier.verify(documents.get(0), proofFile));
+
+        // a proof of another document of the same tree
+        MerkleProofVerifier.store(proofFile, tree.proof(1), signatureFile);
+        assertHashFailure(MerkleProofVerifier.verify(documents.get(0), proofFile));
+    }
+
+    private static void assertHashFailure(TieredValidator.Result result) {
+        assertEquals(Indication.TOTAL_FAILED, result.indication());
+        assertEquals(SubIndication.HASH_FAILURE, result.subIndication());
+    }
+
+    private static List<byte[]> digests(int size) {
+        var digests = new ArrayList<byte[]>(size);
+        for (var i = 0; i < size; i++) {
+            digests.add(HashingService.messageDigest(HashAlgorithm.SHA_256).digest(("document " + i).getBytes()));
+        }
+        return digests;
+    }
+}
@@ -0,0 +1,167 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.request.VisualParameter;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDSignatureField;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfPreflightTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pagesAndSignaturesFromXrefTableAndXrefStream() throws Exception {
+        for (var compressParameters : List.of(CompressParameters.NO_COMPRESSION, CompressParameters.DEFAULT_COMPRESSION)) {
+            var pdf = directory.resolve("pages.pdf");
+            try (var document = new PDDocument()) {
+                document.addPage(new PDPage(PDRectangle.A4));
+                var rotated = new PDPage(PDRectangle.LETTER);
+                rotated.setRotation(90);
+                document.addPage(rotated);
+                var cropped = new PDPage(PDRectangle.A4);
+                cropped.setCropBox(new PDRectangle(10, 10, 200, 100));
+                document.addPage(cropped);
+                addSignatureField(document, true);
+                addSignatureField(document, false);
+                document.save(pdf.toFile(), compressParameters);
+            }
+
+            var result = PdfPreflight.scan(pdf);
+
+            assertFalse(result.encrypted());
+            assertTrue(result.isSignable());
+            assertEquals(1, result.signatures());
+            assertEquals(List.of(new PdfPreflight.Page(PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight(), 0),
+                    new PdfPreflight.Page(612, 792, 90), new PdfPreflight.Page(200, 100, 0)), result.pages());
+        }
+    }
+
+    @Test
+    void ownerPasswordOnlyAllowingModificationsIsSignable() throws Exception {
+        for (var keyLength : List.of(40, 128, 256)) {
+            var result = PdfPreflight.scan(encrypted(keyLength, "", new AccessPermission()));
+
+            assertTrue(result.encrypted());
+            assertFalse(result.userPasswordRequired());
+            assertTrue(result.isSignable(), "key length " + keyLength);
+        }
+    }
+
+    @Test
+    void ownerPasswordOnlyForbiddingModificationsIsNotSignable() throws Exception {
+        var permissions = new AccessPermission();
+        permissions.setCanModify(false);
+
+        var result = PdfPreflight.scan(encrypted(128, "", permissions));
+
+        assertFalse(result.userPasswordRequired());
+        assertFalse(result.isSignable());
+    }
+
+    @Test
+    void userPasswordIsNotSignable() throws Exception {
+        for (var keyLength : List.of(40, 128, 256)) {
+            var result = PdfPreflight.scan(encrypted(keyLength, "user", new AccessPermission()));
+
+            assertTrue(result.userPasswordRequired());
+            assertFalse(result.isSignable(), "key length " + keyLength);
+        }
+    }
+
+    @Test
+    void certifiedWithoutChangesIsNotSignable() throws Exception {
+        var pdf = directory.resolve("certified.pdf");
+        try (var document = new PDDocument()) {
+            document.addPage(new PDPage());
+            var transformParams = new COSDictionary();
+            transformParams.setItem(COSName.P, COSInteger.ONE);
+            var reference = new COSDictionary();
+            reference.setItem(COSName.TRANSFORM_METHOD, COSName.DOCMDP);
+            reference.setItem(COSName.TRANSFORM_PARAMS, transformParams);
+            var signature = new COSDictionary();
+            signature.setItem(COSName.REFERENCE, new COSArray(List.of(reference)));
+            var perms = new COSDictionary();
+            perms.setItem(COSName.DOCMDP, signature);
+            document.getDocumentCatalog().getCOSObject().setItem(COSName.PERMS, perms);
+            document.save(pdf.toFile());
+        }
+
+        var result = PdfPreflight.scan(pdf);
+
+        assertEquals(1, result.certificationPermission());
+        assertFalse(result.isSignable());
+    }
+
+    @Test
+    void damagedFileIsRejected() throws Exception {
+        var pdf = directory.resolve("damaged.pdf");
+        Files.writeString(pdf, "%PDF-1.7\n1 0 obj\n<< /Type /Catalog >>\nendobj\n");
+
+        assertThrows(IOException.class, () -> PdfPreflight.scan(pdf));
+    }
+
+    @Test
+    void visualParameterOutsideOfTheDocumentIsRejected() throws Exception {
+        var pdf = directory.resolve("single.pdf");
+        try (var document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.save(pdf.toFile());
+        }
+        var result = PdfPreflight.scan(pdf);
+
+        result.checkVisualParameter(new VisualParameter(1, new VisualParameter.RelativeCoordinate(0.68f, 0.88f),
+                0.3f, 0.1f, null, null));
+        assertThrows(IllegalArgumentException.class, () -> result.checkVisualParameter(
+                new VisualParameter(2, null, null, null, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> result.checkVisualParameter(
+                new VisualParameter(1, new VisualParameter.RelativeCoordinate(0.8f, 0.5f), 0.3f, 0.1f, null, null)));
+    }
+
+    private Path encrypted(int keyLength, String userPassword, AccessPermission permissions) throws IOException {
+        var pdf = directory.resolve("encrypted-%d-%s.pdf".formatted(keyLength, userPassword.isEmpty() ? "owner" : "user"));
+        try (var document = new PDDocument()) {
+            document.addPage(new PDPage());
+            var policy = new StandardProtectionPolicy("owner", userPassword, permissions);
+            policy.setEncryptionKeyLength(keyLength);
+            document.protect(policy);
+            document.save(pdf.toFile());
+        }
+        return pdf;
+    }
+
+    private static void addSignatureField(PDDocument document, boolean signed) throws IOException {
+        var acroForm = document.getDocumentCatalog().getAcroForm();
+        if (acroForm == null) {
+            acroForm = new PDAcroForm(document);
+            document.getDocumentCatalog().setAcroForm(acroForm);
+        }
+        var field = new PDSignatureField(acroForm);
+        if (signed) {
+            field.setValue(new PDSignature());
+        }
+        acroForm.getFields().add(field);
+    }
+}
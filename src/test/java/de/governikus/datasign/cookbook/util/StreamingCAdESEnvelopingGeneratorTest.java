@@ -0,0 +1,137 @@
+package de.governikus.datasign.cookbook.util;
+
+import de.governikus.datasign.cookbook.types.SignatureAlgorithm;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.spi.DSSUtils;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingCAdESEnvelopingGeneratorTest {
+
+    private static KeyPair keyPair;
+
+    private static X509Certificate signingCertificate;
+
+    private static TimeStampTokenGenerator timeStampTokenGenerator;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void createCertificates() throws Exception {
+        var keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        keyPair = keyPairGenerator.generateKeyPair();
+        signingCertificate = new JcaX509CertificateConverter().getCertificate(certificate("CN=signer", keyPair, null));
+
+        var tsaKeyPair = keyPairGenerator.generateKeyPair();
+        var tsaCertificate = new JcaX509CertificateConverter().getCertificate(
+                certificate("CN=tsa", tsaKeyPair, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping)));
+        timeStampTokenGenerator = new TimeStampTokenGenerator(new JcaSimpleSignerInfoGeneratorBuilder()
+                .build("SHA256withRSA", tsaKeyPair.getPrivate(), tsaCertificate),
+                new JcaDigestCalculatorProviderBuilder().build().get(
+                        new org.bouncycastle.asn1.x509.AlgorithmIdentifier(org.bouncycastle.asn1.nist.NISTObjectIdentifiers.id_sha256)),
+                new ASN1ObjectIdentifier("1.2.3.4"));
+        timeStampTokenGenerator.addCertificates(new JcaCertStore(List.of(tsaCertificate)));
+    }
+
+    @Test
+    void envelopingSignatureIsValidAndContainsThePayload() throws Exception {
+        // larger than the buffer, so the content is written in several chunks
+        var payload = new byte[300 * 1024];
+        new Random(1).nextBytes(payload);
+        var payloadFile = Files.write(directory.resolve("payload.bin"), payload);
+        var output = directory.resolve("payload.bin.p7m");
+
+        new StreamingCAdESEnvelopingGenerator(signingCertificate, SignatureAlgorithm.RSA_SHA256)
+                .generate(payloadFile, output, StreamingCAdESEnvelopingGeneratorTest::sign,
+                        StreamingCAdESEnvelopingGeneratorTest::timestamp);
+
+        var content = new ByteArrayOutputStream();
+        new CMSSignedData(Files.readAllBytes(output)).getSignedContent().write(content);
+        assertArrayEquals(payload, content.toByteArray());
+
+        var diagnosticData = DSSFactory.signedDocumentValidator(new FileDocument(output.toFile()))
+                .validateDocument().getDiagnosticData();
+        var signature = diagnosticData.getSignatures().get(0);
+        assertTrue(signature.isSignatureIntact());
+        assertTrue(signature.isSignatureValid());
+        assertEquals(1, diagnosticData.getTimestampList().size());
+        assertTrue(diagnosticData.getTimestampList().get(0).isMessageImprintDataIntact());
+        assertTrue(diagnosticData.getTimestampList().get(0).isSignatureValid());
+        assertFalse(Files.exists(directory.resolve("payload.bin.p7m.tmp")));
+    }
+
+    @Test
+    void failedSignatureLeavesNoOutput() throws Exception {
+        var payloadFile = Files.write(directory.resolve("payload.bin"), "payload".getBytes());
+        var output = Files.write(directory.resolve("payload.bin.p7m"), "previous".getBytes());
+
+        assertThrows(Exception.class, () -> new StreamingCAdESEnvelopingGenerator(signingCertificate, SignatureAlgorithm.RSA_SHA256)
+                .generate(payloadFile, output, dataToBeSigned -> {
+                    throw new IllegalStateException("signature service unavailable");
+                }, StreamingCAdESEnvelopingGeneratorTest::timestamp));
+
+        assertArrayEquals("previous".getBytes(), Files.readAllBytes(output));
+        assertFalse(Files.exists(directory.resolve("payload.bin.p7m.tmp")));
+    }
+
+    private static byte[] sign(byte[] dataToBeSigned) throws Exception {
+        var signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(dataToBeSigned);
+        return signature.sign();
+    }
+
+    private static byte[] timestamp(byte[] signatureValue) throws Exception {
+        var request = new TimeStampRequestGenerator();
+        request.setCertReq(true);
+        return timeStampTokenGenerator.generate(request.generate(new ASN1ObjectIdentifier(DigestAlgorithm.SHA256.getOid()),
+                DSSUtils.digest(DigestAlgorithm.SHA256, signatureValue)), BigInteger.ONE, new Date()).getEncoded();
+    }
+
+    private static X509CertificateHolder certificate(String subject, KeyPair keyPair, ExtendedKeyUsage extendedKeyUsage) throws Exception {
+        var now = System.currentTimeMillis();
+        var builder = new JcaX509v3CertificateBuilder(new X500Name(subject), BigInteger.valueOf(now),
+                new Date(now - 86_400_000L), new Date(now + 365 * 86_400_000L), new X500Name(subject), keyPair.getPublic());
+        if (extendedKeyUsage != null) {
+            builder.addExtension(Extension.extendedKeyUsage, true, extendedKeyUsage);
+        }
+        return builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()));
+    }
+}